@@ -0,0 +1,33 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInterceptor;
+import com.hmdp.utils.HmdpCacheEvict;
+import com.hmdp.utils.HmdpCacheable;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+
+@Configuration
+public class CacheConfig {
+
+    /**
+     * 织入 @HmdpCacheable、@HmdpCacheEvict。排在事务拦截器之外，删除缓存发生在事务提交之后
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public static Advisor cacheAnnotationAdvisor(ObjectProvider<CacheClient> cacheClient) {
+        ComposablePointcut pointcut = new ComposablePointcut(AnnotationMatchingPointcut.forMethodAnnotation(HmdpCacheable.class))
+                .union(AnnotationMatchingPointcut.forMethodAnnotation(HmdpCacheEvict.class));
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(pointcut, new CacheInterceptor(cacheClient));
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+}
@@ -1,5 +1,6 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.CacheMetrics;
 import com.hmdp.utils.LoginIntercepter;
 import com.hmdp.utils.RefreshTokenIntercepter;
 import org.springframework.context.annotation.Configuration;
@@ -15,6 +16,9 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheMetrics cacheMetrics;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginIntercepter())
@@ -27,6 +31,6 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/voucher/**"
                 ).order(1);
-        registry.addInterceptor(new RefreshTokenIntercepter(stringRedisTemplate)).order(0);
+        registry.addInterceptor(new RefreshTokenIntercepter(stringRedisTemplate, cacheMetrics)).order(0);
     }
 }
@@ -6,10 +6,18 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.ShopCacheWarmer;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
 
 /**
  * <p>
@@ -26,15 +34,30 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private ResponseCache responseCache;
+
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
-     * @return 商铺详情数据
+     * @param fields 只需要部分字段时传入，逗号隔开，例如 name,avgPrice,score
+     * 响应写入 response：商铺详情数据，完整的详情使用渲染好的响应缓存（见 ResponseCache）
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-
-        return shopService.queryById(id);
+    public void queryShopById(@PathVariable("id") Long id,
+                              @RequestParam(value = "fields", required = false) List<String> fields,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (fields != null && !fields.isEmpty()) {
+            responseCache.write(request, response, shopService.queryFields(id, fields));
+            return;
+        }
+        if (responseCache.write(CACHE_SHOP_KEY, id, request, response, () -> shopService.queryById(id))) {
+            // 命中时没有经过 queryById，同样计入访问统计，热点店铺才会被续期
+            shopCacheWarmer.recordAccess(id, true);
+        }
     }
 
     /**
@@ -1,15 +1,18 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
-import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.ShopTypeCatalog;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
 
 /**
  * <p>
@@ -23,12 +26,16 @@ import java.util.List;
 @RequestMapping("/shop-type")
 public class ShopTypeController {
     @Resource
-    private IShopTypeService typeService;
+    private ShopTypeCatalog shopTypeCatalog;
+
+    @Resource
+    private ResponseCache responseCache;
 
+    /**
+     * 直接写入快照中渲染好的响应，不访问 Redis
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
-//        List<ShopType> typeList = typeService
-//                .query().orderByAsc("sort").list();
-        return typeService.queryList();
+    public void queryTypeList(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        responseCache.write(CACHE_SHOP_TYPE_KEY, request, response, shopTypeCatalog.snapshot().getResponse());
     }
 }
@@ -4,9 +4,17 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.ResponseCache;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_TTL;
 
 /**
  * <p>
@@ -23,6 +31,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private ResponseCache responseCache;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -45,13 +56,27 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存
+     * @param voucherId 优惠券id
+     * @param count 补充的数量
+     * @return 无
+     */
+    @PostMapping("seckill/{id}/restock")
+    public Result restockSeckillVoucher(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        return voucherService.restockSeckillVoucher(voucherId, count);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
-     * @return 优惠券列表
+     * 响应写入 response：优惠券列表，带有 ETag，客户端的副本没有变化时返回 304
      */
     @GetMapping("/list/{shopId}")
-    public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
-       return voucherService.queryVoucherOfShop(shopId);
+    public void queryVoucherOfShop(@PathVariable("shopId") Long shopId,
+                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 列表中的秒杀库存不经过缓存删除也会变化，ETag 和缓存一样最多延迟 CACHE_SHOP_VOUCHER_TTL 分钟
+        responseCache.write(CACHE_SHOP_VOUCHER_KEY, shopId, TimeUnit.MINUTES.toSeconds(CACHE_SHOP_VOUCHER_TTL),
+                request, response, () -> voucherService.queryVoucherOfShop(shopId));
     }
 }
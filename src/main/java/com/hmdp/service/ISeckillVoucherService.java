@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务类
@@ -13,4 +16,21 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 预热秒杀券：把库存、秒杀时间窗口和空的已下单用户集合写入Redis，多个节点同时预热时只有一个生效
+     * @return 本次是否执行了预热
+     */
+    boolean warmUp(Long voucherId);
+
+    /**
+     * 秒杀结束后关闭每个库存分片，把Redis剩余库存写回数据库并释放Redis中的key。
+     * 和预热、补库存一样先锁住秒杀券，三者依次执行
+     * @return false 表示还有订单没有落库，需要稍后重试
+     */
+    boolean finish(Long voucherId);
+
+    /**
+     * 归还已取消订单占用的库存：在当前事务中增加数据库库存，事务提交后归还Redis库存并允许用户重新下单
+     */
+    void returnStock(List<VoucherOrder> cancelledOrders);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,15 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    /**
+     * 查询店铺，经过缓存，不存在时返回 null。返回的对象被多个请求共享，不能修改
+     */
+    Shop queryShop(Long id);
+
+    /**
+     * 只查询需要的字段（例如列表卡片只需要名称、均价、评分），从按字段保存的缓存中用 HMGET 读取
+     */
+    Result queryFields(Long id, List<String> fields);
+
     Result update(Shop shop);
 }
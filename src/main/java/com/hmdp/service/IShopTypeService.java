@@ -14,5 +14,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    /**
+     * 全部店铺类型，按 sort 升序，来自本节点的快照（见 ShopTypeCatalog）。列表被多个请求共享，不能修改
+     */
     Result queryList();
 }
@@ -1,8 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +17,17 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
+    Result seckillVoucher(Long voucherId);
+
+    /**
+     * 批量落库秒杀订单，每个优惠券在一批中只扣减一次库存
+     * @return 实际新插入的订单数（已落库的订单会被跳过）
+     */
+    int createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 批量取消仍未支付的订单，并归还库存
+     * @return 实际被取消的订单（已支付或已取消的订单会被跳过）
+     */
+    List<VoucherOrder> cancelUnpaidOrders(Collection<Long> orderIds);
 }
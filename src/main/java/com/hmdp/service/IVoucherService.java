@@ -16,5 +16,12 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    /**
+     * 店铺上架中的优惠券（包括秒杀券的库存和时间），经过缓存。返回的数组被多个请求共享，不能修改
+     */
+    Voucher[] queryVouchersOfShop(Long shopId);
+
     void addSeckillVoucher(Voucher voucher);
+
+    Result restockSeckillVoucher(Long voucherId, Integer count);
 }
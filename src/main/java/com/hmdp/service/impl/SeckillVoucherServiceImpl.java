@@ -1,10 +1,37 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.BooleanUtil;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockShards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -14,7 +41,180 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    private static final DefaultRedisScript<Long> RETURN_STOCK_SCRIPT;
+
+    static {
+        RETURN_STOCK_SCRIPT = new DefaultRedisScript<>();
+        RETURN_STOCK_SCRIPT.setLocation(new ClassPathResource("return_stock.lua"));
+        RETURN_STOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 分片的秒杀时间窗口中记录还没落库的订单数的字段，由 seckill.lua 加一、seckill_order_ack.lua 减一
+     */
+    private static final String QUEUED_FIELD = "queued";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockShards stockShards;
+
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Override
+    @Transactional
+    public boolean warmUp(Long voucherId) {
+        // 锁住秒杀券，和补库存、对账依次执行：预热读到的库存已经包含提交的补库存
+        SeckillVoucher voucher = lockById(voucherId);
+        if (voucher == null) {
+            return false;
+        }
+        // 0.已经结束的不再预热：对账会释放预热标记，之后再预热会留下没人清理的key
+        if (!voucher.getEndTime().isAfter(LocalDateTime.now())) {
+            return false;
+        }
+        // 1.预热标记，只有一个节点能抢到；秒杀开始后不能再覆盖Redis中的库存
+        long ttl = Math.max(Duration.between(LocalDateTime.now(), voucher.getEndTime()).getSeconds(), 0) + TimeUnit.DAYS.toSeconds(1);
+        Boolean first = stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_WARM_KEY + voucherId, "1", ttl, TimeUnit.SECONDS);
+        if (!BooleanUtil.isTrue(first)) {
+            return false;
+        }
+        // 2.库存按分片拆分
+        int shards = stockShards.normalize(voucher.getStockShards());
+        int[] parts = SeckillStockShards.split(voucher.getStock(), shards);
+        String begin = String.valueOf(toEpochMilli(voucher.getBeginTime()));
+        String end = String.valueOf(toEpochMilli(voucher.getEndTime()));
+        try {
+            // 3.在一个pipeline中写入每个分片的库存、时间窗口，并清空已下单用户集合，最后写入分片数
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (int i = 0; i < shards; i++) {
+                    int p = stockShards.partition(voucherId, i);
+                    String windowKey = SeckillStockShards.key(SECKILL_WINDOW_KEY, p, voucherId);
+                    conn.set(SeckillStockShards.key(SECKILL_STOCK_KEY, p, voucherId), String.valueOf(parts[i]));
+                    conn.del(SeckillStockShards.key(SECKILL_ORDER_KEY, p, voucherId));
+                    conn.hSet(windowKey, "begin", begin);
+                    conn.hSet(windowKey, "end", end);
+                }
+                conn.set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // 预热失败，释放标记以便重试
+            stringRedisTemplate.delete(SECKILL_WARM_KEY + voucherId);
+            throw e;
+        }
+        stockShards.register(voucherId, shards);
+        soldOutRegistry.clear(voucherId);
+        log.info("秒杀券预热完成，voucherId:{}，库存:{}，分片:{}", voucherId, voucher.getStock(), shards);
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public boolean finish(Long voucherId) {
+        // 1.锁住秒杀券，补库存要等对账提交后才能执行，不会在关闭分片和写回数据库之间写入
+        SeckillVoucher voucher = lockById(voucherId);
+        if (voucher == null) {
+            return true;
+        }
+        int shards = stockShards.normalize(voucher.getStockShards());
+        // 2.订单消息队列中还有这张券没落库的订单时，数据库库存还会变化，稍后再对账
+        if (!isOrderQueueDrained(stockShards.keys(SECKILL_WINDOW_KEY, voucherId, shards))) {
+            return false;
+        }
+        // 3.逐个关闭分片并取出剩余库存，关闭后的分片不再接受下单、借库存、补库存和归还库存
+        long closeTtl = TimeUnit.DAYS.toSeconds(1);
+        boolean closed = false;
+        long remaining = 0;
+        for (int i = 0; i < shards; i++) {
+            long stock = stockShards.close(voucherId, i, closeTtl);
+            if (stock >= 0) {
+                closed = true;
+                remaining += stock;
+            }
+        }
+        // 4.以Redis为准写回数据库；分片已经被其他节点关闭时由那个节点写回
+        if (closed) {
+            if (remaining != voucher.getStock()) {
+                log.warn("秒杀券库存不一致，以Redis为准，voucherId:{}，数据库:{}，Redis:{}", voucherId, voucher.getStock(), remaining);
+            }
+            update().set("stock", remaining).eq("voucher_id", voucherId).update();
+        }
+        // 5.释放分片数和预热标记，时间窗口的关闭标记自动过期
+        stringRedisTemplate.delete(Arrays.asList(SECKILL_SHARDS_KEY + voucherId, SECKILL_WARM_KEY + voucherId));
+        stockShards.forget(voucherId);
+        log.info("秒杀券已结束并完成对账，voucherId:{}，剩余库存:{}", voucherId, remaining);
+        return true;
+    }
+
+    @Override
+    public void returnStock(List<VoucherOrder> cancelledOrders) {
+        if (cancelledOrders.isEmpty()) {
+            return;
+        }
+        // 1.数据库库存，每个优惠券只更新一次
+        Map<Long, Integer> countByVoucher = new LinkedHashMap<>();
+        for (VoucherOrder order : cancelledOrders) {
+            countByVoucher.merge(order.getVoucherId(), 1, Integer::sum);
+        }
+        for (Map.Entry<Long, Integer> entry : countByVoucher.entrySet()) {
+            update().setSql("stock = stock + " + entry.getValue()).eq("voucher_id", entry.getKey()).update();
+        }
+        // 2.事务提交后再归还Redis库存到用户的首选分片，一个pipeline完成整批
+        Runnable returnToRedis = () -> {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    for (VoucherOrder order : cancelledOrders) {
+                        Long voucherId = order.getVoucherId();
+                        int shard = SeckillStockShards.homeShard(order.getUserId(), stockShards.shardCount(voucherId));
+                        int p = stockShards.partition(voucherId, shard);
+                        ops.execute(RETURN_STOCK_SCRIPT, Arrays.asList(SeckillStockShards.key(SECKILL_WINDOW_KEY, p, voucherId),
+                                SeckillStockShards.key(SECKILL_ORDER_KEY, p, voucherId),
+                                SeckillStockShards.key(SECKILL_STOCK_KEY, p, voucherId)), order.getUserId().toString());
+                    }
+                    return null;
+                }
+            });
+            countByVoucher.keySet().forEach(soldOutRegistry::clear);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    returnToRedis.run();
+                }
+            });
+        } else {
+            returnToRedis.run();
+        }
+    }
+
+    // 订单消息队列中没有这张券还没落库的订单，其他券的订单不影响
+    private boolean isOrderQueueDrained(List<String> windowKeys) {
+        for (String windowKey : windowKeys) {
+            Object queued = stringRedisTemplate.opsForHash().get(windowKey, QUEUED_FIELD);
+            if (queued != null && Long.parseLong(queued.toString()) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private SeckillVoucher lockById(Long voucherId) {
+        return query().eq("voucher_id", voucherId).last("for update").one();
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
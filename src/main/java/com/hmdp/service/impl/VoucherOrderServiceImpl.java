@@ -1,10 +1,60 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.collection.CollUtil;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.NodeIdentity;
+import com.hmdp.utils.OrderPayTimeoutScheduler;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -14,7 +64,478 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockShards stockShards;
+
+    @Resource
+    private SeckillRateLimiter rateLimiter;
+
+    @Resource
+    private BloomFilterRegistry bloomFilters;
+
+    /**
+     * 自身的代理对象，保证异步线程调用 createVoucherOrders 时事务生效
+     */
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
+
+    /**
+     * 每次从消息队列读取的最大订单数，即一次批量插入的行数
+     */
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 消息队列为空时阻塞等待的时间
+     */
+    @Value("${hmdp.seckill.order.block-millis:2000}")
+    private long blockMillis;
+
+    /**
+     * pending-list 中的消息投递达到这个次数仍然失败时，改为逐条处理，逐条处理也失败的转移到死信队列
+     */
+    @Value("${hmdp.seckill.order.max-deliveries:10}")
+    private long maxDeliveries;
+
+    /**
+     * 其他消费者的消息空闲超过这个时间没有确认时由本节点接管
+     */
+    @Value("${hmdp.seckill.order.claim-min-idle-millis:60000}")
+    private long claimMinIdleMillis;
+
+    @Resource
+    private NodeIdentity nodeIdentity;
+
+    @Resource
+    private OrderPayTimeoutScheduler payTimeoutScheduler;
+
+    /**
+     * 消费者名称，需要在重启前后保持不变，才能重新处理自己的 pending-list
+     */
+    private String consumerName;
+
+    /**
+     * 各个分区的订单消息队列，一次 XREADGROUP 同时读取
+     */
+    private List<String> streamKeys;
+
+    /**
+     * 订单状态：未支付、已取消
+     */
+    private static final int ORDER_STATUS_UNPAID = 1;
+    private static final int ORDER_STATUS_CANCELLED = 4;
+
+    /**
+     * pending-list 重试的初始间隔和最长间隔，每多投递一次间隔翻倍
+     */
+    private static final long PENDING_RETRY_MILLIS = 20;
+    private static final long PENDING_RETRY_MAX_MILLIS = 5000;
+
+    private static final DefaultRedisScript<Long> ACK_SCRIPT;
+    private static final DefaultRedisScript<Long> DEAD_LETTER_SCRIPT;
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+
+    static {
+        ACK_SCRIPT = new DefaultRedisScript<>();
+        ACK_SCRIPT.setLocation(new ClassPathResource("seckill_order_ack.lua"));
+        ACK_SCRIPT.setResultType(Long.class);
+        DEAD_LETTER_SCRIPT = new DefaultRedisScript<>();
+        DEAD_LETTER_SCRIPT.setLocation(new ClassPathResource("seckill_order_dead_letter.lua"));
+        DEAD_LETTER_SCRIPT.setResultType(Long.class);
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("seckill_order_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @PostConstruct
+    private void init() {
+        consumerName = "c-" + nodeIdentity.getName();
+        streamKeys = stockShards.streamKeys();
+        streamKeys.forEach(this::createGroupIfAbsent);
+        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        SECKILL_ORDER_EXECUTOR.shutdownNow();
+        SECKILL_ORDER_EXECUTOR.awaitTermination(blockMillis + 1000, TimeUnit.MILLISECONDS);
+    }
+
+    // XGROUP CREATE stream.orders:{p} g1 0 MKSTREAM，组已存在时忽略
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    bytes("CREATE"), bytes(streamKey), bytes(SECKILL_ORDER_GROUP),
+                    bytes("0"), bytes("MKSTREAM")));
+        } catch (Exception e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private class VoucherOrderHandler implements Runnable {
+        @Override
+        public void run() {
+            // 0.启动时先接管其他消费者遗留的消息，再处理上次未确认的消息，保证订单不丢失
+            claimIdle();
+            handlePendingList();
+            long nextClaim = System.currentTimeMillis() + claimMinIdleMillis;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    // 0.1.定期接管空闲过久的消息（消费者名随节点改变后，旧名字的 pending-list 没有人处理）
+                    if (System.currentTimeMillis() >= nextClaim) {
+                        nextClaim = System.currentTimeMillis() + claimMinIdleMillis;
+                        if (claimIdle() > 0) {
+                            handlePendingList();
+                        }
+                    }
+                    // 1.获取各分区消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders:{0} ... > ...
+                    List<MapRecord<String, Object, Object>> list = read(ReadOffset.lastConsumed(), true);
+                    // 2.判断消息获取是否成功
+                    if (list == null || list.isEmpty()) {
+                        // 2.1.如果获取失败，说明没有消息，继续下一次循环
+                        continue;
+                    }
+                    // 3.批量创建订单并ACK确认
+                    handleBatch(list);
+                } catch (Exception e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    log.error("处理订单异常", e);
+                    // 4.出现异常的消息留在 pending-list 中，重新处理
+                    handlePendingList();
+                }
+            }
+        }
+
+        private void handlePendingList() {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<MapRecord<String, Object, Object>> list = null;
+                try {
+                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders:{0} ... 0 ...
+                    list = read(ReadOffset.from("0"), false);
+                    // 2.判断消息获取是否成功
+                    if (list == null || list.isEmpty()) {
+                        // 2.1.如果获取失败，说明pending-list没有异常消息，结束循环
+                        break;
+                    }
+                    // 3.批量创建订单并ACK确认
+                    handleBatch(list);
+                } catch (Exception e) {
+                    log.error("处理pending-list订单异常", e);
+                    // 4.按投递次数退避；多次失败后逐条处理，找出导致整批失败的消息
+                    long deliveries = 0;
+                    try {
+                        deliveries = list == null || list.isEmpty() ? 0 : maxDeliveryCount(list);
+                    } catch (Exception ex) {
+                        log.error("查询pending-list投递次数异常", ex);
+                    }
+                    if (deliveries >= maxDeliveries) {
+                        handleOneByOne(list, deliveries);
+                    } else {
+                        sleep(Math.min(PENDING_RETRY_MILLIS << Math.min(deliveries, 8), PENDING_RETRY_MAX_MILLIS));
+                    }
+                }
+            }
+        }
+
+        // 逐条处理：成功的正常落库，失败的转移到死信队列；数据库或Redis不可用时所有消息都会失败，留在pending-list中稍后重试
+        private void handleOneByOne(List<MapRecord<String, Object, Object>> list, long deliveries) {
+            for (MapRecord<String, Object, Object> record : list) {
+                try {
+                    handleBatch(Collections.singletonList(record));
+                } catch (Exception e) {
+                    if (isUnavailable(e)) {
+                        log.error("逐条处理订单时数据库或Redis不可用，稍后重试", e);
+                        sleep(PENDING_RETRY_MAX_MILLIS);
+                        return;
+                    }
+                    deadLetter(record, e, deliveries);
+                }
+            }
+        }
+
+        // XPENDING stream.orders:{p} g1 firstId lastId n c1，返回这批消息中最大的投递次数
+        private long maxDeliveryCount(List<MapRecord<String, Object, Object>> list) {
+            long max = 0;
+            for (Map.Entry<String, List<MapRecord<String, Object, Object>>> entry : byStream(list).entrySet()) {
+                List<MapRecord<String, Object, Object>> records = entry.getValue();
+                PendingMessages pending = stringRedisTemplate.opsForStream().pending(entry.getKey(),
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                        Range.closed(records.get(0).getId().getValue(), records.get(records.size() - 1).getId().getValue()),
+                        records.size());
+                for (PendingMessage message : pending) {
+                    max = Math.max(max, message.getTotalDeliveryCount());
+                }
+            }
+            return max;
+        }
+
+        private void deadLetter(MapRecord<String, Object, Object> record, Exception e, long deliveries) {
+            int partition = SeckillStockShards.partitionOf(record.getStream());
+            List<String> keys = new ArrayList<>(3);
+            keys.add(record.getStream());
+            keys.add(SeckillStockShards.deadLetterKey(partition));
+            Object voucherId = record.getValue().get("voucherId");
+            if (voucherId != null) {
+                keys.add(SeckillStockShards.key(SECKILL_WINDOW_KEY, partition, Long.valueOf(voucherId.toString())));
+            }
+            try {
+                stringRedisTemplate.execute(DEAD_LETTER_SCRIPT, keys,
+                        SECKILL_ORDER_GROUP, record.getId().getValue(), String.valueOf(e), String.valueOf(deliveries));
+                log.error("订单消息多次处理失败，已转移到死信队列 {}，id:{}，内容:{}",
+                        keys.get(1), record.getId(), record.getValue(), e);
+            } catch (Exception ex) {
+                log.error("转移订单消息到死信队列失败，id:{}", record.getId(), ex);
+                sleep(PENDING_RETRY_MAX_MILLIS);
+            }
+        }
+
+        // XAUTOCLAIM 接管各分区中所有空闲超过 claim-min-idle-millis 的消息，返回接管的消息数
+        private long claimIdle() {
+            long claimed = 0;
+            for (String streamKey : streamKeys) {
+                String cursor = "0-0";
+                try {
+                    do {
+                        List<?> result = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                                Collections.singletonList(streamKey),
+                                SECKILL_ORDER_GROUP, consumerName, String.valueOf(claimMinIdleMillis), cursor,
+                                String.valueOf(batchSize));
+                        cursor = (String) result.get(0);
+                        claimed += (Long) result.get(1);
+                    } while (!"0-0".equals(cursor));
+                } catch (Exception e) {
+                    log.error("接管空闲的订单消息异常，stream:{}", streamKey, e);
+                }
+            }
+            if (claimed > 0) {
+                log.info("接管空闲的订单消息 {} 条", claimed);
+            }
+            return claimed;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<MapRecord<String, Object, Object>> read(ReadOffset offset, boolean block) {
+            StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+            if (block) {
+                options = options.block(Duration.ofMillis(blockMillis));
+            }
+            StreamOffset<String>[] offsets = new StreamOffset[streamKeys.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = StreamOffset.create(streamKeys.get(i), offset);
+            }
+            return stringRedisTemplate.opsForStream().read(
+                    Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                    options,
+                    offsets
+            );
+        }
+
+        private void handleBatch(List<MapRecord<String, Object, Object>> list) {
+            long begin = System.nanoTime();
+            // 1.解析消息中的订单信息
+            List<VoucherOrder> orders = new ArrayList<>(list.size());
+            for (MapRecord<String, Object, Object> record : list) {
+                orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            }
+            // 2.在一个事务中批量创建订单
+            int inserted = proxy.createVoucherOrders(orders);
+            // 3.登记支付超时，pending-list 重放时重复登记也没关系，取消前会检查订单状态
+            payTimeoutScheduler.schedule(orders);
+            // 4.按分区ACK确认并删除消息 XACK stream.orders:{p} g1 id... / XDEL stream.orders:{p} id...，各分片未落库的订单数随之减少
+            for (Map.Entry<String, List<MapRecord<String, Object, Object>>> entry : byStream(list).entrySet()) {
+                ack(entry.getKey(), entry.getValue());
+            }
+            log.debug("订单批量落库完成，读取:{}，插入:{}，耗时:{}ms", list.size(), inserted,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        }
+
+        // 确认脚本的参数：第 i 个 key 是第 i 个消息id所属分片的秒杀时间窗口，和消息队列在同一个分区
+        private void ack(String streamKey, List<MapRecord<String, Object, Object>> records) {
+            int partition = SeckillStockShards.partitionOf(streamKey);
+            List<String> keys = new ArrayList<>(records.size() + 1);
+            List<String> args = new ArrayList<>(records.size() + 1);
+            keys.add(streamKey);
+            args.add(SECKILL_ORDER_GROUP);
+            for (MapRecord<String, Object, Object> record : records) {
+                Long voucherId = Long.valueOf(record.getValue().get("voucherId").toString());
+                keys.add(SeckillStockShards.key(SECKILL_WINDOW_KEY, partition, voucherId));
+                args.add(record.getId().getValue());
+            }
+            stringRedisTemplate.execute(ACK_SCRIPT, keys, args.toArray());
+        }
+
+        private Map<String, List<MapRecord<String, Object, Object>>> byStream(List<MapRecord<String, Object, Object>> list) {
+            Map<String, List<MapRecord<String, Object, Object>>> byStream = new LinkedHashMap<>();
+            for (MapRecord<String, Object, Object> record : list) {
+                byStream.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record);
+            }
+            return byStream;
+        }
+
+        private void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // 数据库或Redis暂时不可用（连接失败、无法开启事务等），与消息内容无关
+    private static boolean isUnavailable(Throwable e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof TransactionException;
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+        // 0.本地已标记售罄，直接拒绝，不访问 Redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail(seckillFailMessage(1));
+        }
+        // 0.1.布隆过滤器判断优惠券不存在，直接拒绝
+        if (!bloomFilters.mightContain(BLOOM_VOUCHER_KEY, voucherId)) {
+            return Result.fail(seckillFailMessage(5));
+        }
+        Long userId = UserHolder.getUser().getId();
+        // 0.2.节点级限流，用户级和优惠券级在lua脚本中检查
+        if (!rateLimiter.tryAcquireLocal()) {
+            return Result.fail(seckillFailMessage(SeckillRateLimiter.USER_LIMITED));
+        }
+        long orderId = redisIdWorker.nextId("order");
+        // 1.在用户的首选库存分片上执行lua脚本：限流，校验秒杀时间、库存、一人一单，扣减Redis库存并把订单发送到消息队列
+        SeckillStockShards.Admission admission = stockShards.admit(voucherId, userId, orderId, rateLimiter);
+        // 2.判断结果是否为0
+        int r = admission.getResult();
+        if (r != 0) {
+            // 2.1.不为0，代表没有购买资格，订单id没有写入消息队列，归还给生成器；所有分片都没有库存时标记售罄
+            if (r > 0) {
+                redisIdWorker.recycle("order", orderId);
+            }
+            rateLimiter.record(r);
+            if (admission.isSoldOut()) {
+                soldOutRegistry.markSoldOut(voucherId);
+            }
+            return Result.fail(seckillFailMessage(r));
+        }
+        // 3.返回订单id
+        return Result.ok(orderId);
+    }
+
+    private static String seckillFailMessage(int code) {
+        switch (code) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "不能重复下单";
+            case 3:
+                return "秒杀尚未开始";
+            case 4:
+                return "秒杀已经结束";
+            case 5:
+                return "秒杀券不存在或未开放";
+            case SeckillRateLimiter.USER_LIMITED:
+            case SeckillRateLimiter.VOUCHER_LIMITED:
+                return "请求过于频繁，请稍后再试";
+            default:
+                return "服务器异常";
+        }
+    }
+
+    @Override
+    @Transactional
+    public int createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        if (CollUtil.isEmpty(voucherOrders)) {
+            return 0;
+        }
+        // 1.过滤掉已经落库的订单（pending-list 重放时，可能上次已提交但未ACK）
+        Set<Long> ids = new HashSet<>(voucherOrders.size());
+        for (VoucherOrder order : voucherOrders) {
+            ids.add(order.getId());
+        }
+        Set<Long> existing = new HashSet<>(getBaseMapper().queryExistingIds(ids));
+        List<VoucherOrder> toInsert = new ArrayList<>(voucherOrders.size());
+        Map<Long, Integer> countByVoucher = new LinkedHashMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            // 已落库的跳过；同一批中重复的id只保留第一条
+            if (existing.contains(order.getId()) || !ids.remove(order.getId())) {
+                continue;
+            }
+            toInsert.add(order);
+            countByVoucher.merge(order.getVoucherId(), 1, Integer::sum);
+        }
+        if (toInsert.isEmpty()) {
+            return 0;
+        }
+        // 2.每个优惠券只扣减一次库存
+        for (Map.Entry<Long, Integer> entry : countByVoucher.entrySet()) {
+            int n = entry.getValue();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + n)
+                    .eq("voucher_id", entry.getKey()).ge("stock", n)
+                    .update();
+            if (!success) {
+                // Redis 是库存的准入依据，数据库库存不足说明两边数据不一致，订单仍然落库
+                log.error("数据库库存不足！voucherId:{}, count:{}", entry.getKey(), n);
+            }
+        }
+        // 3.多行插入订单
+        getBaseMapper().insertBatch(toInsert);
+        return toInsert.size();
+    }
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(Collection<Long> orderIds) {
+        if (CollUtil.isEmpty(orderIds)) {
+            return Collections.emptyList();
+        }
+        // 1.锁定仍未支付的订单，避免与支付并发
+        List<VoucherOrder> unpaid = query()
+                .select("id", "user_id", "voucher_id")
+                .in("id", orderIds).eq("status", ORDER_STATUS_UNPAID)
+                .last("FOR UPDATE")
+                .list();
+        if (unpaid.isEmpty()) {
+            return unpaid;
+        }
+        // 2.批量修改为已取消
+        List<Long> ids = new ArrayList<>(unpaid.size());
+        for (VoucherOrder order : unpaid) {
+            ids.add(order.getId());
+        }
+        update().set("status", ORDER_STATUS_CANCELLED).in("id", ids).update();
+        // 3.归还库存
+        seckillVoucherService.returnStock(unpaid);
+        return unpaid;
+    }
 }
@@ -7,11 +7,28 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.HmdpCacheEvict;
+import com.hmdp.utils.HmdpCacheable;
+import com.hmdp.utils.SeckillLifecycleScheduler;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockShards;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.util.List;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_TTL;
 
 /**
  * <p>
@@ -27,16 +44,64 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockShards stockShards;
+
+    @Resource
+    private SeckillLifecycleScheduler lifecycleScheduler;
+
+    @Resource
+    private BloomFilterRegistry bloomFilters;
+
+    @Lazy
+    @Resource
+    private IVoucherService proxy;
+
+    @PostConstruct
+    void registerBloomFilter() {
+        // 秒杀下单时拦截不存在的优惠券id
+        bloomFilters.register(BLOOM_VOUCHER_KEY, null, () -> count(), (afterId, limit) -> query()
+                .select("id")
+                .gt("id", afterId)
+                .orderByAsc("id")
+                .last("limit " + limit)
+                .list()
+                .stream().map(Voucher::getId).collect(Collectors.toList()));
+    }
+
+    @Override
+    @Transactional
+    @HmdpCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
+    public boolean save(Voucher voucher) {
+        boolean saved = super.save(voucher);
+        // 新优惠券加入布隆过滤器，失败时回滚，避免优惠券被拦截
+        if (saved) {
+            bloomFilters.add(BLOOM_VOUCHER_KEY, voucher.getId());
+        }
+        return saved;
+    }
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+        return Result.ok(Arrays.asList(proxy.queryVouchersOfShop(shopId)));
+    }
+
+    /**
+     * 秒杀开始前大量用户同时打开店铺页，由分布式锁保证所有节点只查询一次数据库。
+     * 列表中的秒杀库存最多延迟 CACHE_SHOP_VOUCHER_TTL 分钟，下单时以 Redis 中的库存为准
+     */
+    @Override
+    @HmdpCacheable(prefix = CACHE_SHOP_VOUCHER_KEY, strategy = CacheStrategy.MUTEX, ttl = CACHE_SHOP_VOUCHER_TTL)
+    public Voucher[] queryVouchersOfShop(Long shopId) {
+        return getBaseMapper().queryVoucherOfShop(shopId).toArray(new Voucher[0]);
     }
 
     @Override
     @Transactional
+    @HmdpCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -46,6 +111,58 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        seckillVoucher.setStockShards(stockShards.normalize(voucher.getStockShards()));
         seckillVoucherService.save(seckillVoucher);
+        // 事务提交后交给生命周期调度：开始前预热到Redis，结束后对账
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                lifecycleScheduler.schedule(seckillVoucher);
+            }
+        });
+    }
+
+    @Override
+    @Transactional
+    public Result restockSeckillVoucher(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        // 1.锁住秒杀券，和预热、结束对账依次执行：对账不会覆盖补充的库存，补库存也不会写入已经关闭的分片
+        SeckillVoucher voucher = seckillVoucherService.query()
+                .eq("voucher_id", voucherId)
+                .last("for update")
+                .one();
+        if (voucher == null) {
+            return Result.fail("秒杀券不存在");
+        }
+        if (!voucher.getEndTime().isAfter(LocalDateTime.now())) {
+            return Result.fail("秒杀已经结束");
+        }
+        // 2.已经预热的秒杀券增加Redis库存，平均分到每个分片；未预热的预热时会从数据库读取。
+        // 持有行锁时写入，对账一次关闭所有分片，所以分片要么都在、要么都已关闭；事务提交失败时Redis会多出这部分库存
+        int[] parts = SeckillStockShards.split(count, stockShards.shardCount(voucherId));
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] > 0 && stockShards.addStock(voucherId, i, parts[i]) == SeckillStockShards.STOCK_CLOSED) {
+                return Result.fail("秒杀已经结束");
+            }
+        }
+        // 3.增加数据库库存
+        seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        // 4.事务提交后清除各节点的售罄标记
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    soldOutRegistry.clear(voucherId);
+                }
+            });
+        } else {
+            soldOutRegistry.clear(voucherId);
+        }
+        return Result.ok();
     }
 }
@@ -0,0 +1,239 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按字段列表编码的二进制格式（默认的缓存编解码器）。
+ * <p>
+ * 格式：魔数 0xC7、标志位、[逻辑过期时间]、[查询数据库的耗时]、值。已登记的类型（Shop、ShopType、Voucher、UserDTO）按 {@link BinarySchema}
+ * 编码，值前带有字段列表的指纹；元素为已登记类型的数组写一次指纹、元素个数，再依次写各个元素（元素不能为 null）；
+ * 其他类型在二进制头部之后写 JSON。不以魔数开头的数据按 JSON 解码，
+ * 所以切换编解码器前写入 Redis 的数据仍然可以读取。
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "binary", matchIfMissing = true)
+public class BinaryCacheCodec implements CacheCodec {
+
+    /**
+     * JSON 只能以 ASCII 字符开头，不会与魔数冲突
+     */
+    static final int MAGIC = 0xC7;
+
+    private static final int FLAG_EXPIRE = 1;
+    private static final int FLAG_JSON = 2;
+    private static final int FLAG_NULL = 4;
+    private static final int FLAG_REBUILD_COST = 8;
+    private static final int FLAG_ARRAY = 16;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Map<Class<?>, BinarySchema<?>> schemas = new HashMap<>();
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    public BinaryCacheCodec() {
+        register(BinarySchema.of(Shop.class, Shop::new)
+                .int64("id", Shop::getId, Shop::setId)
+                .string("name", Shop::getName, Shop::setName)
+                .int64("typeId", Shop::getTypeId, Shop::setTypeId)
+                .string("images", Shop::getImages, Shop::setImages)
+                .string("area", Shop::getArea, Shop::setArea)
+                .string("address", Shop::getAddress, Shop::setAddress)
+                .float64("x", Shop::getX, Shop::setX)
+                .float64("y", Shop::getY, Shop::setY)
+                .int64("avgPrice", Shop::getAvgPrice, Shop::setAvgPrice)
+                .int32("sold", Shop::getSold, Shop::setSold)
+                .int32("comments", Shop::getComments, Shop::setComments)
+                .int32("score", Shop::getScore, Shop::setScore)
+                .string("openHours", Shop::getOpenHours, Shop::setOpenHours)
+                .dateTime("createTime", Shop::getCreateTime, Shop::setCreateTime)
+                .dateTime("updateTime", Shop::getUpdateTime, Shop::setUpdateTime)
+                .float64("distance", Shop::getDistance, Shop::setDistance));
+        register(BinarySchema.of(ShopType.class, ShopType::new)
+                .int64("id", ShopType::getId, ShopType::setId)
+                .string("name", ShopType::getName, ShopType::setName)
+                .string("icon", ShopType::getIcon, ShopType::setIcon)
+                .int32("sort", ShopType::getSort, ShopType::setSort)
+                .dateTime("createTime", ShopType::getCreateTime, ShopType::setCreateTime)
+                .dateTime("updateTime", ShopType::getUpdateTime, ShopType::setUpdateTime));
+        register(BinarySchema.of(Voucher.class, Voucher::new)
+                .int64("id", Voucher::getId, Voucher::setId)
+                .int64("shopId", Voucher::getShopId, Voucher::setShopId)
+                .string("title", Voucher::getTitle, Voucher::setTitle)
+                .string("subTitle", Voucher::getSubTitle, Voucher::setSubTitle)
+                .string("rules", Voucher::getRules, Voucher::setRules)
+                .int64("payValue", Voucher::getPayValue, Voucher::setPayValue)
+                .int64("actualValue", Voucher::getActualValue, Voucher::setActualValue)
+                .int32("type", Voucher::getType, Voucher::setType)
+                .int32("status", Voucher::getStatus, Voucher::setStatus)
+                .int32("stock", Voucher::getStock, Voucher::setStock)
+                .int32("stockShards", Voucher::getStockShards, Voucher::setStockShards)
+                .dateTime("beginTime", Voucher::getBeginTime, Voucher::setBeginTime)
+                .dateTime("endTime", Voucher::getEndTime, Voucher::setEndTime)
+                .dateTime("createTime", Voucher::getCreateTime, Voucher::setCreateTime)
+                .dateTime("updateTime", Voucher::getUpdateTime, Voucher::setUpdateTime));
+        register(BinarySchema.of(UserDTO.class, UserDTO::new)
+                .int64("id", UserDTO::getId, UserDTO::setId)
+                .string("nickName", UserDTO::getNickName, UserDTO::setNickName)
+                .string("icon", UserDTO::getIcon, UserDTO::setIcon));
+    }
+
+    private void register(BinarySchema<?> schema) {
+        schemas.put(schema.getType(), schema);
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, null, 0);
+    }
+
+    @Override
+    public <R> R decode(byte[] data, Class<R> type) {
+        if (!isBinary(data)) {
+            return json.decode(data, type);
+        }
+        BinarySchema.Reader in = new BinarySchema.Reader(data, 1);
+        int flags = in.readByte();
+        if ((flags & FLAG_EXPIRE) != 0) {
+            in.readDateTime();
+        }
+        if ((flags & FLAG_REBUILD_COST) != 0) {
+            in.readVarLong();
+        }
+        return readValue(in, flags, type);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime, long rebuildMillis) {
+        return write(value, expireTime, rebuildMillis);
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] data, Class<R> type) {
+        if (!isBinary(data)) {
+            return json.decodeWithExpire(data, type);
+        }
+        BinarySchema.Reader in = new BinarySchema.Reader(data, 1);
+        int flags = in.readByte();
+        if ((flags & FLAG_EXPIRE) == 0) {
+            throw new IllegalStateException("缓存数据没有逻辑过期时间");
+        }
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(in.readDateTime());
+        if ((flags & FLAG_REBUILD_COST) != 0) {
+            redisData.setRebuildMillis(in.readVarLong());
+        }
+        redisData.setData(readValue(in, flags, type));
+        return redisData;
+    }
+
+    @Override
+    public LocalDateTime decodeExpireTime(byte[] data) {
+        if (!isBinary(data)) {
+            return json.decodeExpireTime(data);
+        }
+        BinarySchema.Reader in = new BinarySchema.Reader(data, 1);
+        if ((in.readByte() & FLAG_EXPIRE) == 0) {
+            throw new IllegalStateException("缓存数据没有逻辑过期时间");
+        }
+        return in.readDateTime();
+    }
+
+    private byte[] write(Object value, LocalDateTime expireTime, long rebuildMillis) {
+        boolean array = isSchemaArray(value);
+        BinarySchema<Object> schema = value == null ? null
+                : schemaOf(array ? value.getClass().getComponentType() : value.getClass());
+        int flags = expireTime == null ? 0 : FLAG_EXPIRE;
+        if (expireTime != null && rebuildMillis > 0) {
+            flags |= FLAG_REBUILD_COST;
+        }
+        if (value == null) {
+            flags |= FLAG_NULL;
+        } else if (schema == null) {
+            flags |= FLAG_JSON;
+        } else if (array) {
+            flags |= FLAG_ARRAY;
+        }
+        BinarySchema.Writer out = new BinarySchema.Writer(INITIAL_CAPACITY);
+        out.writeByte(MAGIC);
+        out.writeByte(flags);
+        if (expireTime != null) {
+            out.writeDateTime(expireTime);
+        }
+        if ((flags & FLAG_REBUILD_COST) != 0) {
+            out.writeVarLong(rebuildMillis);
+        }
+        if (schema != null) {
+            out.writeShort(schema.getFingerprint());
+            if (array) {
+                int length = Array.getLength(value);
+                out.writeVarLong(length);
+                for (int i = 0; i < length; i++) {
+                    schema.write(Array.get(value, i), out);
+                }
+            } else {
+                schema.write(value, out);
+            }
+        } else if (value != null) {
+            out.writeBytes(JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    // 元素类型已登记、且没有 null 元素的数组
+    private boolean isSchemaArray(Object value) {
+        if (value == null || !value.getClass().isArray() || !schemas.containsKey(value.getClass().getComponentType())) {
+            return false;
+        }
+        for (Object element : (Object[]) value) {
+            if (element == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private BinarySchema<Object> schemaOf(Class<?> type) {
+        return (BinarySchema<Object>) schemas.get(type);
+    }
+
+    private <R> R readValue(BinarySchema.Reader in, int flags, Class<R> type) {
+        if ((flags & FLAG_NULL) != 0) {
+            return null;
+        }
+        if ((flags & FLAG_JSON) != 0) {
+            return JsonCacheCodec.fromJson(new String(in.remaining(), StandardCharsets.UTF_8), type);
+        }
+        boolean array = (flags & FLAG_ARRAY) != 0;
+        Class<?> valueType = array ? type.getComponentType() : type;
+        BinarySchema<?> schema = valueType == null ? null : schemas.get(valueType);
+        if (schema == null || in.readShort() != schema.getFingerprint()) {
+            throw new IllegalStateException("缓存数据的字段与 " + type.getSimpleName() + " 不一致");
+        }
+        if (!array) {
+            return type.cast(schema.read(in));
+        }
+        int length = (int) in.readVarLong();
+        Object values = Array.newInstance(valueType, length);
+        for (int i = 0; i < length; i++) {
+            Array.set(values, i, schema.read(in));
+        }
+        return type.cast(values);
+    }
+
+    private static boolean isBinary(byte[] data) {
+        return data.length > 0 && (data[0] & 0xFF) == MAGIC;
+    }
+}
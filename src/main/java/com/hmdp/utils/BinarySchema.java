@@ -0,0 +1,293 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * {@link BinaryCacheCodec} 中一个类型的字段列表。
+ * <p>
+ * 编码格式：先写一个 varint 位图标记哪些字段为 null，再按声明顺序写出非 null 字段；整数使用 zigzag varint，
+ * LocalDateTime 写为 UTC 秒数和纳秒两个 varint。字段名和类型算出的指纹写在值前面，类的字段变化后旧数据无法解码，按未命中处理。
+ */
+public final class BinarySchema<T> {
+
+    private static final int MAX_FIELDS = 63;
+
+    private enum Kind { INT64, INT32, FLOAT64, STRING, DATE_TIME }
+
+    private static final class Field<T> {
+        private final String name;
+        private final Kind kind;
+        private final Function<T, Object> getter;
+        private final BiConsumer<T, Object> setter;
+
+        private Field(String name, Kind kind, Function<T, Object> getter, BiConsumer<T, Object> setter) {
+            this.name = name;
+            this.kind = kind;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    private final Class<T> type;
+    private final Supplier<T> factory;
+    private final List<Field<T>> fields = new ArrayList<>();
+    private short fingerprint;
+
+    private BinarySchema(Class<T> type, Supplier<T> factory) {
+        this.type = type;
+        this.factory = factory;
+    }
+
+    public static <T> BinarySchema<T> of(Class<T> type, Supplier<T> factory) {
+        return new BinarySchema<>(type, factory);
+    }
+
+    public BinarySchema<T> int64(String name, Function<T, Long> getter, BiConsumer<T, Long> setter) {
+        return add(name, Kind.INT64, getter, setter);
+    }
+
+    public BinarySchema<T> int32(String name, Function<T, Integer> getter, BiConsumer<T, Integer> setter) {
+        return add(name, Kind.INT32, getter, setter);
+    }
+
+    public BinarySchema<T> float64(String name, Function<T, Double> getter, BiConsumer<T, Double> setter) {
+        return add(name, Kind.FLOAT64, getter, setter);
+    }
+
+    public BinarySchema<T> string(String name, Function<T, String> getter, BiConsumer<T, String> setter) {
+        return add(name, Kind.STRING, getter, setter);
+    }
+
+    public BinarySchema<T> dateTime(String name, Function<T, LocalDateTime> getter,
+                                    BiConsumer<T, LocalDateTime> setter) {
+        return add(name, Kind.DATE_TIME, getter, setter);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> BinarySchema<T> add(String name, Kind kind, Function<T, V> getter, BiConsumer<T, V> setter) {
+        if (fields.size() == MAX_FIELDS) {
+            throw new IllegalArgumentException(type.getSimpleName() + " 的字段超过 " + MAX_FIELDS + " 个");
+        }
+        fields.add(new Field<>(name, kind, (Function<T, Object>) getter, (BiConsumer<T, Object>) setter));
+        StringBuilder sb = new StringBuilder(type.getName());
+        for (Field<T> field : fields) {
+            sb.append(',').append(field.name).append(':').append(field.kind);
+        }
+        fingerprint = (short) sb.toString().hashCode();
+        return this;
+    }
+
+    Class<T> getType() {
+        return type;
+    }
+
+    short getFingerprint() {
+        return fingerprint;
+    }
+
+    void write(T value, Writer out) {
+        Object[] values = new Object[fields.size()];
+        long nulls = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields.get(i).getter.apply(value);
+            if (values[i] == null) {
+                nulls |= 1L << i;
+            }
+        }
+        out.writeVarLong(nulls);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            switch (fields.get(i).kind) {
+                case INT64:
+                    out.writeVarLong((Long) values[i]);
+                    break;
+                case INT32:
+                    out.writeVarLong((Integer) values[i]);
+                    break;
+                case FLOAT64:
+                    out.writeDouble((Double) values[i]);
+                    break;
+                case STRING:
+                    out.writeString((String) values[i]);
+                    break;
+                default:
+                    out.writeDateTime((LocalDateTime) values[i]);
+            }
+        }
+    }
+
+    T read(Reader in) {
+        T value = factory.get();
+        long nulls = in.readVarLong();
+        for (int i = 0; i < fields.size(); i++) {
+            if ((nulls & (1L << i)) != 0) {
+                continue;
+            }
+            Field<T> field = fields.get(i);
+            Object v;
+            switch (field.kind) {
+                case INT64:
+                    v = in.readVarLong();
+                    break;
+                case INT32:
+                    v = (int) in.readVarLong();
+                    break;
+                case FLOAT64:
+                    v = in.readDouble();
+                    break;
+                case STRING:
+                    v = in.readString();
+                    break;
+                default:
+                    v = in.readDateTime();
+            }
+            field.setter.accept(value, v);
+        }
+        return value;
+    }
+
+    /**
+     * 可扩容的字节缓冲区
+     */
+    static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeShort(int s) {
+            ensure(2);
+            buf[pos++] = (byte) (s >>> 8);
+            buf[pos++] = (byte) s;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        // zigzag 编码后按 7 位一组写出，小的正负数都只占 1~2 字节
+        void writeVarLong(long v) {
+            long zz = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zz & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zz & 0x7F) | 0x80);
+                zz >>>= 7;
+            }
+            buf[pos++] = (byte) zz;
+        }
+
+        void writeDouble(double d) {
+            long bits = Double.doubleToRawLongBits(d);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes);
+        }
+
+        void writeDateTime(LocalDateTime t) {
+            writeVarLong(t.toEpochSecond(ZoneOffset.UTC));
+            writeVarLong(t.getNano());
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+    }
+
+    static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        int readByte() {
+            check(1);
+            return buf[pos++] & 0xFF;
+        }
+
+        short readShort() {
+            check(2);
+            return (short) (((buf[pos++] & 0xFF) << 8) | (buf[pos++] & 0xFF));
+        }
+
+        long readVarLong() {
+            long zz = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                check(1);
+                byte b = buf[pos++];
+                zz |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return (zz >>> 1) ^ -(zz & 1);
+                }
+            }
+            throw new IllegalStateException("缓存数据中的 varint 格式错误");
+        }
+
+        double readDouble() {
+            check(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buf[pos++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            check(length);
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        LocalDateTime readDateTime() {
+            long seconds = readVarLong();
+            int nanos = (int) readVarLong();
+            return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+        }
+
+        byte[] remaining() {
+            return Arrays.copyOfRange(buf, pos, buf.length);
+        }
+
+        private void check(int n) {
+            if (n < 0 || pos + n > buf.length) {
+                throw new IllegalStateException("缓存数据被截断");
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADDED_CHANNEL;
+
+/**
+ * 防止缓存穿透的布隆过滤器，每张表一个，保存表中所有存在的id。
+ * <p>
+ * Redis 中的过滤器（位图，格式见 bloom_add.lua）由第一个启动的节点分页读取整张表构建，所有节点共享，是判断的依据；
+ * 每个节点启动时同样读取整张表，在内存中构建一份本地过滤器，查询时先查本地，本地判断存在就直接放行。
+ * 新增记录时同时加入 Redis 和本地，并通过 pub/sub 通知其他节点。本地判断不存在时，通常直接拒绝；
+ * 只有可能错过了通知的情况才再查一次 Redis（见 bloom_check.lua），Redis 也判断不存在才拒绝：
+ * id 比本地已知的id都大（构建之后新增、通知还没有到达）、最近 {@link #CONFIRM_WINDOW_MILLIS} 毫秒内收到过新增通知
+ * （同时新增的其他记录的通知可能还在路上）、订阅没有运行，或者 id 不是数字。过滤器还没有构建完成时不拦截。
+ * <p>
+ * 本地过滤器占用的内存和按元素个数估算的误判率记录在 hmdp.bloom.bytes、hmdp.bloom.fpp 指标中，被拒绝的查询记录在 hmdp.bloom.rejected 中。
+ */
+@Slf4j
+@Component
+public class BloomFilterRegistry implements MessageListener {
+
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> CHECK_SCRIPT;
+
+    static {
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setLocation(new ClassPathResource("bloom_add.lua"));
+        ADD_SCRIPT.setResultType(Long.class);
+        CHECK_SCRIPT = new DefaultRedisScript<>();
+        CHECK_SCRIPT.setLocation(new ClassPathResource("bloom_check.lua"));
+        CHECK_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 构建时每批读取、写入 Redis 的id个数
+     */
+    private static final int BUILD_BATCH_SIZE = 1000;
+
+    /**
+     * 构建 Redis 过滤器的节点宕机后，其他节点等待多久再重新构建
+     */
+    private static final Duration BUILD_TIMEOUT = Duration.ofMinutes(10);
+
+    /**
+     * 收到新增通知后多久之内，本地判断不存在时仍以 Redis 为准
+     */
+    static final long CONFIRM_WINDOW_MILLIS = 5000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MeterRegistry meterRegistry;
+    private final double fpp;
+    private final long minCapacity;
+
+    /**
+     * 过滤器名称（即 Redis key） -> 过滤器
+     */
+    private final Map<String, Entry> byName = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存key前缀 -> 过滤器
+     */
+    private final Map<String, Entry> byKeyPrefix = new ConcurrentHashMap<>();
+
+    public BloomFilterRegistry(StringRedisTemplate stringRedisTemplate,
+                               RedisMessageListenerContainer listenerContainer, MeterRegistry meterRegistry,
+                               @Value("${hmdp.bloom.false-positive-rate:0.01}") double fpp,
+                               @Value("${hmdp.bloom.min-capacity:10000}") long minCapacity) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.meterRegistry = meterRegistry;
+        this.fpp = fpp;
+        this.minCapacity = minCapacity;
+    }
+
+    @PostConstruct
+    void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_ADDED_CHANNEL));
+    }
+
+    /**
+     * 登记一张表的过滤器，在应用启动完成后构建
+     * @param name 过滤器名称，同时是 Redis 中的key
+     * @param keyPrefix 查询这张表时使用的缓存key前缀，CacheClient 按前缀找到过滤器；没有缓存时为 null
+     * @param count 表中的记录数，用于确定过滤器的初始容量
+     * @param page 按id升序分页读取id：(上一页最后一个id, 条数) -> id列表
+     */
+    public void register(String name, String keyPrefix, LongSupplier count,
+                         BiFunction<Long, Integer, List<Long>> page) {
+        Entry entry = new Entry(name, count, page);
+        byName.put(name, entry);
+        if (keyPrefix != null) {
+            byKeyPrefix.put(keyPrefix, entry);
+        }
+        Gauge.builder("hmdp.bloom.bytes", entry, e -> e.local == null ? 0 : e.local.bytes())
+                .description("本地布隆过滤器占用的内存")
+                .tag("name", name)
+                .register(meterRegistry);
+        Gauge.builder("hmdp.bloom.fpp", entry, e -> e.local == null ? 0 : e.local.expectedFpp())
+                .description("按元素个数估算的布隆过滤器误判率")
+                .tag("name", name)
+                .register(meterRegistry);
+        entry.rejected = Counter.builder("hmdp.bloom.rejected")
+                .description("布隆过滤器判断不存在、没有查询缓存和数据库的次数")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 同一张表的另一种缓存布局使用的key前缀，共用 name 的过滤器
+     */
+    public void addKeyPrefix(String name, String keyPrefix) {
+        Entry entry = byName.get(name);
+        if (entry == null) {
+            throw new IllegalStateException("布隆过滤器没有登记，name:" + name);
+        }
+        byKeyPrefix.put(keyPrefix, entry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildAll() {
+        for (Entry entry : byName.values()) {
+            try {
+                build(entry);
+            } catch (Exception e) {
+                // 构建成功之前不拦截，只是失去了防穿透的效果
+                log.error("布隆过滤器构建失败，name:{}", entry.name, e);
+            }
+        }
+    }
+
+    /**
+     * @return false 代表 id 一定不存在
+     */
+    public boolean mightContain(String name, Object id) {
+        Entry entry = byName.get(name);
+        return entry == null || mightContain(entry, id);
+    }
+
+    /**
+     * 按缓存key前缀查找过滤器，没有登记过滤器的前缀总是返回 true
+     */
+    public boolean mightContainKey(String keyPrefix, Object id) {
+        Entry entry = byKeyPrefix.get(keyPrefix);
+        return entry == null || mightContain(entry, id);
+    }
+
+    /**
+     * 新增记录后调用，写入 Redis 失败时抛出异常，调用方应回滚新增的记录，否则它会被拦截
+     */
+    public void add(String name, Object id) {
+        Entry entry = byName.get(name);
+        if (entry == null) {
+            return;
+        }
+        long[] h = ScalableBloomFilter.hash(id);
+        ScalableBloomFilter local = entry.local;
+        if (local != null) {
+            local.put(h);
+        }
+        entry.added(id);
+        stringRedisTemplate.execute(ADD_SCRIPT, Collections.singletonList(name),
+                String.valueOf(h[0]), String.valueOf(h[1]));
+        try {
+            stringRedisTemplate.convertAndSend(BLOOM_ADDED_CHANNEL, name + ":" + id);
+        } catch (Exception e) {
+            // 其他节点本地判断不存在时会再查 Redis
+            log.warn("广播布隆过滤器新增失败，name:{}，id:{}", name, id, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int i = body.lastIndexOf(':');
+        Entry entry = byName.get(body.substring(0, i));
+        if (entry == null) {
+            return;
+        }
+        String id = body.substring(i + 1);
+        ScalableBloomFilter local = entry.local;
+        if (local != null) {
+            local.put(ScalableBloomFilter.hash(id));
+        }
+        entry.added(id);
+    }
+
+    private boolean mightContain(Entry entry, Object id) {
+        ScalableBloomFilter local = entry.local;
+        if (local == null) {
+            return true;
+        }
+        long[] h = ScalableBloomFilter.hash(id);
+        if (local.mightContain(h)) {
+            return true;
+        }
+        //本地判断不存在：没有错过通知的可能时直接拒绝
+        if (!mayHaveMissedAdd(entry, id)) {
+            entry.rejected.increment();
+            return false;
+        }
+        //可能是其他节点刚刚新增、通知还没有到达，以 Redis 为准
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(CHECK_SCRIPT, Collections.singletonList(entry.name),
+                    String.valueOf(h[0]), String.valueOf(h[1]));
+        } catch (Exception e) {
+            log.warn("查询 Redis 布隆过滤器失败，name:{}", entry.name, e);
+            return true;
+        }
+        if (result == null || result < 0) {
+            // Redis 中的过滤器还没有构建完成
+            return true;
+        }
+        if (result == 1) {
+            local.put(h);
+            return true;
+        }
+        entry.rejected.increment();
+        return false;
+    }
+
+    private boolean mayHaveMissedAdd(Entry entry, Object id) {
+        // 订阅没有运行时收不到通知
+        if (!listenerContainer.isRunning()) {
+            return true;
+        }
+        // 刚收到过新增通知，同时新增的其他记录的通知可能还没有到达
+        if (System.currentTimeMillis() - entry.lastAddedMillis < CONFIRM_WINDOW_MILLIS) {
+            return true;
+        }
+        // 比本地已知的id都大，可能是构建之后新增的
+        Long n = toLong(id);
+        return n == null || n > entry.maxId.get();
+    }
+
+    private static Long toLong(Object id) {
+        if (id instanceof Long || id instanceof Integer) {
+            return ((Number) id).longValue();
+        }
+        try {
+            return Long.parseLong(id.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void build(Entry entry) {
+        //1.按表中的记录数确定第一个子过滤器的容量，留出一倍的空间给新增的记录，超出后自动扩展
+        long capacity = Math.max(minCapacity, entry.count.getAsLong() * 2);
+        int hashes = ScalableBloomFilter.hashesFor(fpp);
+        ScalableBloomFilter local = new ScalableBloomFilter(capacity, hashes);
+        //2.Redis 中的过滤器只由一个节点构建
+        boolean redis = startRedisBuild(entry.name, capacity, hashes);
+        //3.按id分页读取整张表
+        long afterId = 0;
+        long total = 0;
+        while (true) {
+            List<Long> ids = entry.page.apply(afterId, BUILD_BATCH_SIZE);
+            if (ids.isEmpty()) {
+                break;
+            }
+            List<String> args = new ArrayList<>(ids.size() * 2);
+            for (Long id : ids) {
+                long[] h = ScalableBloomFilter.hash(id);
+                local.put(h);
+                args.add(String.valueOf(h[0]));
+                args.add(String.valueOf(h[1]));
+            }
+            if (redis) {
+                stringRedisTemplate.execute(ADD_SCRIPT, Collections.singletonList(entry.name), args.toArray());
+            }
+            afterId = ids.get(ids.size() - 1);
+            total += ids.size();
+        }
+        //4.构建完成，开始拦截
+        if (redis) {
+            stringRedisTemplate.opsForHash().put(entry.name, "ready", "1");
+            stringRedisTemplate.delete(entry.name + ":building");
+        }
+        entry.maxId.accumulateAndGet(afterId, Math::max);
+        entry.local = local;
+        log.info("布隆过滤器 {} 构建完成：{} 个id，{} 个子过滤器，本地占用 {} 字节，预计误判率 {}",
+                entry.name, total, local.filterCount(), local.bytes(), String.format("%.5f", local.expectedFpp()));
+    }
+
+    private boolean startRedisBuild(String name, long capacity, int hashes) {
+        if ("1".equals(stringRedisTemplate.opsForHash().get(name, "ready"))) {
+            return false;
+        }
+        // 其他节点正在构建
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(name + ":building", "1", BUILD_TIMEOUT);
+        if (!Boolean.TRUE.equals(locked)) {
+            return false;
+        }
+        // 上一次构建中断时保留已经写入的位和布局，重新添加的元素不会重复计数
+        stringRedisTemplate.opsForHash().putIfAbsent(name, "capacity", String.valueOf(capacity));
+        stringRedisTemplate.opsForHash().putIfAbsent(name, "hashes", String.valueOf(hashes));
+        stringRedisTemplate.opsForHash().putIfAbsent(name, "filters", "1");
+        stringRedisTemplate.opsForHash().putIfAbsent(name, "count", "0");
+        return true;
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final LongSupplier count;
+        private final BiFunction<Long, Integer, List<Long>> page;
+        private volatile ScalableBloomFilter local;
+        private Counter rejected;
+        /**
+         * 本地已知的最大id（构建时读到的和新增通知中的）
+         */
+        private final AtomicLong maxId = new AtomicLong(Long.MIN_VALUE);
+        /**
+         * 最近一次新增（本节点或收到通知）的时间
+         */
+        private volatile long lastAddedMillis;
+
+        private Entry(String name, LongSupplier count, BiFunction<Long, Integer, List<Long>> page) {
+            this.name = name;
+            this.count = count;
+            this.page = page;
+        }
+
+        // 构建完成前新增的记录不一定在本地过滤器中，不更新，本地判断不存在时仍以 Redis 为准
+        private void added(Object id) {
+            if (local == null) {
+                return;
+            }
+            Long n = toLong(id);
+            if (n != null) {
+                maxId.accumulateAndGet(n, Math::max);
+            }
+            lastAddedMillis = System.currentTimeMillis();
+        }
+    }
+}
@@ -1,79 +1,349 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
-import org.yaml.snakeyaml.events.Event;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
+import static com.hmdp.utils.CacheMetrics.*;
 import static com.hmdp.utils.RedisConstants.*;
 
+/**
+ * 两级缓存：本节点的 L1（Caffeine，W-TinyLFU 准入，条数有上限）在前，Redis 在后。
+ * <p>
+ * Redis 中的值由 {@link CacheCodec} 编解码。L1 保存解码后的对象，命中时不访问 Redis 也不解析 JSON；L1 中的对象在请求之间共享，调用方不能修改。
+ * 数据更新后调用 {@link #delete(String)}，删除 Redis 中的 key 并通过 pub/sub 让所有节点的 L1 失效；
+ * L1 条目另有最长存活时间，兜底错过的失效消息。各层的命中次数和耗时记录在 hmdp.cache.gets、hmdp.cache.latency 指标中。
+ * 登记了布隆过滤器的key前缀（见 {@link BloomFilterRegistry}），过滤器判断不存在的id不查询任何缓存和数据库。
+ * 同一个 key 同时未命中时，本节点只有一个线程查询数据库并写回 Redis，其他线程等待它的结果（见 {@link SingleFlight}）。
+ * 每次查询的结果和耗时按 key 前缀记录在 hmdp.cache.requests、hmdp.cache.request.latency 指标中（见 {@link CacheMetrics}）。
+ * 读取时抽样统计访问量（见 {@link HotKeyDetector}），热点 key 额外固定在本节点内存中，不受 L1 条数上限淘汰，
+ * 固定的条目最多保存 pin-ttl-millis，同样由失效广播删除，key 冷却后取消固定。
+ * 所有写入的过期时间（包括逻辑过期时间）都加上最多 ttl-jitter 比例的随机时长，批量写入的 key 不会在同一时刻过期。
+ */
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+    /**
+     * queryWithMutex 等待其他节点重建的最长时间
+     */
+    private static final long MUTEX_WAIT_MILLIS = 2000;
+    /**
+     * 按 key 的哈希记录失效序号的分段数，必须是2的幂
+     */
+    private static final int INVALIDATION_STRIPES = 1024;
+
     private StringRedisTemplate stringRedisTemplate;
+    private RedisLockClient lockClient;
+    private RedisMessageListenerContainer listenerContainer;
+    private CacheCodec codec;
+    private SingleFlight singleFlight;
+    private BloomFilterRegistry bloomFilters;
+    private CacheRebuildExecutor rebuildExecutor;
+    private CacheMetrics metrics;
+    private HotKeyDetector hotKeys;
+
+    private final Cache<String, LocalEntry> l1;
+
+    /**
+     * 固定在本节点的热点key
+     */
+    private final Map<String, PinnedEntry> pinned = new ConcurrentHashMap<>();
+    private final long pinTtlMillis;
+
+    /**
+     * 本节点收到的失效序号。查询 Redis 之前记下当前序号，写入 L1 时如果 key 所在的分段在这之后失效过就放弃写入，
+     * 避免把失效之前读到的旧值放回 L1；其他分段的 key 失效不影响
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+    /**
+     * 每个分段最后一次失效的序号
+     */
+    private final AtomicLongArray invalidatedAt = new AtomicLongArray(INVALIDATION_STRIPES);
+
+    private final List<Consumer<String>> evictListeners = new CopyOnWriteArrayList<>();
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final Counter l1Hits;
+    private final Counter l1Misses;
+    private final Counter redisHits;
+    private final Counter redisMisses;
+    private final Timer l1Latency;
+    private final Timer redisLatency;
+    private final Timer dbLatency;
+
+    private final double ttlJitter;
+    private final double earlyRefreshBeta;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisLockClient lockClient,
+                       RedisMessageListenerContainer listenerContainer, CacheCodec codec, SingleFlight singleFlight,
+                       BloomFilterRegistry bloomFilters, CacheRebuildExecutor rebuildExecutor,
+                       CacheMetrics metrics, HotKeyDetector hotKeys, MeterRegistry meterRegistry,
+                       @Value("${hmdp.cache.l1.maximum-size:10000}") long l1MaximumSize,
+                       @Value("${hmdp.cache.l1.expire-seconds:60}") long l1ExpireSeconds,
+                       @Value("${hmdp.cache.ttl-jitter:0.1}") double ttlJitter,
+                       @Value("${hmdp.cache.early-refresh.beta:1.0}") double earlyRefreshBeta,
+                       @Value("${hmdp.cache.hot-key.pin-ttl-millis:5000}") long pinTtlMillis) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.lockClient = lockClient;
+        this.listenerContainer = listenerContainer;
+        this.codec = codec;
+        this.singleFlight = singleFlight;
+        this.bloomFilters = bloomFilters;
+        this.rebuildExecutor = rebuildExecutor;
+        this.metrics = metrics;
+        this.hotKeys = hotKeys;
+        this.pinTtlMillis = pinTtlMillis;
+        this.l1 = Caffeine.newBuilder()
+                .maximumSize(l1MaximumSize)
+                .expireAfterWrite(l1ExpireSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, l1, "l1");
+        this.l1Hits = getsCounter(meterRegistry, "l1", "hit");
+        this.l1Misses = getsCounter(meterRegistry, "l1", "miss");
+        this.redisHits = getsCounter(meterRegistry, "redis", "hit");
+        this.redisMisses = getsCounter(meterRegistry, "redis", "miss");
+        this.l1Latency = latencyTimer(meterRegistry, "l1");
+        this.redisLatency = latencyTimer(meterRegistry, "redis");
+        this.dbLatency = latencyTimer(meterRegistry, "db");
+        this.ttlJitter = ttlJitter;
+        this.earlyRefreshBeta = earlyRefreshBeta;
+    }
+
+    private static Counter getsCounter(MeterRegistry registry, String tier, String result) {
+        return Counter.builder("hmdp.cache.gets")
+                .description("各层缓存的查询次数")
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static Timer latencyTimer(MeterRegistry registry, String tier) {
+        return Timer.builder("hmdp.cache.latency")
+                .description("各层缓存（以及回源数据库）的查询耗时")
+                .tag("tier", tier)
+                .register(registry);
+    }
+
+    @PostConstruct
+    void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        hotKeys.onCooled(pinned::remove);
+    }
+
+    /**
+     * 删除缓存，并让所有节点的本地缓存失效。更新数据库后调用，key 的版本号加一
+     */
+    public void delete(String key) {
+        stringRedisTemplate.opsForValue().increment(CACHE_VERSION_KEY + key);
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        try {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        } catch (Exception e) {
+            // 其他节点的本地缓存最迟在 expire-seconds 后过期
+            log.warn("广播缓存失效失败，key:{}", key, e);
+        }
+    }
+
+    /**
+     * key 的版本号，每次 {@link #delete(String)} 加一，从未删除过的 key 为0。用作响应的 ETag
+     */
+    public long version(String key) {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_VERSION_KEY + key);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    /**
+     * 登记本节点 key 失效时（本节点调用 {@link #delete(String)} 或收到失效广播）的回调，
+     * 由同一个 key 派生出的本地数据（例如渲染好的响应）随之失效
+     */
+    public void onEvict(Consumer<String> listener) {
+        evictListeners.add(listener);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        evictLocal(new String(message.getBody(), StandardCharsets.UTF_8));
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byte[] data = codec.encode(value);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.stringCommands()
+                .set(rawKey(key), data, Expiration.milliseconds(jitteredMillis(time, unit)),
+                        RedisStringCommands.SetOption.upsert()));
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
         //设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        byte[] data = codec.encodeWithExpire(value, jitteredExpireTime(time, unit));
         //写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value));
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.stringCommands()
+                .set(rawKey(key), data));
+    }
+
+    /**
+     * 用一次 pipeline 写入多个带逻辑过期时间的值，用于缓存预热
+     * @param values key -> 对象
+     */
+    public void setBatchWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                connection.stringCommands().set(rawKey(entry.getKey()),
+                        codec.encodeWithExpire(entry.getValue(), jitteredExpireTime(time, unit)));
+            }
+            return null;
+        });
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type,
             Function<ID,R> dbFallback,Long time,TimeUnit unit) {
+        return queryWithNullCaching(keyPrefix, id, type, dbFallback, time, unit, false);
+    }
+
+    /**
+     * 语义与 {@link #queryWithPassThrough} 相同，未命中时另外获取分布式锁，所有节点同一个 key 只有一个线程查询数据库：
+     * 获取锁后再查一次 Redis，其他节点可能刚刚写入；最多等待 MUTEX_WAIT_MILLIS，超时后自己查询数据库，不让请求一直等待。
+     * 适合查询数据库代价高、节点多的 key
+     */
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithNullCaching(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
+
+    private <R, ID> R queryWithNullCaching(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID, R> dbFallback, Long time, TimeUnit unit, boolean mutex) {
         // 1. 拼接 Redis 中的缓存 key（每个店铺一个独立的 key）
         //    CACHE_SHOP_KEY 是常量，如 "cache:shop:"
         String key = keyPrefix + id;
+        long start = System.nanoTime();
 
-        // 2. 先从 Redis 中查询店铺的 JSON 字符串（使用 String 类型存储）
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        // 1.1 布隆过滤器判断不存在，直接返回，也不写入空值
+        if (!bloomFilters.mightContainKey(keyPrefix, id)) {
+            return done(keyPrefix, REJECTED, start, null);
+        }
 
-        // 3. 判断是否命中缓存（StrUtil.isNotBlank 判断字符串不为 null、不为空串、不为空白）
-        //    - 如果 shopJson 是正常的对象 JSON（如 {"id":1,"name":"星巴克"}），这里为 true → 直接返回
-        //    - 如果是空值缓存（如 ""），这里为 false → 进入下一个判断
-        if (StrUtil.isNotBlank(Json)) {
-            return JSONUtil.toBean(Json, type);
+        // 1.2 先查本地缓存，命中的空值同样代表数据库中不存在
+        LocalEntry local = getLocal(key);
+        if (local != null) {
+            l1Hits.increment();
+            return done(keyPrefix, local.value == null ? NULL_HIT : HIT, start, type.cast(local.value));
         }
+        l1Misses.increment();
+        long epoch = invalidations.get();
+
+        // 2. 再从 Redis 中查询店铺编码后的数据（使用 String 类型存储，编码方式见 CacheCodec）
+        byte[] data = getFromRedis(key);
 
-        // 6. 走到这里说明 shopJson 要么是 null（未命中），要么是 ""（我们自己写的空值）
+        // 3. 判断是否命中缓存
+        //    - 如果是正常编码的数据，解码后直接返回；无法解码（例如类的字段变了）时当作未命中
+        //    - 如果是空值缓存（""），进入下一个判断
+        if (data != null && data.length > 0) {
+            R r = decode(key, data, type);
+            if (r != null) {
+                putLocal(key, new LocalEntry(r, null), epoch);
+                return done(keyPrefix, HIT, start, r);
+            }
+        }
+
+        // 6. 走到这里说明 data 要么是 null（未命中），要么是 ""（我们自己写的空值）
         //    单独判断是否为 ""（空字符串），这是为了区分“未缓存”和“缓存了空值”
-        if (Json != null) {  // 注意：这里 shopJson != null 且上一步 isNotBlank 为 false → 一定是 ""
+        if (data != null && data.length == 0) {  // 注意：这里一定是我们写入的 ""
             // 7. 命中了我们自己写入的“空值缓存” → 说明数据库中确实不存在这个店铺
             //    直接返回错误信息（避免再次查数据库）
-            return null;
+            putLocal(key, new LocalEntry(null, null), epoch);
+            return done(keyPrefix, NULL_HIT, start, null);
         }
 
         // 8. 走到这里说明 Redis 中根本没有这个 key（真正的缓存未命中）
+        //    本节点同一个 key 只有一个线程查询数据库并写回缓存，其他线程等待并共享结果
+        return done(keyPrefix, MISS, start, singleFlight.execute(key, () -> mutex
+                ? loadWithMutex(key, id, type, dbFallback, time, unit, epoch)
+                : loadAndCache(key, id, dbFallback, time, unit, epoch)));
+    }
+
+    private <R, ID> R loadWithMutex(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                                    TimeUnit unit, long epoch) {
+        ILock lock = lockClient.getLock(CACHE_LOCK_KEY + key);
+        boolean locked;
+        try {
+            locked = lock.tryLock(MUTEX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        if (!locked) {
+            log.debug("等待缓存重建锁超时，直接查询数据库，key:{}", key);
+            return loadAndCache(key, id, dbFallback, time, unit, epoch);
+        }
+        try {
+            //再次检查，等待期间持有锁的节点可能已经写入
+            byte[] data = getFromRedis(key);
+            if (data != null && data.length == 0) {
+                putLocal(key, new LocalEntry(null, null), epoch);
+                return null;
+            }
+            R r = data == null ? null : decode(key, data, type);
+            if (r != null) {
+                putLocal(key, new LocalEntry(r, null), epoch);
+                return r;
+            }
+            return loadAndCache(key, id, dbFallback, time, unit, epoch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <R, ID> R loadAndCache(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+                                   long epoch) {
         //    根据 id 查询数据库（MyBatis-Plus 的 getById 方法）
-        R r = dbFallback.apply(id);
+        R r = loadFromDb(dbFallback, id);
 
         // 9. 数据库中也不存在该店铺
         if (r == null) {
             // 10. 为了防止缓存穿透（恶意用户用不存在的 id 刷接口，导致每次都打到数据库）
             //     我们主动向 Redis 写入一个“空值”（这里用 "" 代表空），并设置短过期时间
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
+            putLocal(key, new LocalEntry(null, null), epoch);
             // 11. 返回错误信息给前端
             return null;
         }
@@ -81,11 +351,115 @@ public class CacheClient {
         // 12. 数据库中存在该店铺 → 写入 Redis 缓存，设置正常过期时间（例如 30 分钟）
 
         this.set(key, r, time, unit);
+        putLocal(key, new LocalEntry(r, null), epoch);
         // 13. 返回查询到的店铺信息
         return r;
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 语义与 {@link #queryWithPassThrough} 相同（Redis 过期时间 + 空值），另外按 XFetch 算法提前刷新。
+     * <p>
+     * 值与过期时间、上次查询数据库的耗时 delta 一起保存。每次读取（包括本地缓存命中）时，
+     * 如果 now - delta * beta * ln(random) >= 过期时间，就在后台刷新，当前请求仍然返回已有的值。
+     * 离过期越近、重建越慢，提前刷新的概率越大：热点 key 通常在过期之前就由某一次读取刷新，不会出现大量请求同时未命中；
+     * 冷门 key 几乎不会提前刷新，不增加数据库压力。beta 由 hmdp.cache.early-refresh.beta 配置，越大越早刷新。
+     */
+    public <R, ID> R queryWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        long start = System.nanoTime();
+
+        // 1.布隆过滤器判断不存在，直接返回
+        if (!bloomFilters.mightContainKey(keyPrefix, id)) {
+            return done(keyPrefix, REJECTED, start, null);
+        }
+
+        // 2.查本地缓存，空值没有过期时间，其他条目在 Redis 中过期后本地也不再使用
+        LocalEntry local = getLocal(key);
+        if (local != null && (local.expireTime == null || local.expireTime.isAfter(LocalDateTime.now()))) {
+            l1Hits.increment();
+            if (local.value == null) {
+                return done(keyPrefix, NULL_HIT, start, null);
+            }
+            maybeRefreshEarly(keyPrefix, key, id, local.expireTime, local.rebuildMillis, dbFallback, time, unit);
+            return done(keyPrefix, HIT, start, type.cast(local.value));
+        }
+        l1Misses.increment();
+        long epoch = invalidations.get();
+
+        // 3.查 Redis，空值代表数据库中不存在，无法解码的当作未命中
+        byte[] data = getFromRedis(key);
+        if (data != null && data.length == 0) {
+            putLocal(key, new LocalEntry(null, null), epoch);
+            return done(keyPrefix, NULL_HIT, start, null);
+        }
+        if (data != null) {
+            try {
+                RedisData redisData = codec.decodeWithExpire(data, type);
+                R r = type.cast(redisData.getData());
+                long rebuildMillis = redisData.getRebuildMillis() == null ? 0 : redisData.getRebuildMillis();
+                putLocal(key, new LocalEntry(r, redisData.getExpireTime(), rebuildMillis), epoch);
+                maybeRefreshEarly(keyPrefix, key, id, redisData.getExpireTime(), rebuildMillis, dbFallback, time, unit);
+                return done(keyPrefix, HIT, start, r);
+            } catch (IllegalStateException e) {
+                log.debug("缓存数据无法解码，当作未命中，key:{}", key, e);
+            }
+        }
+
+        // 4.未命中，本节点同一个 key 只有一个线程查询数据库
+        return done(keyPrefix, MISS, start,
+                singleFlight.execute(key, () -> loadWithExpire(key, id, dbFallback, time, unit, epoch)));
+    }
+
+    /**
+     * XFetch：now - delta * beta * ln(random) >= 过期时间 时提前刷新，random 取值 (0, 1]
+     */
+    static boolean shouldRefreshEarly(long nowMillis, long expireMillis, long rebuildMillis, double beta,
+                                      double random) {
+        return nowMillis - rebuildMillis * beta * Math.log(random) >= expireMillis;
+    }
+
+    private <R, ID> void maybeRefreshEarly(String keyPrefix, String key, ID id, LocalDateTime expireTime, long rebuildMillis,
+                                           Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        long expireMillis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double random = 1 - ThreadLocalRandom.current().nextDouble();
+        if (!shouldRefreshEarly(System.currentTimeMillis(), expireMillis, rebuildMillis, earlyRefreshBeta, random)) {
+            return;
+        }
+        submitRebuild(keyPrefix, key, () -> {
+            //节点之间由分布式锁互斥，获取失败说明其他节点正在刷新
+            ILock lock = lockClient.getLock(CACHE_LOCK_KEY + key);
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                loadWithExpire(key, id, dbFallback, time, unit, invalidations.get());
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    // 查询数据库，连同耗时和过期时间写入 Redis，数据库中不存在时写入空值
+    private <R, ID> R loadWithExpire(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+                                     long epoch) {
+        long start = System.nanoTime();
+        R r = loadFromDb(dbFallback, id);
+        long rebuildMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (r == null) {
+            setNull(key);
+            putLocal(key, new LocalEntry(null, null), epoch);
+            return null;
+        }
+        long ttlMillis = jitteredMillis(time, unit);
+        LocalDateTime expireTime = LocalDateTime.now().plus(ttlMillis, ChronoUnit.MILLIS);
+        byte[] data = codec.encodeWithExpire(r, expireTime, rebuildMillis);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.stringCommands()
+                .set(rawKey(key), data, Expiration.milliseconds(ttlMillis), RedisStringCommands.SetOption.upsert()));
+        putLocal(key, new LocalEntry(r, expireTime, rebuildMillis), epoch);
+        return r;
+    }
 
     public <R,ID>  R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type,
@@ -93,59 +467,449 @@ public class CacheClient {
             Long time, TimeUnit unit) {
         // 1. 拼接 Redis 中的缓存 key（每个店铺一个独立的 key）
         String key = keyPrefix + id;
+        long start = System.nanoTime();
 
-        // 2. 先从 Redis 中查询店铺的 JSON 字符串（使用 String 类型存储）
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        // 1.1 布隆过滤器判断不存在，直接返回
+        if (!bloomFilters.mightContainKey(keyPrefix, id)) {
+            return done(keyPrefix, REJECTED, start, null);
+        }
 
-        // 3. 判断是否命中缓存（StrUtil.isNotBlank 判断字符串不为 null、不为空串、不为空白）
-        if (StrUtil.isBlank(Json)) {
-            return null;
+        // 1.2 先查本地缓存，本地缓存与 Redis 保存相同的逻辑过期时间，逻辑过期后要到 Redis 中查看是否已经重建
+        LocalEntry local = getLocal(key);
+        if (local != null && local.expireTime.isAfter(LocalDateTime.now())) {
+            l1Hits.increment();
+            return done(keyPrefix, local.value == null ? NULL_HIT : HIT, start, type.cast(local.value));
         }
+        l1Misses.increment();
+        long epoch = invalidations.get();
+
+        // 2. 再从 Redis 中查询店铺编码后的数据（使用 String 类型存储）
+        byte[] data = getFromRedis(key);
 
-        //4.命中，需要把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(Json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 3. 判断是否命中缓存
+        if (data == null || data.length == 0) {
+            return done(keyPrefix, MISS, start, null);
+        }
+
+        //4.命中，需要把数据解码为对象
+        RedisData redisData;
+        try {
+            redisData = codec.decodeWithExpire(data, type);
+        } catch (IllegalStateException e) {
+            //4.1无法解码（例如类的字段变了），直接查询数据库并覆盖
+            log.debug("缓存数据无法解码，重新查询数据库，key:{}", key, e);
+            return done(keyPrefix, MISS, start, singleFlight.execute(key, () -> {
+                R r = loadFromDb(dbFallback, id);
+                this.setWithLogicalExpire(key, r, time, unit);
+                return r;
+            }));
+        }
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         //5.判断是否过期
         if(expireTime.isAfter(LocalDateTime.now())){
-            //5.1未过期，直接返回店铺信息
-            return r;
+            //5.1未过期，放入本地缓存，直接返回店铺信息
+            putLocal(key, new LocalEntry(r, expireTime), epoch);
+            return done(keyPrefix, r == null ? NULL_HIT : HIT, start, r);
         }
 
         //5.2过期，需要缓存重建
 
-        //6.缓存重建
-        //6.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //6.2判断是否获取锁成功
-        if(isLock){
-            //6.3成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //重建缓存
-                    R r1 = dbFallback.apply(id);
-                    this.setWithLogicalExpire(key, r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放锁
-                    unlock(lockKey);
+        //6.缓存重建，本节点内同一个key只提交一次，节点之间由分布式锁互斥
+        submitRebuild(keyPrefix, key, () -> rebuild(key, id, dbFallback, time, unit));
+
+        return done(keyPrefix, LOGICAL_EXPIRED, start, r);
+    }
+
+    private void submitRebuild(String keyPrefix, String key, Runnable rebuild) {
+        boolean submitted = rebuildExecutor.submit(key, () -> {
+            try {
+                rebuild.run();
+            } catch (RuntimeException e) {
+                metrics.record(keyPrefix, REBUILD_FAILED);
+                throw e;
+            }
+        });
+        if (submitted) {
+            metrics.record(keyPrefix, REBUILD_STARTED);
+        }
+    }
+
+    // 记录查询结果和耗时
+    private <R> R done(String keyPrefix, String outcome, long start, R result) {
+        metrics.record(keyPrefix, outcome);
+        return timed(keyPrefix, start, result);
+    }
+
+    private <R> R timed(String keyPrefix, long start, R result) {
+        metrics.recordLatency(keyPrefix, start);
+        return result;
+    }
+
+    private <R, ID> void rebuild(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        //6.1获取互斥锁，获取失败说明其他节点正在重建
+        ILock lock = lockClient.getLock(CACHE_LOCK_KEY + key);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            //6.2再次检查，其他节点可能刚刚完成重建
+            byte[] data = stringRedisTemplate.execute(
+                    (RedisCallback<byte[]>) connection -> connection.stringCommands().get(rawKey(key)));
+            if (data != null && data.length > 0 && isNotExpired(data)) {
+                return;
+            }
+            //6.3查询数据库并写入缓存
+            R r = loadFromDb(dbFallback, id);
+            this.setWithLogicalExpire(key, r, time, unit);
+        } finally {
+            //6.4释放锁
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批量查询，语义与 {@link #queryWithPassThrough} 相同：本地缓存之后用一次 MGET 查询 Redis，
+     * 未命中的id一次交给 dbFallback 查询数据库（例如 listByIds），查询结果和不存在的id的空值用一次 pipeline 写回 Redis
+     * @param dbFallback 未命中的id -> 查到的对象，不存在的id不出现在结果中
+     * @return id -> 对象，按 ids 的顺序，不包含不存在的id
+     */
+    public <R, ID> Map<ID, R> queryBatch(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        long start = System.nanoTime();
+        Set<ID> distinct = new LinkedHashSet<>(ids);
+        Map<ID, R> found = new HashMap<>(distinct.size() * 2);
+        // 1.布隆过滤器判断不存在的id、本地缓存命中的id都不再查询 Redis
+        List<ID> remaining = new ArrayList<>();
+        for (ID id : distinct) {
+            if (!bloomFilters.mightContainKey(keyPrefix, id)) {
+                metrics.record(keyPrefix, REJECTED);
+                continue;
+            }
+            LocalEntry local = getLocal(keyPrefix + id);
+            if (local == null) {
+                l1Misses.increment();
+                remaining.add(id);
+                continue;
+            }
+            l1Hits.increment();
+            if (local.value != null) {
+                found.put(id, type.cast(local.value));
+            }
+            metrics.record(keyPrefix, local.value == null ? NULL_HIT : HIT);
+        }
+        if (remaining.isEmpty()) {
+            return timed(keyPrefix, start, inOrder(distinct, found));
+        }
+        long epoch = invalidations.get();
+
+        // 2.一次 MGET 查询 Redis，空值代表数据库中不存在，无法解码的当作未命中
+        List<byte[]> values = multiGetFromRedis(keyPrefix, remaining);
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < remaining.size(); i++) {
+            ID id = remaining.get(i);
+            String key = keyPrefix + id;
+            byte[] data = values.get(i);
+            if (data != null && data.length == 0) {
+                putLocal(key, new LocalEntry(null, null), epoch);
+                metrics.record(keyPrefix, NULL_HIT);
+                continue;
+            }
+            R r = data == null ? null : decode(key, data, type);
+            if (r == null) {
+                misses.add(id);
+                continue;
+            }
+            putLocal(key, new LocalEntry(r, null), epoch);
+            found.put(id, r);
+            metrics.record(keyPrefix, HIT);
+        }
+        metrics.record(keyPrefix, MISS, misses.size());
+        if (misses.isEmpty()) {
+            return timed(keyPrefix, start, inOrder(distinct, found));
+        }
+
+        // 3.未命中的id一次查询数据库
+        Map<ID, R> loaded = loadFromDb(dbFallback, misses);
+
+        // 4.一次 pipeline 写回 Redis，数据库中不存在的id写入空值
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : misses) {
+                R r = loaded.get(id);
+                if (r == null) {
+                    connection.stringCommands().set(rawKey(keyPrefix + id), new byte[0],
+                            Expiration.milliseconds(jitteredMillis(CACHE_NULL_TTL, TimeUnit.MINUTES)),
+                            RedisStringCommands.SetOption.upsert());
+                } else {
+                    connection.stringCommands().set(rawKey(keyPrefix + id), codec.encode(r),
+                            Expiration.milliseconds(jitteredMillis(time, unit)), RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
+        });
+        for (ID id : misses) {
+            R r = loaded.get(id);
+            putLocal(keyPrefix + id, new LocalEntry(r, null), epoch);
+            if (r != null) {
+                found.put(id, r);
+            }
+        }
+        return timed(keyPrefix, start, inOrder(distinct, found));
+    }
+
+    /**
+     * 批量查询，语义与 {@link #queryWithLogicalExpire} 相同：Redis 中没有的id视为不存在；
+     * 逻辑过期的先返回旧值，逐个提交重建；无法解码的一次查询数据库并用一次 pipeline 覆盖
+     * @return id -> 对象，按 ids 的顺序，不包含不存在的id
+     */
+    public <R, ID> Map<ID, R> queryBatchWithLogicalExpire(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        long start = System.nanoTime();
+        Set<ID> distinct = new LinkedHashSet<>(ids);
+        Map<ID, R> found = new HashMap<>(distinct.size() * 2);
+        LocalDateTime now = LocalDateTime.now();
+        // 1.布隆过滤器判断不存在的id、本地缓存中未逻辑过期的id都不再查询 Redis
+        List<ID> remaining = new ArrayList<>();
+        for (ID id : distinct) {
+            if (!bloomFilters.mightContainKey(keyPrefix, id)) {
+                metrics.record(keyPrefix, REJECTED);
+                continue;
+            }
+            LocalEntry local = getLocal(keyPrefix + id);
+            if (local != null && local.expireTime.isAfter(now)) {
+                l1Hits.increment();
+                if (local.value != null) {
+                    found.put(id, type.cast(local.value));
                 }
-            });
+                metrics.record(keyPrefix, local.value == null ? NULL_HIT : HIT);
+                continue;
+            }
+            l1Misses.increment();
+            remaining.add(id);
         }
+        if (remaining.isEmpty()) {
+            return timed(keyPrefix, start, inOrder(distinct, found));
+        }
+        long epoch = invalidations.get();
 
-        return r;
+        // 2.一次 MGET 查询 Redis
+        List<byte[]> values = multiGetFromRedis(keyPrefix, remaining);
+        List<ID> undecodable = new ArrayList<>();
+        Function<ID, R> singleFallback = id -> dbFallback.apply(Collections.singletonList(id)).get(id);
+        for (int i = 0; i < remaining.size(); i++) {
+            ID id = remaining.get(i);
+            String key = keyPrefix + id;
+            byte[] data = values.get(i);
+            if (data == null || data.length == 0) {
+                metrics.record(keyPrefix, MISS);
+                continue;
+            }
+            RedisData redisData;
+            try {
+                redisData = codec.decodeWithExpire(data, type);
+            } catch (IllegalStateException e) {
+                log.debug("缓存数据无法解码，重新查询数据库，key:{}", key, e);
+                metrics.record(keyPrefix, MISS);
+                undecodable.add(id);
+                continue;
+            }
+            R r = type.cast(redisData.getData());
+            if (r != null) {
+                found.put(id, r);
+            }
+            // 3.未过期的放入本地缓存，过期的先返回旧值并提交重建
+            if (redisData.getExpireTime().isAfter(now)) {
+                putLocal(key, new LocalEntry(r, redisData.getExpireTime()), epoch);
+                metrics.record(keyPrefix, r == null ? NULL_HIT : HIT);
+            } else {
+                metrics.record(keyPrefix, LOGICAL_EXPIRED);
+                submitRebuild(keyPrefix, key, () -> rebuild(key, id, singleFallback, time, unit));
+            }
+        }
+        if (undecodable.isEmpty()) {
+            return timed(keyPrefix, start, inOrder(distinct, found));
+        }
+
+        // 4.无法解码的id一次查询数据库，用一次 pipeline 覆盖
+        Map<ID, R> loaded = loadFromDb(dbFallback, undecodable);
+        Map<String, R> reloaded = new HashMap<>(undecodable.size() * 2);
+        for (ID id : undecodable) {
+            R r = loaded.get(id);
+            reloaded.put(keyPrefix + id, r);
+            if (r != null) {
+                found.put(id, r);
+            }
+        }
+        setBatchWithLogicalExpire(reloaded, time, unit);
+        return timed(keyPrefix, start, inOrder(distinct, found));
     }
 
-    //尝试获取锁
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private static <R, ID> Map<ID, R> inOrder(Set<ID> ids, Map<ID, R> found) {
+        Map<ID, R> result = new LinkedHashMap<>(found.size() * 2);
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
     }
 
-    //释放锁
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 加上 [0, ttl-jitter) 比例的随机时长
+     */
+    private long jitteredMillis(Long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        return millis + (long) (millis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private LocalDateTime jitteredExpireTime(Long time, TimeUnit unit) {
+        return LocalDateTime.now().plus(jitteredMillis(time, unit), ChronoUnit.MILLIS);
+    }
+
+    private void setNull(String key) {
+        stringRedisTemplate.opsForValue().set(key, "", jitteredMillis(CACHE_NULL_TTL, TimeUnit.MINUTES),
+                TimeUnit.MILLISECONDS);
+    }
+
+    private LocalEntry getLocal(String key) {
+        long start = System.nanoTime();
+        hotKeys.record(key);
+        //先查固定的热点key，过期的删除
+        PinnedEntry p = pinned.get(key);
+        LocalEntry entry;
+        if (p != null && p.pinnedUntil > System.currentTimeMillis()) {
+            entry = p.entry;
+        } else {
+            if (p != null) {
+                pinned.remove(key, p);
+            }
+            entry = l1.getIfPresent(key);
+            if (entry != null) {
+                pin(key, entry);
+            }
+        }
+        l1Latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return entry;
+    }
+
+    private void putLocal(String key, LocalEntry entry, long epoch) {
+        int stripe = stripe(key);
+        if (invalidatedAt.get(stripe) > epoch) {
+            return;
+        }
+        l1.put(key, entry);
+        pin(key, entry);
+        // 检查和写入之间可能发生了失效：失效先记下序号再删除本地缓存，写入后再检查一次，失效过就撤销本次写入
+        if (invalidatedAt.get(stripe) > epoch) {
+            l1.asMap().remove(key, entry);
+            pinned.computeIfPresent(key, (k, p) -> p.entry == entry ? null : p);
+        }
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (INVALIDATION_STRIPES - 1);
+    }
+
+    private void pin(String key, LocalEntry entry) {
+        if (hotKeys.isHot(key)) {
+            pinned.put(key, new PinnedEntry(entry, System.currentTimeMillis() + pinTtlMillis));
+        }
+    }
+
+    private void evictLocal(String key) {
+        long seq = invalidations.incrementAndGet();
+        invalidatedAt.accumulateAndGet(stripe(key), seq, Math::max);
+        pinned.remove(key);
+        l1.invalidate(key);
+        evictListeners.forEach(listener -> listener.accept(key));
+    }
+
+    private byte[] getFromRedis(String key) {
+        long start = System.nanoTime();
+        byte[] data = stringRedisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.stringCommands().get(rawKey(key)));
+        redisLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        (data == null ? redisMisses : redisHits).increment();
+        return data;
+    }
+
+    private List<byte[]> multiGetFromRedis(String keyPrefix, List<?> ids) {
+        byte[][] keys = new byte[ids.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rawKey(keyPrefix + ids.get(i));
+        }
+        long start = System.nanoTime();
+        List<byte[]> values = stringRedisTemplate.execute(
+                (RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(keys));
+        redisLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        for (byte[] data : values) {
+            (data == null ? redisMisses : redisHits).increment();
+        }
+        return values;
+    }
+
+    // 无法解码时返回 null，由调用方当作未命中
+    private <R> R decode(String key, byte[] data, Class<R> type) {
+        try {
+            return codec.decode(data, type);
+        } catch (IllegalStateException e) {
+            log.debug("缓存数据无法解码，当作未命中，key:{}", key, e);
+            return null;
+        }
+    }
+
+    private boolean isNotExpired(byte[] data) {
+        try {
+            return codec.decodeExpireTime(data).isAfter(LocalDateTime.now());
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private <R, ID> R loadFromDb(Function<ID, R> dbFallback, ID id) {
+        long start = System.nanoTime();
+        try {
+            return dbFallback.apply(id);
+        } finally {
+            dbLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static final class PinnedEntry {
+        private final LocalEntry entry;
+        private final long pinnedUntil;
+
+        private PinnedEntry(LocalEntry entry, long pinnedUntil) {
+            this.entry = entry;
+            this.pinnedUntil = pinnedUntil;
+        }
+    }
+
+    /**
+     * 本地缓存条目：value 为 null 代表数据库中不存在；expireTime 为（逻辑）过期时间，没有时为 null；
+     * rebuildMillis 为写入时查询数据库的耗时，只在提前刷新模式下使用
+     */
+    private static final class LocalEntry {
+        private final Object value;
+        private final LocalDateTime expireTime;
+        private final long rebuildMillis;
+
+        private LocalEntry(Object value, LocalDateTime expireTime) {
+            this(value, expireTime, 0);
+        }
+
+        private LocalEntry(Object value, LocalDateTime expireTime, long rebuildMillis) {
+            this.value = value;
+            this.expireTime = expireTime;
+            this.rebuildMillis = rebuildMillis;
+        }
     }
 }
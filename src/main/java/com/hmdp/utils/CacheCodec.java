@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * CacheClient 写入 Redis 的值的编解码方式，由 hmdp.cache.codec 选择：binary（默认）或 json（便于排查问题）。
+ * <p>
+ * 空字节数组保留给缓存穿透的空值，编解码器不会产生也不会收到它。解码失败时抛出 {@link IllegalStateException}，
+ * CacheClient 会当作缓存未命中处理。
+ */
+public interface CacheCodec {
+
+    byte[] encode(Object value);
+
+    <R> R decode(byte[] data, Class<R> type);
+
+    /**
+     * 编码带逻辑过期时间的值
+     */
+    default byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        return encodeWithExpire(value, expireTime, 0);
+    }
+
+    /**
+     * 编码带逻辑过期时间的值，同时保存这次查询数据库的耗时（毫秒，0代表没有记录）
+     */
+    byte[] encodeWithExpire(Object value, LocalDateTime expireTime, long rebuildMillis);
+
+    /**
+     * 解码带逻辑过期时间的值，返回的 RedisData 中 data 已经是 type 类型，没有记录耗时时 rebuildMillis 为 null
+     */
+    <R> RedisData decodeWithExpire(byte[] data, Class<R> type);
+
+    /**
+     * 只读取逻辑过期时间，不解码值
+     */
+    LocalDateTime decodeExpireTime(byte[] data);
+}
@@ -0,0 +1,203 @@
+package com.hmdp.utils;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.BridgeMethodResolver;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.MethodClassKey;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * {@link HmdpCacheable}、{@link HmdpCacheEvict} 的拦截器，由 CacheConfig 中的 advisor 织入。
+ * <p>
+ * 每个方法的注解只在第一次调用时解析：key 为单个参数（例如 "#id"）时直接按下标取参数，其他表达式预先编译，
+ * 之后每次调用只有一次 map 查询，缓存命中时与直接调用 {@link CacheClient} 的开销相同。
+ * 缓存未命中时从调用链的副本继续执行目标方法，逻辑过期和提前刷新的后台重建也可以在原调用返回之后执行。
+ */
+public class CacheInterceptor implements MethodInterceptor {
+
+    private static final ParameterNameDiscoverer PARAMETER_NAMES = new DefaultParameterNameDiscoverer();
+    private static final SpelExpressionParser PARSER = new SpelExpressionParser();
+
+    private final ObjectFactory<CacheClient> cacheClientFactory;
+    private volatile CacheClient cacheClient;
+
+    private final Map<MethodClassKey, Operation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * @param cacheClient 第一次调用时才获取，advisor 创建时 CacheClient 依赖的 Redis 连接等还没有初始化
+     */
+    public CacheInterceptor(ObjectFactory<CacheClient> cacheClient) {
+        this.cacheClientFactory = cacheClient;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Class<?> targetClass = invocation.getThis() == null ? null : AopUtils.getTargetClass(invocation.getThis());
+        MethodClassKey methodKey = new MethodClassKey(invocation.getMethod(), targetClass);
+        Operation operation = operations.get(methodKey);
+        if (operation == null) {
+            operation = operations.computeIfAbsent(methodKey, k -> parse(invocation.getMethod(), targetClass));
+        }
+        if (operation.strategy == null) {
+            return evict(invocation, operation);
+        }
+        return cacheable(invocation, operation);
+    }
+
+    private Object cacheable(MethodInvocation invocation, Operation operation) throws Throwable {
+        Object id = operation.key.resolve(invocation.getArguments());
+        if (id == null) {
+            return invocation.proceed();
+        }
+        Function<Object, Object> dbFallback = ignored -> load(invocation);
+        CacheClient client = cacheClient();
+        switch (operation.strategy) {
+            case MUTEX:
+                return client.queryWithMutex(operation.prefix, id, operation.type, dbFallback,
+                        operation.ttl, operation.unit);
+            case LOGICAL_EXPIRE:
+                return client.queryWithLogicalExpire(operation.prefix, id, operation.type, dbFallback,
+                        operation.ttl, operation.unit);
+            case REFRESH_AHEAD:
+                return client.queryWithEarlyRefresh(operation.prefix, id, operation.type, dbFallback,
+                        operation.ttl, operation.unit);
+            default:
+                return client.queryWithPassThrough(operation.prefix, id, operation.type, dbFallback,
+                        operation.ttl, operation.unit);
+        }
+    }
+
+    private Object evict(MethodInvocation invocation, Operation operation) throws Throwable {
+        Object result = invocation.proceed();
+        Object id = operation.key.resolve(invocation.getArguments());
+        if (id == null) {
+            return result;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            delete(operation.evictPrefixes, id);
+            return result;
+        }
+        // 外层事务提交后再删除，回滚时不删除
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                delete(operation.evictPrefixes, id);
+            }
+        });
+        return result;
+    }
+
+    private void delete(String[] prefixes, Object id) {
+        for (String prefix : prefixes) {
+            cacheClient().delete(prefix + id);
+        }
+    }
+
+    private static Object load(MethodInvocation invocation) {
+        try {
+            return ((ProxyMethodInvocation) invocation).invocableClone().proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private CacheClient cacheClient() {
+        CacheClient client = cacheClient;
+        if (client == null) {
+            client = cacheClientFactory.getObject();
+            cacheClient = client;
+        }
+        return client;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Operation parse(Method method, Class<?> targetClass) {
+        Method specific = BridgeMethodResolver.findBridgedMethod(AopUtils.getMostSpecificMethod(method, targetClass));
+        HmdpCacheable cacheable = AnnotationUtils.findAnnotation(specific, HmdpCacheable.class);
+        HmdpCacheEvict evict = AnnotationUtils.findAnnotation(specific, HmdpCacheEvict.class);
+        if ((cacheable == null) == (evict == null)) {
+            throw new IllegalStateException(specific + " 需要且只能有 @HmdpCacheable、@HmdpCacheEvict 中的一个");
+        }
+        if (evict != null) {
+            return new Operation(null, evict.prefix(), keyResolver(specific, evict.key()), null, null, null, null);
+        }
+        if (specific.getReturnType().isPrimitive()) {
+            throw new IllegalStateException(specific + " 的返回值不能是基本类型");
+        }
+        return new Operation(cacheable.prefix(), null, keyResolver(specific, cacheable.key()), cacheable.strategy(),
+                (Class<Object>) specific.getReturnType(), cacheable.ttl(), cacheable.unit());
+    }
+
+    private static KeyResolver keyResolver(Method method, String key) {
+        //1.默认取唯一的参数，没有参数时为空字符串
+        if (key.isEmpty()) {
+            switch (method.getParameterCount()) {
+                case 0:
+                    return args -> "";
+                case 1:
+                    return args -> args[0];
+                default:
+                    throw new IllegalStateException(method + " 有多个参数，需要指定 key");
+            }
+        }
+        //2.单个参数直接按下标取
+        String[] names = PARAMETER_NAMES.getParameterNames(method);
+        if (names != null && key.startsWith("#")) {
+            int index = Arrays.asList(names).indexOf(key.substring(1));
+            if (index >= 0) {
+                return args -> args[index];
+            }
+        }
+        //3.其他表达式预先编译
+        Expression expression = PARSER.parseExpression(key);
+        return args -> expression.getValue(new MethodBasedEvaluationContext(null, method, args, PARAMETER_NAMES));
+    }
+
+    private interface KeyResolver {
+        Object resolve(Object[] args);
+    }
+
+    /**
+     * 解析好的注解，strategy 为 null 代表 @HmdpCacheEvict
+     */
+    private static final class Operation {
+        private final String prefix;
+        private final String[] evictPrefixes;
+        private final KeyResolver key;
+        private final CacheStrategy strategy;
+        private final Class<Object> type;
+        private final Long ttl;
+        private final TimeUnit unit;
+
+        private Operation(String prefix, String[] evictPrefixes, KeyResolver key, CacheStrategy strategy,
+                          Class<Object> type, Long ttl, TimeUnit unit) {
+            this.prefix = prefix;
+            this.evictPrefixes = evictPrefixes;
+            this.key = key;
+            this.strategy = strategy;
+            this.type = type;
+            this.ttl = ttl;
+            this.unit = unit;
+        }
+    }
+}
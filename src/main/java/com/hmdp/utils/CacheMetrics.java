@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 key 前缀统计的缓存指标：hmdp.cache.requests（标签 cache、outcome）和 hmdp.cache.request.latency（标签 cache）。
+ * <p>
+ * cache 标签取 key 前缀（如 cache:shop:），只能传常量，不能传完整的 key。一次查询记录一个查询结果
+ * （hit、null-hit、miss、logical-expired、rejected），触发的后台重建另外记录 rebuild-started，重建抛出异常时记录 rebuild-failed；
+ * 批量查询按id记录结果，耗时每次调用记录一次。直方图由 management.metrics.distribution 配置。
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String HIT = "hit";
+    /**
+     * 命中了缓存的空值，数据库中不存在
+     */
+    public static final String NULL_HIT = "null-hit";
+    public static final String MISS = "miss";
+    /**
+     * 命中了逻辑过期的值，返回旧值并提交重建
+     */
+    public static final String LOGICAL_EXPIRED = "logical-expired";
+    /**
+     * 布隆过滤器判断不存在，没有查询缓存
+     */
+    public static final String REJECTED = "rejected";
+    public static final String REBUILD_STARTED = "rebuild-started";
+    public static final String REBUILD_FAILED = "rebuild-failed";
+
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void record(String cache, String outcome) {
+        record(cache, outcome, 1);
+    }
+
+    public void record(String cache, String outcome, int count) {
+        if (count == 0) {
+            return;
+        }
+        counters.computeIfAbsent(cache + '|' + outcome, k -> Counter.builder("hmdp.cache.requests")
+                .description("按key前缀统计的缓存查询结果")
+                .tag("cache", cache)
+                .tag("outcome", outcome)
+                .register(meterRegistry)).increment(count);
+    }
+
+    /**
+     * 记录一次查询的耗时
+     * @param startNanos 查询开始时的 System.nanoTime()
+     */
+    public void recordLatency(String cache, long startNanos) {
+        timers.computeIfAbsent(cache, k -> Timer.builder("hmdp.cache.request.latency")
+                .description("按key前缀统计的缓存查询耗时（包括回源数据库）")
+                .tag("cache", cache)
+                .register(meterRegistry)).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,186 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存后台重建（逻辑过期、提前刷新）的线程池。
+ * <p>
+ * 同一个 key 从提交到执行结束只保留一个任务，重复提交直接丢弃。排队的任务最多 queue-capacity 个，队列满时丢弃新任务：
+ * 提交重建的请求手里都有旧值可以返回，下一次读取会重新提交，不值得让请求线程自己去查数据库。
+ * 排队的任务按 key 前缀的优先级执行（见 {@link #setPriority}），同优先级先提交先执行。
+ * 任务抛出的异常记录日志和 hmdp.cache.rebuild.failures 指标；关闭时不再接受新任务，丢弃排队的任务，等待正在执行的任务结束。
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final long shutdownTimeoutMillis;
+
+    /**
+     * 已提交、尚未执行结束的key
+     */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * key 前缀 -> 优先级，数值大的先执行
+     */
+    private final Map<String, Integer> priorities = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Timer latency;
+    private final Counter failures;
+    private final Counter rejected;
+    private final Counter deduplicated;
+
+    public CacheRebuildExecutor(MeterRegistry meterRegistry,
+                                @Value("${hmdp.cache.rebuild.threads:4}") int threads,
+                                @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity,
+                                @Value("${hmdp.cache.rebuild.shutdown-timeout-millis:5000}") long shutdownTimeoutMillis) {
+        this.queueCapacity = queueCapacity;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        // 容量由 queued 控制，队列本身不设上限；任务只通过 execute 提交，保证队列中都是 Task
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "cache-rebuild-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Gauge.builder("hmdp.cache.rebuild.queue", queued, AtomicInteger::get)
+                .description("排队等待执行的缓存重建任务数")
+                .register(meterRegistry);
+        this.latency = Timer.builder("hmdp.cache.rebuild.latency")
+                .description("缓存重建任务的执行耗时")
+                .register(meterRegistry);
+        this.failures = Counter.builder("hmdp.cache.rebuild.failures")
+                .description("抛出异常的缓存重建任务数")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("hmdp.cache.rebuild.rejected")
+                .description("队列已满或正在关闭而丢弃的缓存重建任务数")
+                .register(meterRegistry);
+        this.deduplicated = Counter.builder("hmdp.cache.rebuild.deduplicated")
+                .description("同一个key已有任务而丢弃的缓存重建任务数")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void destroy() throws InterruptedException {
+        executor.shutdown();
+        // 排队的任务只是刷新缓存，直接丢弃
+        int dropped = executor.getQueue().size();
+        executor.getQueue().clear();
+        if (!executor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            log.warn("缓存重建任务在{}ms内没有结束，强制关闭", shutdownTimeoutMillis);
+            executor.shutdownNow();
+        }
+        log.info("缓存重建线程池已关闭，丢弃排队任务{}个", dropped);
+    }
+
+    /**
+     * 设置以 keyPrefix 开头的 key 的优先级，默认为 0
+     */
+    public void setPriority(String keyPrefix, int priority) {
+        priorities.put(keyPrefix, priority);
+    }
+
+    /**
+     * 提交 key 的重建任务
+     * @return 是否已提交，false 代表该 key 已有任务、队列已满或正在关闭
+     */
+    public boolean submit(String key, Runnable rebuild) {
+        //1.同一个key只保留一个任务
+        if (!pending.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        //2.队列已满时丢弃
+        if (queued.incrementAndGet() > queueCapacity) {
+            return reject(key);
+        }
+        try {
+            executor.execute(new Task(key, priorityOf(key), sequence.incrementAndGet(), rebuild));
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 正在关闭
+            return reject(key);
+        }
+    }
+
+    private boolean reject(String key) {
+        queued.decrementAndGet();
+        pending.remove(key);
+        rejected.increment();
+        return false;
+    }
+
+    private int priorityOf(String key) {
+        int priority = 0;
+        int matched = -1;
+        // 前缀之间有包含关系时取最长的
+        for (Map.Entry<String, Integer> entry : priorities.entrySet()) {
+            if (key.startsWith(entry.getKey()) && entry.getKey().length() > matched) {
+                matched = entry.getKey().length();
+                priority = entry.getValue();
+            }
+        }
+        return priority;
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+        private final String key;
+        private final int priority;
+        private final long seq;
+        private final Runnable rebuild;
+
+        private Task(String key, int priority, long seq, Runnable rebuild) {
+            this.key = key;
+            this.priority = priority;
+            this.seq = seq;
+            this.rebuild = rebuild;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            long start = System.nanoTime();
+            try {
+                rebuild.run();
+            } catch (Exception e) {
+                failures.increment();
+                log.error("缓存重建失败，key:{}", key, e);
+            } finally {
+                latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                pending.remove(key);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+/**
+ * {@link HmdpCacheable} 方法的缓存方式，对应 {@link CacheClient} 的各个查询方法
+ */
+public enum CacheStrategy {
+
+    /**
+     * Redis 过期时间 + 空值缓存，未命中时本节点只有一个线程查询数据库：{@link CacheClient#queryWithPassThrough}
+     */
+    PASS_THROUGH,
+
+    /**
+     * 与 PASS_THROUGH 相同，另外由分布式锁保证所有节点同一个 key 只有一个线程查询数据库：{@link CacheClient#queryWithMutex}
+     */
+    MUTEX,
+
+    /**
+     * 逻辑过期，过期后返回旧值并在后台重建，需要预热：{@link CacheClient#queryWithLogicalExpire}
+     */
+    LOGICAL_EXPIRE,
+
+    /**
+     * 与 PASS_THROUGH 相同，另外按 XFetch 算法在过期之前提前刷新：{@link CacheClient#queryWithEarlyRefresh}
+     */
+    REFRESH_AHEAD
+}
@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min Sketch：depth 行、每行 width 个计数器，每个 key 在每行映射到一个计数器，估计值取各行的最小值，只会多估不会少估。
+ * 多估的量约为 总次数 / width。计数器可以并发递增，{@link #clear()} 与递增并发时可能丢失少量计数。
+ */
+final class CountMinSketch {
+
+    private final int depth;
+    private final int mask;
+    private final AtomicIntegerArray counters;
+
+    /**
+     * @param width 每行的计数器数，向上取整为 2 的幂
+     */
+    CountMinSketch(int depth, int width) {
+        this.depth = depth;
+        int w = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.mask = w - 1;
+        this.counters = new AtomicIntegerArray(depth * w);
+    }
+
+    static long hash(String key) {
+        return MurmurHash.hash64(key);
+    }
+
+    void increment(long hash) {
+        for (int i = 0; i < depth; i++) {
+            counters.incrementAndGet(index(hash, i));
+        }
+    }
+
+    int estimate(long hash) {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(index(hash, i)));
+        }
+        return min;
+    }
+
+    void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    // 与布隆过滤器相同的双重哈希：第 i 行取 h1 + i * h2
+    private int index(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+}
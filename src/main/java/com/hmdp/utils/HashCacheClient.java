@@ -0,0 +1,233 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.PropDesc;
+import cn.hutool.core.bean.copier.CopyOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.CacheMetrics.*;
+import static com.hmdp.utils.RedisConstants.CACHE_LOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+
+/**
+ * 按字段保存在 Redis hash 中的缓存：每个非空字段一个 hash field（字符串形式），读取时用一次 HMGET 只取需要的字段。
+ * <p>
+ * 逻辑过期和空值的语义与 {@link CacheClient#queryWithLogicalExpire} 相同：_expire 字段保存逻辑过期时间（毫秒时间戳），
+ * 逻辑过期后返回旧值，由分布式锁保证只有一个节点在后台重建；数据库中不存在的记录保存为只有 _expire、_null 字段的 hash，
+ * 另有 CACHE_NULL_TTL 的 Redis 过期时间。登记了布隆过滤器的key前缀同样会被过滤，查询结果记录在 {@link CacheMetrics} 中。
+ * 不同的是 key 不存在时（没有写入过或已被删除）同步查询数据库并写入，本节点同一个 key 只有一个线程查询；没有本地缓存。
+ */
+@Slf4j
+@Component
+public class HashCacheClient {
+
+    static final String EXPIRE_FIELD = "_expire";
+    static final String NULL_FIELD = "_null";
+
+    private static final DefaultRedisScript<Long> SET_SCRIPT;
+
+    static {
+        SET_SCRIPT = new DefaultRedisScript<>();
+        SET_SCRIPT.setLocation(new ClassPathResource("hash_cache_set.lua"));
+        SET_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisLockClient lockClient;
+    private final SingleFlight singleFlight;
+    private final BloomFilterRegistry bloomFilters;
+    private final CacheRebuildExecutor rebuildExecutor;
+    private final CacheMetrics metrics;
+    private final double ttlJitter;
+
+    /**
+     * 类型 -> 字段名 -> 字段类型
+     */
+    private final Map<Class<?>, Map<String, Class<?>>> fieldsByType = new ConcurrentHashMap<>();
+
+    public HashCacheClient(StringRedisTemplate stringRedisTemplate, RedisLockClient lockClient,
+                           SingleFlight singleFlight, BloomFilterRegistry bloomFilters,
+                           CacheRebuildExecutor rebuildExecutor, CacheMetrics metrics,
+                           @Value("${hmdp.cache.ttl-jitter:0.1}") double ttlJitter) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.lockClient = lockClient;
+        this.singleFlight = singleFlight;
+        this.bloomFilters = bloomFilters;
+        this.rebuildExecutor = rebuildExecutor;
+        this.metrics = metrics;
+        this.ttlJitter = ttlJitter;
+    }
+
+    /**
+     * 只读取 fields 中的字段
+     * @return 只设置了 fields 中的字段的新对象，数据库中不存在时返回 null
+     * @throws IllegalArgumentException fields 中有 type 没有的字段
+     */
+    public <R, ID> R queryWithLogicalExpire(
+            String keyPrefix, ID id, Class<R> type, Collection<String> fields,
+            Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        long start = System.nanoTime();
+        checkFields(type, fields);
+
+        //1.布隆过滤器判断不存在，直接返回
+        if (!bloomFilters.mightContainKey(keyPrefix, id)) {
+            return done(keyPrefix, REJECTED, start, null);
+        }
+
+        //2.一次 HMGET 读取逻辑过期时间、空值标记和需要的字段
+        List<Object> hashKeys = new ArrayList<>(fields.size() + 2);
+        hashKeys.add(EXPIRE_FIELD);
+        hashKeys.add(NULL_FIELD);
+        hashKeys.addAll(fields);
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(key, hashKeys);
+
+        //3.key 不存在，查询数据库并写入，本节点同一个 key 只有一个线程查询
+        if (values.get(0) == null) {
+            R r = singleFlight.execute(key, () -> loadAndCache(key, id, dbFallback, time, unit));
+            return done(keyPrefix, MISS, start, r == null ? null : project(r, type, fields));
+        }
+        R r = null;
+        if (values.get(1) == null) {
+            Map<String, Object> map = new HashMap<>(fields.size() * 2);
+            int i = 2;
+            for (String field : fields) {
+                map.put(field, values.get(i++));
+            }
+            r = BeanUtil.toBean(map, type);
+        }
+
+        //4.未过期，直接返回
+        if (Long.parseLong((String) values.get(0)) > System.currentTimeMillis()) {
+            return done(keyPrefix, r == null ? NULL_HIT : HIT, start, r);
+        }
+
+        //5.逻辑过期，返回旧值，本节点内同一个key只提交一次重建，节点之间由分布式锁互斥
+        boolean submitted = rebuildExecutor.submit(key, () -> {
+            try {
+                rebuild(key, id, dbFallback, time, unit);
+            } catch (RuntimeException e) {
+                metrics.record(keyPrefix, REBUILD_FAILED);
+                throw e;
+            }
+        });
+        if (submitted) {
+            metrics.record(keyPrefix, REBUILD_STARTED);
+        }
+        return done(keyPrefix, LOGICAL_EXPIRED, start, r);
+    }
+
+    /**
+     * 整体写入，替换 key 中原有的所有字段
+     * @param value 为 null 时写入空值
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        List<String> args = new ArrayList<>();
+        //1.空值另有 Redis 过期时间，不会一直占用内存
+        long nullTtlMillis = jitteredMillis(CACHE_NULL_TTL, TimeUnit.MINUTES);
+        args.add(value == null ? String.valueOf(nullTtlMillis) : "0");
+        //2.字段，null 字段不写入
+        if (value == null) {
+            args.add(NULL_FIELD);
+            args.add("1");
+        } else {
+            BeanUtil.beanToMap(value, new HashMap<>(), CopyOptions.create()
+                    .setIgnoreNullValue(true)
+                    .setFieldValueEditor((name, v) -> v == null ? null : v.toString()))
+                    .forEach((field, v) -> {
+                        args.add(field);
+                        args.add((String) v);
+                    });
+        }
+        //3.逻辑过期时间
+        long ttlMillis = value == null ? nullTtlMillis : jitteredMillis(time, unit);
+        args.add(EXPIRE_FIELD);
+        args.add(String.valueOf(System.currentTimeMillis() + ttlMillis));
+        stringRedisTemplate.execute(SET_SCRIPT, Collections.singletonList(key), args.toArray());
+    }
+
+    /**
+     * @return fields 都是 type 的字段
+     */
+    public boolean hasFields(Class<?> type, Collection<String> fields) {
+        return fieldsOf(type).keySet().containsAll(fields);
+    }
+
+    private void checkFields(Class<?> type, Collection<String> fields) {
+        if (!hasFields(type, fields)) {
+            throw new IllegalArgumentException(type.getSimpleName() + " 没有字段 " + fields);
+        }
+    }
+
+    private Map<String, Class<?>> fieldsOf(Class<?> type) {
+        return fieldsByType.computeIfAbsent(type, t -> {
+            Map<String, Class<?>> fields = new HashMap<>();
+            for (PropDesc prop : BeanUtil.getBeanDesc(t).getProps()) {
+                fields.put(prop.getFieldName(), prop.getFieldClass());
+            }
+            return fields;
+        });
+    }
+
+    private <R, ID> R loadAndCache(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        R r = dbFallback.apply(id);
+        setWithLogicalExpire(key, r, time, unit);
+        return r;
+    }
+
+    private <R, ID> void rebuild(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        //1.获取互斥锁，获取失败说明其他节点正在重建
+        ILock lock = lockClient.getLock(CACHE_LOCK_KEY + key);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            //2.再次检查，其他节点可能刚刚完成重建
+            Object expire = stringRedisTemplate.opsForHash().get(key, EXPIRE_FIELD);
+            if (expire != null && Long.parseLong((String) expire) > System.currentTimeMillis()) {
+                return;
+            }
+            //3.查询数据库并整体写入
+            loadAndCache(key, id, dbFallback, time, unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 只保留 fields 中的字段，与从 hash 中读取的结果一致
+    private static <R> R project(R value, Class<R> type, Collection<String> fields) {
+        Map<String, Object> all = BeanUtil.beanToMap(value);
+        Map<String, Object> map = new HashMap<>(fields.size() * 2);
+        for (String field : fields) {
+            map.put(field, all.get(field));
+        }
+        return BeanUtil.toBean(map, type);
+    }
+
+    private <R> R done(String keyPrefix, String outcome, long start, R result) {
+        metrics.record(keyPrefix, outcome);
+        metrics.recordLatency(keyPrefix, start);
+        return result;
+    }
+
+    private long jitteredMillis(Long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        return millis + (long) (millis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+}
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后调用 {@link CacheClient#delete} 删除 prefix + key 的缓存，并让所有节点的本地缓存失效；
+ * 抛出异常时不删除。在事务中调用时等事务提交后再删除，避免其他请求在提交之前把旧数据重新写入缓存。
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpCacheEvict {
+
+    /**
+     * 同一条记录有多种缓存布局时列出所有前缀，key 相同
+     */
+    String[] prefix();
+
+    /**
+     * 与 {@link HmdpCacheable#key()} 相同，在方法返回后求值，可以使用方法中生成的id。值为 null 时不删除
+     */
+    String key() default "";
+}
@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 方法的返回值由 {@link CacheClient} 缓存，缓存未命中时才执行方法（见 {@link CacheInterceptor}）。
+ * <p>
+ * 缓存的 key 为 prefix + key 的值，返回 null 代表数据不存在，按 strategy 缓存空值。返回值会被多个请求共享，调用方不能修改；
+ * 返回值的类型决定解码的类型，集合请声明为数组（例如 ShopType[]），数组的元素类型会保留在缓存中。
+ * 与 @Transactional 一样只对通过代理的调用生效，同一个类中的调用需要通过注入的代理。
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpCacheable {
+
+    /**
+     * key 前缀，同时作为 hmdp.cache.requests 等指标的 cache 标签，登记了布隆过滤器的前缀同样会被过滤
+     */
+    String prefix();
+
+    /**
+     * 拼接在 prefix 之后的部分，SpEL 表达式，例如 "#shopId"、"#shop.id"；
+     * 默认取唯一的参数，没有参数时 key 就是 prefix。值为 null 时不使用缓存，直接执行方法
+     */
+    String key() default "";
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 过期时间（逻辑过期时为逻辑过期时间），会加上 hmdp.cache.ttl-jitter 比例的随机时长
+     */
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+}
@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * 本节点的热点 key 检测：按 sample-rate 抽样读取，计入滑动窗口内的 Count-Min Sketch。
+ * <p>
+ * 窗口由 buckets 个子窗口组成，每 bucket-millis 轮换一次，丢弃最老的子窗口。抽样到的 key 在窗口内的估计访问量
+ * 达到 threshold-qps 时成为热点（最多 max-hot-keys 个）；每次轮换重新估计，降到 threshold-qps * cool-ratio 以下时不再是热点，
+ * 通知 {@link #onCooled} 登记的回调。两个阈值之间的 key 保持原状，避免在阈值附近反复切换。
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private final CountMinSketch[] buckets;
+    private volatile int current;
+
+    private final double sampleRate;
+    private final long bucketMillis;
+    private final double thresholdQps;
+    private final double coolRatio;
+    private final int maxHotKeys;
+
+    /**
+     * 热点key -> 上次估计的每秒访问量
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    private final List<Consumer<String>> cooledListeners = new CopyOnWriteArrayList<>();
+
+    private final Counter detected;
+
+    public HotKeyDetector(MeterRegistry meterRegistry,
+                          @Value("${hmdp.cache.hot-key.sample-rate:0.1}") double sampleRate,
+                          @Value("${hmdp.cache.hot-key.buckets:5}") int buckets,
+                          @Value("${hmdp.cache.hot-key.bucket-millis:2000}") long bucketMillis,
+                          @Value("${hmdp.cache.hot-key.threshold-qps:200}") double thresholdQps,
+                          @Value("${hmdp.cache.hot-key.cool-ratio:0.5}") double coolRatio,
+                          @Value("${hmdp.cache.hot-key.max-hot-keys:100}") int maxHotKeys,
+                          @Value("${hmdp.cache.hot-key.sketch-width:4096}") int sketchWidth) {
+        this.sampleRate = sampleRate;
+        this.bucketMillis = bucketMillis;
+        this.thresholdQps = thresholdQps;
+        this.coolRatio = coolRatio;
+        this.maxHotKeys = maxHotKeys;
+        this.buckets = new CountMinSketch[buckets];
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new CountMinSketch(4, sketchWidth);
+        }
+        Gauge.builder("hmdp.cache.hot-keys", hotKeys, Map::size)
+                .description("本节点当前的热点key数")
+                .register(meterRegistry);
+        this.detected = Counter.builder("hmdp.cache.hot-keys.detected")
+                .description("被判定为热点的key的次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次读取，在读路径上调用
+     */
+    public void record(String key) {
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        long hash = CountMinSketch.hash(key);
+        buckets[current].increment(hash);
+        if (hotKeys.containsKey(key) || hotKeys.size() >= maxHotKeys) {
+            return;
+        }
+        double qps = estimateQps(hash);
+        if (qps >= thresholdQps && hotKeys.putIfAbsent(key, Math.round(qps)) == null) {
+            detected.increment();
+            log.info("检测到热点key:{}，估计每秒访问{}次", key, Math.round(qps));
+        }
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前的热点key及估计的每秒访问量，按访问量从大到小
+     */
+    public Map<String, Long> hotKeys() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        hotKeys.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue(), a.getValue()))
+                .forEach(e -> result.put(e.getKey(), e.getValue()));
+        return result;
+    }
+
+    /**
+     * 登记 key 不再是热点时的回调
+     */
+    public void onCooled(Consumer<String> listener) {
+        cooledListeners.add(listener);
+    }
+
+    /**
+     * 轮换子窗口，重新估计热点key的访问量
+     */
+    @Scheduled(fixedRateString = "${hmdp.cache.hot-key.bucket-millis:2000}")
+    public void rotate() {
+        //1.清空最老的子窗口，之后的计数记入其中
+        int next = (current + 1) % buckets.length;
+        buckets[next].clear();
+        current = next;
+        //2.访问量降到 cool-ratio 以下的不再是热点
+        for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+            String key = entry.getKey();
+            double qps = estimateQps(CountMinSketch.hash(key));
+            if (qps >= thresholdQps * coolRatio) {
+                entry.setValue(Math.round(qps));
+                continue;
+            }
+            if (hotKeys.remove(key) != null) {
+                log.info("热点key已冷却:{}，估计每秒访问{}次", key, Math.round(qps));
+                cooledListeners.forEach(listener -> listener.accept(key));
+            }
+        }
+    }
+
+    // 整个窗口内的估计访问量换算为每秒访问量
+    private double estimateQps(long hash) {
+        long count = 0;
+        for (CountMinSketch bucket : buckets) {
+            count += bucket.estimate(hash);
+        }
+        return count / sampleRate * 1000 / (bucketMillis * buckets.length);
+    }
+}
@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁，同一线程可重入，必须由加锁的线程解锁
+ */
+public interface ILock {
+
+    /**
+     * 尝试获取锁，不等待
+     * @return true代表获取锁成功; false代表获取锁失败
+     */
+    boolean tryLock();
+
+    /**
+     * 尝试获取锁，锁被其他人持有时最多等待 waitTime
+     * @return true代表获取锁成功; false代表等待超时
+     */
+    boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 释放锁，重入几次就需要释放几次
+     * @throws IllegalMonitorStateException 锁不是当前线程持有（或已经过期）
+     */
+    void unlock();
+
+    boolean isHeldByCurrentThread();
+}
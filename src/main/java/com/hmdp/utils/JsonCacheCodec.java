@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSON;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Hutool JSON 编码，可以直接在 redis-cli 中查看，用于排查问题：hmdp.cache.codec=json。数组编码为 JSON 数组，按元素类型解码
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "json")
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] data, Class<R> type) {
+        return fromJson(new String(data, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime, long rebuildMillis) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        redisData.setRebuildMillis(rebuildMillis > 0 ? rebuildMillis : null);
+        return encode(redisData);
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] data, Class<R> type) {
+        RedisData redisData = JSONUtil.toBean(parse(data), RedisData.class);
+        redisData.setData(toBean(redisData.getData(), type));
+        return redisData;
+    }
+
+    @Override
+    public LocalDateTime decodeExpireTime(byte[] data) {
+        return JSONUtil.toBean(parse(data), RedisData.class).getExpireTime();
+    }
+
+    /**
+     * 解码 JSON 对象或数组
+     */
+    static <R> R fromJson(String json, Class<R> type) {
+        JSON parsed;
+        try {
+            parsed = JSONUtil.parse(json);
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("缓存数据不是JSON", e);
+        }
+        return toBean(parsed, type);
+    }
+
+    private static <R> R toBean(Object json, Class<R> type) {
+        if (json instanceof JSONObject) {
+            return JSONUtil.toBean((JSONObject) json, type);
+        }
+        if (!(json instanceof JSONArray)) {
+            return null;
+        }
+        if (!type.isArray()) {
+            throw new IllegalStateException("缓存数据是数组，无法解码为 " + type.getSimpleName());
+        }
+        List<?> elements = ((JSONArray) json).toList(type.getComponentType());
+        Object array = Array.newInstance(type.getComponentType(), elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+            Array.set(array, i, elements.get(i));
+        }
+        return type.cast(array);
+    }
+
+    private static JSONObject parse(byte[] data) {
+        try {
+            return JSONUtil.parseObj(new String(data, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("缓存数据不是JSON", e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地令牌桶，无锁实现。
+ * <p>
+ * 不保存令牌数，而是保存“桶被清空的理论时间”（GCRA）：每拿一个令牌该时间后移 1/rate 秒，
+ * 只要它比当前时间超前不到 burst 个令牌的时长就放行，一次 CAS 完成判断和扣减。
+ */
+public class LocalTokenBucket {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param permitsPerSecond 每秒生成的令牌数
+     * @param burst 桶容量，即允许的突发请求数
+     */
+    public LocalTokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond 和 burst 必须大于0");
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstNanos = intervalNanos * burst;
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrival.get();
+            long next = Math.max(tat == Long.MIN_VALUE ? now : tat, now) + intervalNanos;
+            if (next - now > burstNanos) {
+                // 桶已空，不修改状态直接拒绝
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 预约 permits 个令牌，阻塞到桶中积累了足够的令牌为止，用于给后台任务限速
+     */
+    public void acquire(int permits) throws InterruptedException {
+        long cost = intervalNanos * permits;
+        while (true) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrival.get();
+            long next = Math.max(tat == Long.MIN_VALUE ? now : tat, now) + cost;
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                long waitNanos = next - now - burstNanos;
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * 当前节点的名称，用作消息队列的消费者名、节点私有 key 的后缀等，需要在重启前后保持不变
+ */
+@Component
+public class NodeIdentity {
+
+    private final String name;
+
+    public NodeIdentity(@Value("${hmdp.node-name:}") String name) {
+        this.name = StrUtil.isBlank(name) ? hostName() : name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "node1";
+        }
+    }
+}
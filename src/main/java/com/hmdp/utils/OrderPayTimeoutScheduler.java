@@ -0,0 +1,236 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 未支付订单的超时取消。
+ * <p>
+ * 支付截止时间保存在本节点的分层时间轮中，登记是 O(1) 的；同时写入 Redis 有序集合
+ * order:pay:deadline:{节点名}（score 为截止时间），重启后从中恢复。时间轮每秒推进一次，
+ * 到期的订单分批取消，取消时会检查订单是否仍未支付。
+ * <p>
+ * 截止时间由订单id中的生成时间计算，并且只在第一次登记时写入（ZADD NX），pending-list 重放不会推迟截止时间。
+ * 每个节点定期刷新心跳 order:pay:heartbeat:{节点名}；心跳过期的节点（例如改名后不再回来）留下的有序集合
+ * 由其他节点接管（见 order_pay_takeover.lua），其中的订单照常超时取消。
+ */
+@Slf4j
+@Component
+public class OrderPayTimeoutScheduler {
+
+    private static final long TICK_MILLIS = 1000;
+    /**
+     * 取消失败后重试的间隔
+     */
+    private static final long RETRY_MILLIS = 10_000;
+    private static final int LOAD_PAGE_SIZE = 10_000;
+    /**
+     * 刷新心跳、检查其他节点心跳的间隔，需要明显小于心跳的过期时间
+     */
+    private static final long HEARTBEAT_MILLIS = 10_000;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> TAKEOVER_SCRIPT;
+
+    static {
+        TAKEOVER_SCRIPT = new DefaultRedisScript<>();
+        TAKEOVER_SCRIPT.setLocation(new ClassPathResource("order_pay_takeover.lua"));
+        TAKEOVER_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private NodeIdentity nodeIdentity;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Lazy
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Value("${hmdp.seckill.order.pay-timeout-minutes:15}")
+    private long payTimeoutMinutes;
+
+    @Value("${hmdp.seckill.order.cancel-batch-size:500}")
+    private int cancelBatchSize;
+
+    private String deadlineKey;
+    private String heartbeatKey;
+
+    private final TimingWheel wheel = new TimingWheel(TICK_MILLIS, System.currentTimeMillis());
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "order-pay-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    private void init() {
+        deadlineKey = ORDER_PAY_DEADLINE_KEY + nodeIdentity.getName();
+        heartbeatKey = ORDER_PAY_HEARTBEAT_KEY + nodeIdentity.getName();
+        heartbeat();
+        load();
+        ticker.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * 登记一批新订单的支付截止时间：订单生成时间 + pay-timeout-minutes，重复登记不会推迟
+     */
+    public void schedule(List<VoucherOrder> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        long timeout = TimeUnit.MINUTES.toMillis(payTimeoutMinutes);
+        long[] deadlines = new long[orders.size()];
+        // 1.先持久化到Redis，一条 ZADD NX 写入整批，已经登记过的保留原来的截止时间
+        List<byte[]> args = new ArrayList<>(orders.size() * 2 + 2);
+        args.add(bytes(deadlineKey));
+        args.add(bytes("NX"));
+        for (int i = 0; i < orders.size(); i++) {
+            Long id = orders.get(i).getId();
+            deadlines[i] = redisIdWorker.epochMillis(id) + timeout;
+            args.add(bytes(String.valueOf(deadlines[i])));
+            args.add(bytes(id.toString()));
+        }
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("ZADD", args.toArray(new byte[0][])));
+        // 2.再放入时间轮，重放时同一个订单的截止时间相同，到期后取消一次即可
+        synchronized (wheel) {
+            for (int i = 0; i < orders.size(); i++) {
+                wheel.add(orders.get(i).getId(), deadlines[i]);
+            }
+        }
+    }
+
+    public int pendingCount() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    // 重启后从Redis恢复，分页读取避免一次返回过多数据
+    private void load() {
+        int loaded = 0;
+        long start = 0;
+        while (true) {
+            Set<ZSetOperations.TypedTuple<String>> page = stringRedisTemplate.opsForZSet()
+                    .rangeWithScores(deadlineKey, start, start + LOAD_PAGE_SIZE - 1);
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+            synchronized (wheel) {
+                for (ZSetOperations.TypedTuple<String> tuple : page) {
+                    wheel.add(Long.parseLong(tuple.getValue()), tuple.getScore().longValue());
+                }
+            }
+            loaded += page.size();
+            start += LOAD_PAGE_SIZE;
+        }
+        log.info("恢复待支付订单超时任务 {} 个", loaded);
+    }
+
+    // 刷新本节点的心跳，并接管心跳已经过期的节点
+    private void heartbeat() {
+        try {
+            stringRedisTemplate.opsForValue().set(heartbeatKey, "1", ORDER_PAY_HEARTBEAT_TTL, TimeUnit.SECONDS);
+            stringRedisTemplate.opsForSet().add(ORDER_PAY_NODES_KEY, nodeIdentity.getName());
+            Set<String> nodes = stringRedisTemplate.opsForSet().members(ORDER_PAY_NODES_KEY);
+            if (nodes == null) {
+                return;
+            }
+            for (String node : nodes) {
+                if (!node.equals(nodeIdentity.getName())) {
+                    takeOver(node);
+                }
+            }
+        } catch (Exception e) {
+            log.error("刷新支付超时任务的节点心跳失败", e);
+        }
+    }
+
+    private void takeOver(String node) {
+        List<?> entries = stringRedisTemplate.execute(TAKEOVER_SCRIPT,
+                Arrays.asList(ORDER_PAY_NODES_KEY, ORDER_PAY_HEARTBEAT_KEY + node, ORDER_PAY_DEADLINE_KEY + node, deadlineKey),
+                node);
+        if (entries == null || entries.isEmpty()) {
+            return;
+        }
+        // 结果依次是订单id和截止时间
+        synchronized (wheel) {
+            for (int i = 0; i + 1 < entries.size(); i += 2) {
+                wheel.add(Long.parseLong((String) entries.get(i)), (long) Double.parseDouble((String) entries.get(i + 1)));
+            }
+        }
+        log.warn("节点 {} 的心跳已过期，接管其待支付订单超时任务 {} 个", node, entries.size() / 2);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void tick() {
+        TimingWheel.LongList expired;
+        synchronized (wheel) {
+            expired = wheel.advance(System.currentTimeMillis());
+        }
+        for (int from = 0; from < expired.size(); from += cancelBatchSize) {
+            int to = Math.min(from + cancelBatchSize, expired.size());
+            List<Long> ids = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                ids.add(expired.get(i));
+            }
+            cancel(ids);
+        }
+    }
+
+    private void cancel(List<Long> ids) {
+        try {
+            List<VoucherOrder> cancelled = voucherOrderService.cancelUnpaidOrders(ids);
+            stringRedisTemplate.opsForZSet().remove(deadlineKey, ids.stream().map(String::valueOf).toArray());
+            if (!cancelled.isEmpty()) {
+                log.debug("取消超时未支付订单 {} 个", cancelled.size());
+            }
+        } catch (Exception e) {
+            log.error("取消超时订单失败，{} 个订单稍后重试", ids.size(), e);
+            long retryAt = System.currentTimeMillis() + RETRY_MILLIS;
+            synchronized (wheel) {
+                for (Long id : ids) {
+                    wheel.add(id, retryAt);
+                }
+            }
+        }
+    }
+}
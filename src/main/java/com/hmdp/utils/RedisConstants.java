@@ -8,15 +8,50 @@ public class RedisConstants {
 
     public static final Long CACHE_NULL_TTL = 2L;
 
-    public static final Long CACHE_SHOP_TTL = 30L;
+    public static final long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop-hash:";
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type:catalog";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop-type:version";
+    public static final String CACHE_SHOP_TYPE_CHANNEL = "cache:shop-type:published";
+
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:shop-voucher:";
+    public static final long CACHE_SHOP_VOUCHER_TTL = 1L;
+
+    public static final String CACHE_WARM_UP_KEY = "warmup:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_VERSION_KEY = "cache:version:";
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String BLOOM_VOUCHER_KEY = "bloom:voucher";
+    public static final String BLOOM_ADDED_CHANNEL = "bloom:added";
+    public static final String CACHE_LOCK_KEY = "lock:";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_RELEASED_CHANNEL = "lock:released";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_WARM_KEY = "seckill:warm:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DEAD_LETTER_KEY = "stream.orders.dlq";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String ORDER_PAY_DEADLINE_KEY = "order:pay:deadline:";
+    public static final String ORDER_PAY_NODES_KEY = "order:pay:nodes";
+    public static final String ORDER_PAY_HEARTBEAT_KEY = "order:pay:heartbeat:";
+    public static final Long ORDER_PAY_HEARTBEAT_TTL = 30L;
+    public static final String RATE_LIMIT_USER_KEY = "limit:seckill:user:";
+    public static final String RATE_LIMIT_VOUCHER_KEY = "limit:seckill:voucher:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String ID_INCR_KEY = "icr:";
 }
@@ -8,4 +8,8 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    /**
+     * 写入时查询数据库的耗时（毫秒），用于提前刷新，没有记录时为 null
+     */
+    private Long rebuildMillis;
 }
@@ -0,0 +1,234 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局唯一ID生成器：符号位(1) + 时间戳(31) + 当天序列号(32)
+ * <p>
+ * 序列号由 Redis 按天自增，但每个节点一次 INCRBY 预取 step 个号段，
+ * 生成ID通常只是一次本地原子自增；号段剩余不足 {@link #PREFETCH_RATIO} 时异步预取下一个号段。
+ * 生成后确定没有使用的ID可以通过 {@link #recycle} 归还，同一秒内优先复用，避免被拒绝的请求消耗序列号。
+ */
+@Slf4j
+@Component
+public class RedisIdWorker {
+    /**
+     * 开始时间戳 2022-01-01 00:00:00
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    /**
+     * 序列号的位数
+     */
+    private static final int COUNT_BITS = 32;
+    /**
+     * 序列号上限，一天内超过后无法再生成唯一ID
+     */
+    private static final long MAX_COUNT = (1L << COUNT_BITS) - 1;
+    /**
+     * 当前号段剩余比例低于该值时预取下一个号段
+     */
+    private static final double PREFETCH_RATIO = 0.2;
+    /**
+     * 每个前缀最多暂存的归还ID
+     */
+    private static final int RECYCLE_CAPACITY = 1024;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 每次从 Redis 预取的号段长度
+     */
+    private final long step;
+
+    private final ZoneId zoneId = ZoneId.systemDefault();
+
+    private final ConcurrentMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "id-segment-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id-worker.step:10000}") long step) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.step = step;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    public long nextId(String keyPrefix) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            long nowMillis = System.currentTimeMillis();
+            Segment segment = buffer.current;
+            // 0.优先复用同一秒内归还的ID，时间戳仍然准确
+            if (segment != null && segment.contains(nowMillis)) {
+                Long recycled = pollRecycled(buffer, segment.timestamp(nowMillis));
+                if (recycled != null) {
+                    return recycled;
+                }
+            }
+            // 1.号段属于今天，本地自增即可
+            if (segment != null && segment.contains(nowMillis)) {
+                long count = segment.next.getAndIncrement();
+                if (count <= segment.max) {
+                    if (segment.max - count == segment.prefetchAt) {
+                        prefetch(buffer, segment);
+                    }
+                    // 2.拼接并返回
+                    return segment.timestamp(nowMillis) << COUNT_BITS | count;
+                }
+            }
+            // 3.号段用完或者跨天，切换号段
+            switchSegment(buffer, segment, nowMillis);
+        }
+    }
+
+    /**
+     * 归还生成后没有使用的ID（例如请求被拒绝，ID 没有写入任何地方），调用方保证不会再使用它
+     */
+    public void recycle(String keyPrefix, long id) {
+        SegmentBuffer buffer = buffers.get(keyPrefix);
+        if (buffer != null) {
+            // 暂存已满时直接丢弃
+            buffer.recycled.offer(id);
+        }
+    }
+
+    private static Long pollRecycled(SegmentBuffer buffer, long timestamp) {
+        Long id;
+        while ((id = buffer.recycled.poll()) != null) {
+            if (id >>> COUNT_BITS == timestamp) {
+                return id;
+            }
+            // 不是这一秒归还的，丢弃
+        }
+        return null;
+    }
+
+    /**
+     * ID 的生成时间（毫秒，精确到秒）
+     */
+    public long epochMillis(long id) {
+        // 时间戳按本地时间计算，先还原本地时间再换算成毫秒
+        LocalDateTime local = LocalDateTime.ofEpochSecond((id >>> COUNT_BITS) + BEGIN_TIMESTAMP, 0, ZoneOffset.UTC);
+        return local.atZone(zoneId).toInstant().toEpochMilli();
+    }
+
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, long nowMillis) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                // 其他线程已经切换过
+                return;
+            }
+            Segment next = buffer.next;
+            buffer.next = null;
+            if (next == null || !next.contains(nowMillis)) {
+                next = loadSegment(buffer.keyPrefix, nowMillis);
+            }
+            buffer.current = next;
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, Segment segment) {
+        if (!buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        prefetchExecutor.execute(() -> {
+            try {
+                Segment next = loadSegment(buffer.keyPrefix, System.currentTimeMillis());
+                synchronized (buffer) {
+                    if (buffer.current == segment) {
+                        buffer.next = next;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("预取ID号段失败，keyPrefix:{}", buffer.keyPrefix, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    private Segment loadSegment(String keyPrefix, long nowMillis) {
+        // 1.获取当前日期，精确到天（按天分key，既方便统计，也避免单个key自增超过32位上限）
+        LocalDate date = Instant.ofEpochMilli(nowMillis).atZone(zoneId).toLocalDate();
+        // 2.一次自增 step，得到号段 [max - step + 1, max]
+        Long max = stringRedisTemplate.opsForValue()
+                .increment(RedisConstants.ID_INCR_KEY + keyPrefix + ":" + date.format(DATE_FORMATTER), step);
+        if (max == null || max > MAX_COUNT) {
+            throw new IllegalStateException("ID序列号已用尽，keyPrefix:" + keyPrefix + "，date:" + date);
+        }
+        return new Segment(date, zoneId, max - step + 1, max, (long) (step * PREFETCH_RATIO));
+    }
+
+    private static class SegmentBuffer {
+        private final String keyPrefix;
+        private final AtomicBoolean loading = new AtomicBoolean();
+        private final Queue<Long> recycled = new ArrayBlockingQueue<>(RECYCLE_CAPACITY);
+        private volatile Segment current;
+        private Segment next;
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+
+    private static class Segment {
+        /**
+         * 号段所属日期的起止时间（毫秒，左闭右开）
+         */
+        private final long dayStartMillis;
+        private final long dayEndMillis;
+        /**
+         * 本地时区相对 UTC 的偏移，时间戳按本地时间计算
+         */
+        private final long offsetSeconds;
+        private final AtomicLong next;
+        private final long max;
+        private final long prefetchAt;
+
+        Segment(LocalDate date, ZoneId zoneId, long min, long max, long prefetchAt) {
+            this.dayStartMillis = date.atStartOfDay(zoneId).toInstant().toEpochMilli();
+            this.dayEndMillis = date.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli();
+            this.offsetSeconds = zoneId.getRules().getOffset(Instant.ofEpochMilli(dayStartMillis)).getTotalSeconds();
+            this.next = new AtomicLong(min);
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+        }
+
+        boolean contains(long nowMillis) {
+            return nowMillis >= dayStartMillis && nowMillis < dayEndMillis;
+        }
+
+        long timestamp(long nowMillis) {
+            return nowMillis / 1000 + offsetSeconds - BEGIN_TIMESTAMP;
+        }
+    }
+}
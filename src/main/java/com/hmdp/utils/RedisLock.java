@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Redis hash 的可重入锁，由 {@link RedisLockClient#getLock(String)} 创建。
+ * <p>
+ * 持有期间由看门狗续期；等待锁时订阅释放通知，锁释放后立即重试，而不是轮询。
+ */
+public class RedisLock implements ILock {
+
+    /**
+     * 锁的剩余租期未知时，两次重试之间的最长等待
+     */
+    private static final long UNKNOWN_TTL_WAIT_MILLIS = 100;
+
+    private final RedisLockClient client;
+    private final String key;
+
+    RedisLock(RedisLockClient client, String key) {
+        this.client = client;
+        this.key = key;
+    }
+
+    @Override
+    public boolean tryLock() {
+        return client.tryAcquire(key) == null;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        if (client.tryAcquire(key) == null) {
+            return true;
+        }
+        // 先登记等待，再重试获取锁，避免错过两者之间的释放通知
+        Semaphore released = client.subscribe(key);
+        try {
+            while (true) {
+                released.drainPermits();
+                Long ttl = client.tryAcquire(key);
+                if (ttl == null) {
+                    return true;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                // 等待释放通知，最多等到持有者的租期结束（持有者宕机时不会有通知）
+                long ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl > 0 ? ttl : UNKNOWN_TTL_WAIT_MILLIS);
+                released.tryAcquire(Math.min(remaining, ttlNanos), TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            client.unsubscribe(key, released);
+        }
+    }
+
+    @Override
+    public void unlock() {
+        client.release(key);
+    }
+
+    @Override
+    public boolean isHeldByCurrentThread() {
+        return client.isHeldByCurrentThread(key);
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
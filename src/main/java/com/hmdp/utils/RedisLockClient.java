@@ -0,0 +1,216 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASED_CHANNEL;
+
+/**
+ * 分布式可重入锁的工厂，以及所有锁共用的看门狗和释放通知。
+ * <p>
+ * 锁是一个 hash：field 为持有者（节点id:线程id），value 为重入次数。加锁、解锁、续期都由 Lua 脚本完成，
+ * 解锁时比较持有者，不会删除其他人的锁。持有期间看门狗每 1/3 租期续期一次，持有线程结束或节点宕机后不再续期，
+ * 锁在租期后自动释放。完全释放时向 lock:released 发布锁key，等待该锁的线程收到通知后立即重试。
+ */
+@Slf4j
+@Component
+public class RedisLockClient implements MessageListener {
+
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final long leaseMillis;
+
+    /**
+     * 本节点的标识，与线程id一起组成锁的持有者
+     */
+    private final String nodeId = IdUtil.simpleUUID();
+
+    /**
+     * 持有者|锁key -> 看门狗续期任务
+     */
+    private final ConcurrentMap<String, Renewal> renewals = new ConcurrentHashMap<>();
+
+    /**
+     * 锁key -> 正在等待该锁的线程，每个线程一个信号量
+     */
+    private final ConcurrentMap<String, Set<Semaphore>> waiters = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lock-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RedisLockClient(StringRedisTemplate stringRedisTemplate,
+                           RedisMessageListenerContainer listenerContainer,
+                           @Value("${hmdp.lock.lease-millis:30000}") long leaseMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.leaseMillis = leaseMillis;
+    }
+
+    @PostConstruct
+    void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(LOCK_RELEASED_CHANNEL));
+    }
+
+    @PreDestroy
+    void destroy() {
+        watchdog.shutdownNow();
+    }
+
+    public ILock getLock(String key) {
+        return new RedisLock(this, key);
+    }
+
+    /**
+     * 尝试加锁
+     * @return null代表加锁成功，否则是锁的剩余租期（毫秒）
+     */
+    Long tryAcquire(String key) {
+        String owner = currentOwner();
+        Long ttl = stringRedisTemplate.execute(LOCK_SCRIPT, Collections.singletonList(key),
+                owner, String.valueOf(leaseMillis));
+        if (ttl == null) {
+            startRenewal(key, owner);
+        }
+        return ttl;
+    }
+
+    void release(String key) {
+        String owner = currentOwner();
+        Long result = stringRedisTemplate.execute(UNLOCK_SCRIPT, Arrays.asList(key, LOCK_RELEASED_CHANNEL),
+                owner, String.valueOf(leaseMillis));
+        if (result == null || result == 0) {
+            // 重入次数还没有减为0，继续持有
+            return;
+        }
+        stopRenewal(key, owner);
+        if (result < 0) {
+            throw new IllegalMonitorStateException("锁已过期或不是当前线程持有，key:" + key);
+        }
+    }
+
+    boolean isHeldByCurrentThread(String key) {
+        return stringRedisTemplate.opsForHash().hasKey(key, currentOwner());
+    }
+
+    Semaphore subscribe(String key) {
+        Semaphore released = new Semaphore(0);
+        waiters.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(released);
+        return released;
+    }
+
+    void unsubscribe(String key, Semaphore released) {
+        waiters.computeIfPresent(key, (k, set) -> {
+            set.remove(released);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        Set<Semaphore> set = waiters.get(key);
+        if (set != null) {
+            set.forEach(Semaphore::release);
+        }
+    }
+
+    private String currentOwner() {
+        return nodeId + ":" + Thread.currentThread().getId();
+    }
+
+    private void startRenewal(String key, String owner) {
+        // 重入时已经有续期任务
+        renewals.computeIfAbsent(owner + "|" + key, k -> {
+            Renewal renewal = new Renewal(Thread.currentThread());
+            long period = Math.max(leaseMillis / 3, 1);
+            renewal.task = watchdog.scheduleAtFixedRate(() -> renew(key, owner, renewal),
+                    period, period, TimeUnit.MILLISECONDS);
+            return renewal;
+        });
+    }
+
+    private void stopRenewal(String key, String owner) {
+        Renewal renewal = renewals.remove(owner + "|" + key);
+        if (renewal != null && renewal.task != null) {
+            renewal.task.cancel(false);
+        }
+    }
+
+    // 只取消这一次持有的续期任务，不影响同一持有者之后重新加锁创建的任务
+    private void cancel(String key, String owner, Renewal renewal) {
+        if (renewals.remove(owner + "|" + key, renewal)) {
+            renewal.task.cancel(false);
+        }
+    }
+
+    private void renew(String key, String owner, Renewal renewal) {
+        // 持有线程已经结束却没有解锁，停止续期，锁在租期后自动释放
+        if (!renewal.holder.isAlive()) {
+            log.warn("持有锁的线程已结束但未解锁，停止续期，key:{}", key);
+            cancel(key, owner, renewal);
+            return;
+        }
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key),
+                    owner, String.valueOf(leaseMillis));
+            if (renewed == null || renewed == 0) {
+                log.warn("锁已不再由本线程持有，停止续期，key:{}", key);
+                cancel(key, owner, renewal);
+            }
+        } catch (Exception e) {
+            // 续期失败时保留任务，下一个周期重试
+            log.warn("锁续期失败，key:{}", key, e);
+        }
+    }
+
+    private static final class Renewal {
+        private final Thread holder;
+        private volatile ScheduledFuture<?> task;
+
+        private Renewal(Thread holder) {
+            this.holder = holder;
+        }
+    }
+}
@@ -14,9 +14,11 @@ import java.util.concurrent.TimeUnit;
 public class RefreshTokenIntercepter implements HandlerInterceptor {
 
     private StringRedisTemplate stringRedisTemplate;
+    private CacheMetrics cacheMetrics;
 
-    public RefreshTokenIntercepter(StringRedisTemplate stringRedisTemplate) {
+    public RefreshTokenIntercepter(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheMetrics = cacheMetrics;
     }
 
 
@@ -31,7 +33,10 @@ public class RefreshTokenIntercepter implements HandlerInterceptor {
         // 3. 有 token → 拼接 Redis 中的 key
         String key = RedisConstants.LOGIN_USER_KEY + token;
         // 4. 从 Redis 查询该 token 对应的用户 Hash 数据
+        long start = System.nanoTime();
         Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        cacheMetrics.record(RedisConstants.LOGIN_USER_KEY, userMap.isEmpty() ? CacheMetrics.MISS : CacheMetrics.HIT);
+        cacheMetrics.recordLatency(RedisConstants.LOGIN_USER_KEY, start);
         // 5. 判断用户是否存在（Hash 是否为空）
         if(userMap.isEmpty()){
             // 不存在 → token 无效或已过期 → 不刷新，直接放行（后面 LoginInterceptor 会返回 401）
@@ -0,0 +1,315 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.Result;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 渲染好的响应缓存：保存 Result 序列化后的 JSON 字节（以及 gzip 压缩后的字节），命中时直接写入 servlet 输出流，
+ * 不再经过 {@link CacheClient} 解码、组装 Result 和 Jackson 序列化。
+ * <p>
+ * 缓存的 key 与实体在 {@link CacheClient} 中的 key 相同（例如 cache:shop:1），只保存在本节点内存中，
+ * 实体缓存失效时（{@link CacheClient#delete(String)} 或收到失效广播）同一个 key 的响应随之失效，不需要另外删除；
+ * 条目另有与 L1 相同的最长存活时间，兜底错过的失效消息。只缓存成功的响应。
+ * 响应体不小于 gzip-min-bytes 时另外保存 gzip 压缩的版本，请求的 Accept-Encoding 接受 gzip 时返回压缩的版本。
+ * 命中次数记录在 hmdp.response.cache 指标中（标签 cache、result）。
+ * <p>
+ * 成功的响应带有弱 ETag，由 key 的版本号（{@link CacheClient#version(String)}，每次 {@link CacheClient#delete(String)} 加一）
+ * 得到，各节点相同。版本号缓存在本节点内存中，随实体缓存一起失效；请求先比较版本号，If-None-Match 相同时直接返回 304，
+ * 不调用 loader 也不序列化，与是否开启响应缓存无关。缓存的响应也只在版本号相同时使用。
+ * 返回 304 的次数和省下的响应体字节数（有缓存的响应时才知道）记录在 hmdp.response.not-modified、
+ * hmdp.response.saved.bytes 指标中（标签 cache）。响应带有 Cache-Control: no-cache，客户端每次使用前都带上 ETag 重新验证。
+ */
+@Component
+public class ResponseCache {
+
+    public static final String HIT = "hit";
+    public static final String MISS = "miss";
+    /**
+     * 未开启或者响应不成功，没有缓存
+     */
+    public static final String BYPASS = "bypass";
+
+    private final CacheClient cacheClient;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int gzipMinBytes;
+
+    private final Cache<String, Rendered> cache;
+    /**
+     * key -> 版本号，Caffeine 的 get 与同一个 key 的 invalidate 互斥，读取期间发生的失效不会被覆盖
+     */
+    private final Cache<String, Long> versions;
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> notModified = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> savedBytes = new ConcurrentHashMap<>();
+
+    public ResponseCache(CacheClient cacheClient, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                         @Value("${hmdp.cache.response.enabled:true}") boolean enabled,
+                         @Value("${hmdp.cache.response.maximum-size:10000}") long maximumSize,
+                         @Value("${hmdp.cache.l1.expire-seconds:60}") long expireSeconds,
+                         @Value("${hmdp.cache.response.gzip-min-bytes:1024}") int gzipMinBytes) {
+        this.cacheClient = cacheClient;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.gzipMinBytes = gzipMinBytes;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "response");
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @PostConstruct
+    void init() {
+        cacheClient.onEvict(this::evict);
+    }
+
+    /**
+     * 写入 keyPrefix + id 的响应，没有缓存时调用 loader 生成。If-None-Match 与 ETag 相同时返回 304
+     * @param keyPrefix 实体缓存的 key 前缀，同时作为指标的 cache 标签
+     * @return 是否没有调用 loader（命中缓存或者返回了 304）
+     */
+    public boolean write(String keyPrefix, Object id, HttpServletRequest request, HttpServletResponse response,
+                         Supplier<Result> loader) throws IOException {
+        return write(keyPrefix, id, 0, request, response, loader);
+    }
+
+    /**
+     * 同 {@link #write(String, Object, HttpServletRequest, HttpServletResponse, Supplier)}，
+     * 用于数据不经过 {@link CacheClient#delete(String)} 也会变化的 key（例如带有秒杀库存的优惠券列表）
+     * @param refreshSeconds 大于0时 ETag 每隔这么多秒变化一次，客户端的副本最多延迟这么久
+     */
+    public boolean write(String keyPrefix, Object id, long refreshSeconds, HttpServletRequest request,
+                         HttpServletResponse response, Supplier<Result> loader) throws IOException {
+        String key = keyPrefix + id;
+        //1.调用 loader 之前取版本号：之后的修改会把版本号加一，不会用旧的版本号标记新数据
+        String etag = etag(versions.get(key, cacheClient::version), refreshSeconds);
+        //2.命中并且版本相同，直接写入
+        Rendered entry = enabled ? cache.getIfPresent(key) : null;
+        if (entry != null && etag.equals(entry.etag)) {
+            record(keyPrefix, HIT);
+            write(keyPrefix, request, response, entry);
+            return true;
+        }
+        //3.客户端的副本与当前版本相同，返回 304，不调用 loader；* 要求资源存在，交给下面生成后判断
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag, false)) {
+            notModified(keyPrefix, response, etag, 0);
+            return true;
+        }
+        //4.生成并渲染，成功的响应带上 ETag 并写入缓存
+        Result result = loader.get();
+        boolean success = Boolean.TRUE.equals(result.getSuccess());
+        entry = render(result, success ? etag : null);
+        if (enabled && success) {
+            record(keyPrefix, MISS);
+            cache.put(key, entry);
+        } else {
+            record(keyPrefix, BYPASS);
+        }
+        write(keyPrefix, request, response, entry);
+        return false;
+    }
+
+    /**
+     * 不缓存，直接渲染并写入
+     */
+    public void write(HttpServletRequest request, HttpServletResponse response, Result result) throws IOException {
+        write(null, request, response, render(result, null));
+    }
+
+    /**
+     * 渲染 ETag 为 version 的响应，由调用方保存，之后用 {@link #write(String, HttpServletRequest, HttpServletResponse, Rendered)} 写入
+     */
+    public Rendered render(Result result, long version) throws IOException {
+        return render(result, etag(version, 0));
+    }
+
+    private void evict(String key) {
+        versions.invalidate(key);
+        cache.invalidate(key);
+    }
+
+    // 压缩前后是同一份数据，使用弱 ETag
+    private static String etag(long version, long refreshSeconds) {
+        if (refreshSeconds <= 0) {
+            return "W/\"" + version + '"';
+        }
+        return "W/\"" + version + '.' + System.currentTimeMillis() / 1000 / refreshSeconds + '"';
+    }
+
+    /**
+     * @param etag 不缓存的响应为 null
+     */
+    private Rendered render(Result result, String etag) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(result);
+        if (json.length < gzipMinBytes) {
+            return new Rendered(json, null, etag);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        }
+        byte[] gzipped = out.toByteArray();
+        // 压缩后没有变小的不保存
+        return new Rendered(json, gzipped.length < json.length ? gzipped : null, etag);
+    }
+
+    /**
+     * 写入渲染好的响应，If-None-Match 与 ETag 相同时返回 304
+     * @param keyPrefix 指标的 cache 标签
+     */
+    public void write(String keyPrefix, HttpServletRequest request, HttpServletResponse response, Rendered entry)
+            throws IOException {
+        byte[] body = entry.json;
+        boolean gzip = entry.gzip != null && acceptsGzip(request);
+        if (entry.gzip != null) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (gzip) {
+            body = entry.gzip;
+        }
+        if (entry.etag != null) {
+            setEtag(response, entry.etag);
+            //客户端的副本没有变化，只返回 304
+            if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), entry.etag)) {
+                notModified(keyPrefix, response, entry.etag, body.length);
+                return;
+            }
+        }
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static void setEtag(HttpServletResponse response, String etag) {
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+    }
+
+    /**
+     * @param bytes 省下的响应体字节数，没有渲染时为0
+     */
+    private void notModified(String keyPrefix, HttpServletResponse response, String etag, int bytes) {
+        setEtag(response, etag);
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        recordNotModified(keyPrefix, bytes);
+    }
+
+    static boolean matches(String ifNoneMatch, String etag) {
+        return matches(ifNoneMatch, etag, true);
+    }
+
+    // If-None-Match 中有 *（wildcard 为 true 时）或者与 etag 弱比较相同（忽略 W/ 前缀）
+    private static boolean matches(String ifNoneMatch, String etag, boolean wildcard) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (wildcard && "*".equals(tag) || opaque.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Accept-Encoding 中有 gzip 或 *，并且 q 不为 0
+    static boolean acceptsGzip(HttpServletRequest request) {
+        Enumeration<String> headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        while (headers != null && headers.hasMoreElements()) {
+            for (String coding : headers.nextElement().split(",")) {
+                String[] parts = coding.split(";");
+                String name = parts[0].trim();
+                if (!"gzip".equalsIgnoreCase(name) && !"*".equals(name)) {
+                    continue;
+                }
+                if (parts.length == 1) {
+                    return true;
+                }
+                String q = parts[1].trim();
+                if (!q.startsWith("q=")) {
+                    return true;
+                }
+                try {
+                    return Double.parseDouble(q.substring(2)) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void record(String cache, String result) {
+        counters.computeIfAbsent(cache + '|' + result, k -> Counter.builder("hmdp.response.cache")
+                .description("按key前缀统计的响应缓存命中情况")
+                .tag("cache", cache)
+                .tag("result", result)
+                .register(meterRegistry)).increment();
+    }
+
+    private void recordNotModified(String cache, int bytes) {
+        notModified.computeIfAbsent(cache, k -> Counter.builder("hmdp.response.not-modified")
+                .description("If-None-Match 命中，返回 304 的次数")
+                .tag("cache", cache)
+                .register(meterRegistry)).increment();
+        savedBytes.computeIfAbsent(cache, k -> Counter.builder("hmdp.response.saved.bytes")
+                .description("返回 304 省下的响应体字节数（按客户端接受的编码计算）")
+                .baseUnit("bytes")
+                .tag("cache", cache)
+                .register(meterRegistry)).increment(bytes);
+    }
+
+    /**
+     * 渲染好的响应，不可变
+     */
+    public static final class Rendered {
+        private final byte[] json;
+        /**
+         * 没有压缩的版本时为 null
+         */
+        private final byte[] gzip;
+        /**
+         * 不缓存的响应为 null
+         */
+        private final String etag;
+
+        private Rendered(byte[] json, byte[] gzip, String etag) {
+            this.json = json;
+            this.gzip = gzip;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 本节点内存中的可扩展布隆过滤器，布局与 bloom_add.lua 相同。
+ * <p>
+ * 由若干个子过滤器组成：子过滤器 i 的容量为 capacity * 2^i，哈希函数个数为 hashes + i（误判率逐个减半），
+ * 最后一个子过滤器满了再新建一个，所以元素个数超出预估时总的误判率仍然有上限。
+ * 位置由一次 MurmurHash 的高低32位做双重哈希得到：第 j 个位置为 (h1 + j * h2) % 位数。
+ */
+public class ScalableBloomFilter {
+
+    private final long capacity;
+    private final int hashes;
+    private final List<Filter> filters = new CopyOnWriteArrayList<>();
+
+    public ScalableBloomFilter(long capacity, int hashes) {
+        this.capacity = capacity;
+        this.hashes = hashes;
+        filters.add(new Filter(0));
+    }
+
+    /**
+     * 误判率为 fpp 时第一个子过滤器需要的哈希函数个数
+     */
+    public static int hashesFor(double fpp) {
+        return Math.max(1, (int) Math.ceil(Math.log(1 / fpp) / Math.log(2)));
+    }
+
+    /**
+     * @return id 的两个哈希值 {h1, h2}，都在 [0, 2^32) 之间
+     */
+    public static long[] hash(Object id) {
+        long h = MurmurHash.hash64(String.valueOf(id));
+        return new long[]{h & 0xFFFFFFFFL, h >>> 32};
+    }
+
+    public boolean mightContain(long[] h) {
+        for (Filter filter : filters) {
+            if (filter.contains(h)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void put(long[] h) {
+        if (mightContain(h)) {
+            return;
+        }
+        Filter last = filters.get(filters.size() - 1);
+        if (last.count >= last.n) {
+            last = new Filter(filters.size());
+            filters.add(last);
+        }
+        last.set(h);
+        last.count++;
+    }
+
+    public int filterCount() {
+        return filters.size();
+    }
+
+    public long bytes() {
+        long bytes = 0;
+        for (Filter filter : filters) {
+            bytes += filter.bits.length * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * 按各个子过滤器当前的元素个数估算的误判率：1 - ∏(1 - (1 - e^(-k*n/m))^k)
+     */
+    public double expectedFpp() {
+        double none = 1;
+        for (Filter filter : filters) {
+            none *= 1 - Math.pow(1 - Math.exp(-(double) filter.k * filter.count / filter.m), filter.k);
+        }
+        return 1 - none;
+    }
+
+    private final class Filter {
+        private final int k;
+        private final long n;
+        private final long m;
+        private final long[] bits;
+        private volatile long count;
+
+        private Filter(int i) {
+            this.k = hashes + i;
+            this.n = capacity << i;
+            // 与 bloom_add.lua 一致：每个元素占 round(k / ln2) 位
+            this.m = n * ((k * 14427L + 5000) / 10000);
+            this.bits = new long[(int) ((m + 63) >>> 6)];
+        }
+
+        private boolean contains(long[] h) {
+            for (int j = 0; j < k; j++) {
+                long offset = (h[0] + j * h[1]) % m;
+                if ((bits[(int) (offset >>> 6)] & (1L << offset)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void set(long[] h) {
+            for (int j = 0; j < k; j++) {
+                long offset = (h[0] + j * h[1]) % m;
+                bits[(int) (offset >>> 6)] |= 1L << offset;
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀券生命周期调度：开始前 warm-up-lead 秒预热库存到Redis，结束后把剩余库存写回数据库并释放key。
+ * <p>
+ * 调度只保存在内存中，启动时和每隔 rescan-millis 从数据库重新加载，所以重启或其他节点新增的秒杀券都不会遗漏；
+ * 预热和对账本身是幂等的，多个节点都调度同一张券也没有问题。
+ */
+@Slf4j
+@Component
+public class SeckillLifecycleScheduler {
+
+    /**
+     * 预热失败或对账未完成（订单还没落库）时的重试间隔
+     */
+    private static final long RETRY_MILLIS = 5000;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private TaskScheduler taskScheduler;
+
+    @Value("${hmdp.seckill.lifecycle.warm-up-lead-seconds:300}")
+    private long warmUpLeadSeconds;
+
+    @Value("${hmdp.seckill.lifecycle.rescan-millis:60000}")
+    private long rescanMillis;
+
+    /**
+     * 本节点已经调度过的秒杀券
+     */
+    private final Set<Long> scheduled = ConcurrentHashMap.newKeySet();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        // 启动时恢复所有未结束或刚结束（可能还没对账）的秒杀券，已经结束的只调度对账
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .ge("end_time", LocalDateTime.now().minusDays(1))
+                .list();
+        vouchers.forEach(this::schedule);
+        log.info("恢复秒杀券调度 {} 个", vouchers.size());
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.lifecycle.rescan-millis:60000}",
+            initialDelayString = "${hmdp.seckill.lifecycle.rescan-millis:60000}")
+    public void rescan() {
+        // 只需要关心下一次扫描之前就要预热的秒杀券
+        LocalDateTime now = LocalDateTime.now();
+        seckillVoucherService.query()
+                .le("begin_time", now.plusSeconds(warmUpLeadSeconds).plus(Duration.ofMillis(rescanMillis * 2)))
+                .ge("end_time", now)
+                .list()
+                .forEach(this::schedule);
+    }
+
+    public void schedule(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        if (!scheduled.add(voucherId)) {
+            return;
+        }
+        // 1.开始前预热，已经过了预热时间就立即预热；已经结束的不再预热
+        LocalDateTime endTime = voucher.getEndTime();
+        if (endTime.isAfter(LocalDateTime.now())) {
+            taskScheduler.schedule(() -> warmUp(voucherId, endTime),
+                    toDate(voucher.getBeginTime().minusSeconds(warmUpLeadSeconds)));
+        }
+        // 2.结束后对账
+        taskScheduler.schedule(() -> finish(voucherId), toDate(endTime));
+    }
+
+    private void warmUp(Long voucherId, LocalDateTime endTime) {
+        try {
+            seckillVoucherService.warmUp(voucherId);
+        } catch (Exception e) {
+            log.error("秒杀券预热失败，voucherId:{}", voucherId, e);
+            // 预热失败时只重试预热，对账任务已经调度，不能交给扫描重新调度（会重复对账）
+            if (endTime.isAfter(LocalDateTime.now())) {
+                taskScheduler.schedule(() -> warmUp(voucherId, endTime), new Date(System.currentTimeMillis() + RETRY_MILLIS));
+            }
+        }
+    }
+
+    private void finish(Long voucherId) {
+        boolean done = false;
+        try {
+            done = seckillVoucherService.finish(voucherId);
+        } catch (Exception e) {
+            log.error("秒杀券对账失败，voucherId:{}", voucherId, e);
+        }
+        if (done) {
+            scheduled.remove(voucherId);
+            return;
+        }
+        taskScheduler.schedule(() -> finish(voucherId), new Date(System.currentTimeMillis() + RETRY_MILLIS));
+    }
+
+    private static Date toDate(LocalDateTime time) {
+        return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
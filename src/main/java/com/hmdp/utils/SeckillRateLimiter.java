@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 秒杀接口的多级限流：
+ * <ol>
+ *     <li>节点级：本地令牌桶，桶空时直接拒绝，不访问 Redis</li>
+ *     <li>用户级：Redis 令牌桶，限制单个用户对一张券的请求频率</li>
+ *     <li>优惠券级：Redis 令牌桶，限制所有节点对同一张券的总请求量，按库存分片平分</li>
+ * </ol>
+ * 用户级和优惠券级的令牌桶和库存分片在同一个分区，由 seckill.lua 在准入的同一次调用中检查，不额外往返；
+ * 各级的拒绝次数记录在 seckill.rate.limit.rejected 指标中。
+ */
+@Component
+public class SeckillRateLimiter {
+
+    /**
+     * seckill.lua 中用户级、优惠券级限流的返回值
+     */
+    public static final int USER_LIMITED = 6;
+    public static final int VOUCHER_LIMITED = 7;
+
+    private final boolean enabled;
+    private final LocalTokenBucket localBucket;
+    private final double userRate;
+    private final int userBurst;
+    private final double voucherRate;
+    private final int voucherBurst;
+
+    private final Counter localRejected;
+    private final Counter userRejected;
+    private final Counter voucherRejected;
+
+    public SeckillRateLimiter(MeterRegistry meterRegistry,
+                              @Value("${hmdp.rate-limit.seckill.enabled:true}") boolean enabled,
+                              @Value("${hmdp.rate-limit.seckill.local.rate:2000}") double localRate,
+                              @Value("${hmdp.rate-limit.seckill.local.burst:2000}") int localBurst,
+                              @Value("${hmdp.rate-limit.seckill.user.rate:1}") double userRate,
+                              @Value("${hmdp.rate-limit.seckill.user.burst:3}") int userBurst,
+                              @Value("${hmdp.rate-limit.seckill.voucher.rate:5000}") double voucherRate,
+                              @Value("${hmdp.rate-limit.seckill.voucher.burst:5000}") int voucherBurst) {
+        this.enabled = enabled;
+        this.localBucket = new LocalTokenBucket(localRate, localBurst);
+        this.userRate = userRate;
+        this.userBurst = userBurst;
+        this.voucherRate = voucherRate;
+        this.voucherBurst = voucherBurst;
+        this.localRejected = rejectedCounter(meterRegistry, "local");
+        this.userRejected = rejectedCounter(meterRegistry, "user");
+        this.voucherRejected = rejectedCounter(meterRegistry, "voucher");
+    }
+
+    private static Counter rejectedCounter(MeterRegistry registry, String level) {
+        return Counter.builder("seckill.rate.limit.rejected")
+                .description("秒杀接口被限流拒绝的请求数")
+                .tag("level", level)
+                .register(registry);
+    }
+
+    /**
+     * 节点级限流
+     * @return true 放行，false 被限流
+     */
+    public boolean tryAcquireLocal() {
+        if (!enabled || localBucket.tryAcquire()) {
+            return true;
+        }
+        localRejected.increment();
+        return false;
+    }
+
+    /**
+     * seckill.lua 的限流参数：是否限流、用户桶速率和容量、每个分片的优惠券桶速率和容量
+     */
+    public List<String> scriptArgs(int shards) {
+        if (!enabled) {
+            return Arrays.asList("0", "0", "0", "0", "0");
+        }
+        return Arrays.asList("1", String.valueOf(userRate), String.valueOf(userBurst),
+                String.valueOf(voucherRate / shards), String.valueOf(Math.max(1, (voucherBurst + shards - 1) / shards)));
+    }
+
+    /**
+     * 记录 seckill.lua 中用户级、优惠券级的限流拒绝
+     */
+    public void record(int result) {
+        if (result == USER_LIMITED) {
+            userRejected.increment();
+        } else if (result == VOUCHER_LIMITED) {
+            voucherRejected.increment();
+        }
+    }
+}
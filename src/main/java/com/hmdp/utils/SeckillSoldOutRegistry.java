@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本节点的秒杀券售罄标记。
+ * <p>
+ * 秒杀脚本返回库存不足时标记售罄，并通过 pub/sub 通知其他节点；之后的请求在本地直接拒绝，不再访问 Redis。
+ * 新增秒杀券或补库存时清除标记。标记带有效期，即使错过了清除消息，过期后也会重新由 Redis 判定。
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry implements MessageListener {
+
+    /**
+     * 售罄标记的有效期
+     */
+    private static final long SOLD_OUT_TTL_MILLIS = 10_000;
+
+    private static final String SOLD_OUT = "1:";
+    private static final String CLEARED = "0:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * voucherId -> 售罄标记的过期时间
+     */
+    private final ConcurrentMap<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    public SeckillSoldOutRegistry(StringRedisTemplate stringRedisTemplate,
+                                  RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long until = soldOut.get(voucherId);
+        if (until == null) {
+            return false;
+        }
+        if (until > System.currentTimeMillis()) {
+            return true;
+        }
+        soldOut.remove(voucherId, until);
+        return false;
+    }
+
+    /**
+     * 标记售罄并广播给其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.put(voucherId, System.currentTimeMillis() + SOLD_OUT_TTL_MILLIS) == null) {
+            // 本节点首次标记时才广播，避免每个被拒绝的请求都发布一次
+            publish(SOLD_OUT + voucherId);
+        }
+    }
+
+    /**
+     * 库存发生变化，清除售罄标记并广播给其他节点
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        publish(CLEARED + voucherId);
+    }
+
+    private void publish(String message) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, message);
+        } catch (Exception e) {
+            log.warn("广播售罄标记失败：{}", message, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body.substring(2));
+            if (body.startsWith(SOLD_OUT)) {
+                soldOut.put(voucherId, System.currentTimeMillis() + SOLD_OUT_TTL_MILLIS);
+            } else if (body.startsWith(CLEARED)) {
+                soldOut.remove(voucherId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("无法解析售罄消息：{}", body);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存分片。
+ * <p>
+ * 一张券的库存拆成 N 个分片，每个分片有自己的库存、已下单用户集合和时间窗口，和订单消息队列一起带有所在分区的 hash tag：
+ * <pre>
+ *   seckill:stock:{p}:voucherId    分片的库存
+ *   seckill:order:{p}:voucherId    首选分片是这个分片的已下单用户
+ *   seckill:window:{p}:voucherId   秒杀时间窗口 begin/end，以及还没落库的订单数 queued
+ *   stream.orders:{p}              订单消息队列，同一分区的所有券共用
+ *   limit:seckill:user:{p}:voucherId:userId、limit:seckill:voucher:{p}:voucherId   限流令牌桶
+ * </pre>
+ * 分片 k 位于分区 (voucherId + k) % partitions，同一张券的分片在不同的分区，Redis Cluster 中落在不同的槽位。
+ * 准入时用户只在首选分片（userId % N）上执行一次脚本；首选分片没有库存时，从其他分片借一个库存再回到首选分片下单，
+ * 所以一人一单只需要检查首选分片的用户集合。
+ * <p>
+ * 分区数由 hmdp.seckill.partitions 配置，所有节点必须相同，有秒杀券预热后不能修改；分片数不超过分区数。
+ * 分片数写在 seckill:shards:{id} 中，创建后不再变化，所以各节点在本地缓存。
+ */
+@Component
+public class SeckillStockShards {
+
+    /**
+     * 借库存时发现为空的分片，这段时间内不再尝试
+     */
+    private static final long EMPTY_HINT_MILLIS = 200;
+
+    /**
+     * addStock 的结果：写入了分片、分片还没预热、分片已经被对账关闭
+     */
+    public static final int STOCK_ADDED = 1;
+    public static final int STOCK_NOT_WARMED = 0;
+    public static final int STOCK_CLOSED = 2;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> BORROW_SCRIPT;
+    private static final DefaultRedisScript<Long> STOCK_ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> CLOSE_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        BORROW_SCRIPT = new DefaultRedisScript<>();
+        BORROW_SCRIPT.setLocation(new ClassPathResource("seckill_borrow.lua"));
+        BORROW_SCRIPT.setResultType(Long.class);
+        STOCK_ADD_SCRIPT = new DefaultRedisScript<>();
+        STOCK_ADD_SCRIPT.setLocation(new ClassPathResource("seckill_stock_add.lua"));
+        STOCK_ADD_SCRIPT.setResultType(Long.class);
+        CLOSE_SCRIPT = new DefaultRedisScript<>();
+        CLOSE_SCRIPT.setLocation(new ClassPathResource("seckill_close.lua"));
+        CLOSE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final int partitions;
+
+    private final ConcurrentMap<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    /**
+     * voucherId -> 每个分片最近一次借不到库存的时间
+     */
+    private final ConcurrentMap<Long, AtomicLongArray> emptyAt = new ConcurrentHashMap<>();
+
+    public SeckillStockShards(StringRedisTemplate stringRedisTemplate,
+                              @Value("${hmdp.seckill.partitions:8}") int partitions) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.partitions = partitions;
+    }
+
+    /**
+     * 在用户的首选分片上准入，首选分片没有库存时依次从后面的分片借一个库存
+     */
+    public Admission admit(Long voucherId, Long userId, long orderId, SeckillRateLimiter rateLimiter) {
+        int shards = shardCount(voucherId);
+        int home = homeShard(userId, shards);
+        // 1.在首选分片上限流，校验秒杀时间、一人一单，扣减库存并把订单发送到该分区的消息队列
+        int result = seckill(voucherId, userId, orderId, home, rateLimiter.scriptArgs(shards));
+        if (result != 1) {
+            return new Admission(result, false);
+        }
+        markEmpty(voucherId, shards, home);
+        // 2.首选分片没有库存，从后面的分片借一个，再回到首选分片下单
+        boolean skipped = false;
+        for (int i = 1; i < shards; i++) {
+            int donor = (home + i) % shards;
+            if (recentlyEmpty(voucherId, shards, donor)) {
+                skipped = true;
+                continue;
+            }
+            if (!borrow(voucherId, donor)) {
+                markEmpty(voucherId, shards, donor);
+                continue;
+            }
+            result = seckill(voucherId, userId, orderId, home, null);
+            if (result != 0) {
+                // 2.1.借到库存后发现重复下单或秒杀已结束，把库存还回去
+                addStock(voucherId, donor, 1);
+            }
+            return new Admission(result, false);
+        }
+        // 3.跳过了最近为空的分片时不能确定已经售罄
+        return new Admission(1, !skipped);
+    }
+
+    /**
+     * @param limits 限流参数，为 null 时表示已经借到库存：不再限流，也不扣减本分片的库存
+     */
+    private int seckill(Long voucherId, Long userId, long orderId, int shard, List<String> limits) {
+        int p = partition(voucherId, shard);
+        List<String> args = new ArrayList<>(10);
+        args.add(voucherId.toString());
+        args.add(userId.toString());
+        args.add(String.valueOf(System.currentTimeMillis()));
+        args.add(String.valueOf(orderId));
+        if (limits == null) {
+            args.addAll(Arrays.asList("1", "0", "0", "0", "0", "0"));
+        } else {
+            args.add("0");
+            args.addAll(limits);
+        }
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(key(SECKILL_WINDOW_KEY, p, voucherId), key(SECKILL_ORDER_KEY, p, voucherId),
+                        streamKey(p), key(SECKILL_STOCK_KEY, p, voucherId),
+                        key(RATE_LIMIT_USER_KEY, p, voucherId) + ":" + userId, key(RATE_LIMIT_VOUCHER_KEY, p, voucherId)),
+                args.toArray()
+        );
+        return result == null ? -1 : result.intValue();
+    }
+
+    private boolean borrow(Long voucherId, int shard) {
+        int p = partition(voucherId, shard);
+        Long result = stringRedisTemplate.execute(BORROW_SCRIPT,
+                Arrays.asList(key(SECKILL_WINDOW_KEY, p, voucherId), key(SECKILL_STOCK_KEY, p, voucherId)));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 给分片增加库存，分片已经关闭或还没预热时不写入
+     * @return STOCK_ADDED、STOCK_NOT_WARMED 或 STOCK_CLOSED
+     */
+    public int addStock(Long voucherId, int shard, int count) {
+        int p = partition(voucherId, shard);
+        Long result = stringRedisTemplate.execute(STOCK_ADD_SCRIPT,
+                Arrays.asList(key(SECKILL_WINDOW_KEY, p, voucherId), key(SECKILL_STOCK_KEY, p, voucherId)),
+                String.valueOf(count));
+        return result == null ? STOCK_NOT_WARMED : result.intValue();
+    }
+
+    /**
+     * 关闭分片：取出剩余库存，删除库存和已下单用户，时间窗口只保留关闭标记 ttlSeconds 秒
+     * @return 分片剩余的库存，分片未预热或已经关闭时返回-1
+     */
+    public long close(Long voucherId, int shard, long ttlSeconds) {
+        int p = partition(voucherId, shard);
+        Long result = stringRedisTemplate.execute(CLOSE_SCRIPT,
+                Arrays.asList(key(SECKILL_WINDOW_KEY, p, voucherId), key(SECKILL_STOCK_KEY, p, voucherId),
+                        key(SECKILL_ORDER_KEY, p, voucherId)),
+                String.valueOf(ttlSeconds));
+        return result == null ? -1 : result;
+    }
+
+    private boolean recentlyEmpty(Long voucherId, int shards, int shard) {
+        AtomicLongArray at = emptyAt.get(voucherId);
+        return at != null && at.length() == shards && System.currentTimeMillis() - at.get(shard) < EMPTY_HINT_MILLIS;
+    }
+
+    private void markEmpty(Long voucherId, int shards, int shard) {
+        emptyAt.computeIfAbsent(voucherId, id -> new AtomicLongArray(shards)).set(shard, System.currentTimeMillis());
+    }
+
+    /**
+     * 秒杀券的库存分片数，秒杀券尚未写入 Redis 时返回 1
+     */
+    public int shardCount(Long voucherId) {
+        Integer count = shardCounts.get(voucherId);
+        if (count != null) {
+            return count;
+        }
+        String shards = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (StrUtil.isBlank(shards)) {
+            // 秒杀券还没有写入 Redis，不缓存，下次重新读取
+            return 1;
+        }
+        count = Integer.valueOf(shards);
+        shardCounts.put(voucherId, count);
+        return count;
+    }
+
+    public void register(Long voucherId, int shards) {
+        shardCounts.put(voucherId, shards);
+        emptyAt.remove(voucherId);
+    }
+
+    public void forget(Long voucherId) {
+        shardCounts.remove(voucherId);
+        emptyAt.remove(voucherId);
+    }
+
+    /**
+     * 分片所在的分区
+     */
+    public int partition(Long voucherId, int shard) {
+        return (int) Math.floorMod(voucherId + shard, (long) partitions);
+    }
+
+    public int partitions() {
+        return partitions;
+    }
+
+    /**
+     * 分片的 key：prefix{p}:voucherId
+     */
+    public static String key(String prefix, int partition, Long voucherId) {
+        return prefix + "{" + partition + "}:" + voucherId;
+    }
+
+    public List<String> keys(String prefix, Long voucherId, int shards) {
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(key(prefix, partition(voucherId, i), voucherId));
+        }
+        return keys;
+    }
+
+    public static String streamKey(int partition) {
+        return SECKILL_ORDER_STREAM_KEY + ":{" + partition + "}";
+    }
+
+    public static String deadLetterKey(int partition) {
+        return SECKILL_ORDER_DEAD_LETTER_KEY + ":{" + partition + "}";
+    }
+
+    public List<String> streamKeys() {
+        List<String> keys = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            keys.add(streamKey(i));
+        }
+        return keys;
+    }
+
+    /**
+     * 从 key 的 hash tag 中取出分区
+     */
+    public static int partitionOf(String key) {
+        return Integer.parseInt(key.substring(key.indexOf('{') + 1, key.indexOf('}')));
+    }
+
+    /**
+     * 用户的首选分片，该用户的订单总是记录在这个分片的已下单用户集合中
+     */
+    public static int homeShard(Long userId, int shards) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    /**
+     * 把库存尽量平均地分到每个分片上，前 stock % shards 个分片多分一个
+     */
+    public static int[] split(int stock, int shards) {
+        int[] parts = new int[shards];
+        for (int i = 0; i < shards; i++) {
+            parts[i] = stock / shards + (i < stock % shards ? 1 : 0);
+        }
+        return parts;
+    }
+
+    /**
+     * 分片数限制在 1 ~ 分区数之间，同一张券的两个分片不会落在同一个分区
+     */
+    public int normalize(Integer shards) {
+        if (shards == null || shards < 1) {
+            return 1;
+        }
+        return Math.min(shards, partitions);
+    }
+
+    /**
+     * 一次准入的结果
+     */
+    public static final class Admission {
+        private final int result;
+        private final boolean soldOut;
+
+        private Admission(int result, boolean soldOut) {
+            this.result = result;
+            this.soldOut = soldOut;
+        }
+
+        /**
+         * seckill.lua 的返回值，0 代表下单成功
+         */
+        public int getResult() {
+            return result;
+        }
+
+        /**
+         * 所有分片都确认没有库存
+         */
+        public boolean isSoldOut() {
+            return soldOut;
+        }
+    }
+}
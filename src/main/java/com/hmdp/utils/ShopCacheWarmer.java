@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 店铺缓存预热。店铺使用逻辑过期，Redis 中没有的店铺会被当作不存在，所以需要提前写入。
+ * <p>
+ * 启动时用游标流式读取整张店铺表，按批用 pipeline 写入；同一时间段内只由一个节点执行。
+ * 之后每隔 interval-millis 根据上一周期的访问统计再预热一次：未命中的店铺（例如修改后被删除的缓存），
+ * 以及访问次数最多的 hot-keys 个店铺（提前续上逻辑过期时间，避免返回旧数据）。
+ * 预热按 rate 限速（每秒写入的店铺数），不会占满数据库和 Redis。
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmer {
+
+    /**
+     * 每个周期最多统计的店铺数
+     */
+    private static final int MAX_TRACKED = 100_000;
+
+    private final ShopMapper shopMapper;
+    private final CacheClient cacheClient;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskScheduler taskScheduler;
+    private final int batchSize;
+    private final int hotKeys;
+    private final LocalTokenBucket limiter;
+    private final Counter warmed;
+
+    /**
+     * 本周期内店铺id -> 访问次数
+     */
+    private volatile ConcurrentMap<Long, LongAdder> accesses = new ConcurrentHashMap<>();
+
+    /**
+     * 本周期内 Redis 中没有缓存的店铺id
+     */
+    private final Set<Long> misses = ConcurrentHashMap.newKeySet();
+
+    public ShopCacheWarmer(ShopMapper shopMapper, CacheClient cacheClient, StringRedisTemplate stringRedisTemplate,
+                           PlatformTransactionManager transactionManager, TaskScheduler taskScheduler,
+                           MeterRegistry meterRegistry,
+                           @Value("${hmdp.cache.warm-up.batch-size:500}") int batchSize,
+                           @Value("${hmdp.cache.warm-up.hot-keys:1000}") int hotKeys,
+                           @Value("${hmdp.cache.warm-up.rate:2000}") double rate) {
+        this.shopMapper = shopMapper;
+        this.cacheClient = cacheClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.taskScheduler = taskScheduler;
+        this.batchSize = batchSize;
+        this.hotKeys = hotKeys;
+        this.limiter = new LocalTokenBucket(rate, batchSize);
+        this.warmed = Counter.builder("hmdp.cache.warmed")
+                .description("预热写入 Redis 的店铺数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次店铺查询
+     * @param hit 缓存中是否有这个店铺
+     */
+    public void recordAccess(Long id, boolean hit) {
+        if (!hit && misses.size() < MAX_TRACKED) {
+            misses.add(id);
+        }
+        ConcurrentMap<Long, LongAdder> current = accesses;
+        LongAdder counter = current.get(id);
+        if (counter == null) {
+            if (current.size() >= MAX_TRACKED) {
+                return;
+            }
+            counter = current.computeIfAbsent(id, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        // 在调度线程中执行，不阻塞启动
+        taskScheduler.schedule(this::warmUpAll, new Date());
+    }
+
+    /**
+     * 流式读取整张店铺表并写入缓存。一个逻辑过期周期的前一半时间内只有第一个启动的节点执行，
+     * 之后重启的节点由定时预热续期热点店铺
+     */
+    public void warmUpAll() {
+        Boolean first = stringRedisTemplate.opsForValue().setIfAbsent(CACHE_WARM_UP_KEY + "shop",
+                "1", Duration.ofMinutes(CACHE_SHOP_TTL / 2));
+        if (!Boolean.TRUE.equals(first)) {
+            log.info("店铺缓存最近已经预热过，跳过启动预热");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Long total;
+        try {
+            total = transactionTemplate.execute(status -> scanAndWrite());
+        } catch (Exception e) {
+            // 允许下一个启动的节点重新预热
+            stringRedisTemplate.delete(CACHE_WARM_UP_KEY + "shop");
+            log.error("店铺缓存预热失败", e);
+            return;
+        }
+        log.info("店铺缓存预热完成：{} 个店铺，耗时 {} ms", total, System.currentTimeMillis() - start);
+    }
+
+    private long scanAndWrite() {
+        long total = 0;
+        List<Shop> batch = new ArrayList<>(batchSize);
+        try (Cursor<Shop> cursor = shopMapper.scanAll()) {
+            for (Shop shop : cursor) {
+                batch.add(shop);
+                if (batch.size() == batchSize) {
+                    total += write(batch);
+                    batch.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("关闭游标失败", e);
+        }
+        return total + write(batch);
+    }
+
+    /**
+     * 根据上一周期的访问统计预热：未命中的店铺，以及访问次数最多的 hot-keys 个店铺
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.warm-up.interval-millis:60000}",
+            initialDelayString = "${hmdp.cache.warm-up.interval-millis:60000}")
+    public void warmUpHotKeys() {
+        //1.取出上一周期的统计，开始新的周期
+        Map<Long, LongAdder> snapshot = accesses;
+        accesses = new ConcurrentHashMap<>();
+        Set<Long> ids = new LinkedHashSet<>(misses);
+        misses.removeAll(ids);
+        snapshot.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                .limit(hotKeys)
+                .forEach(e -> ids.add(e.getKey()));
+        if (ids.isEmpty()) {
+            return;
+        }
+        //2.按批查询数据库并写入缓存，数据库中不存在的店铺不写入
+        List<Long> list = new ArrayList<>(ids);
+        long total = 0;
+        for (int i = 0; i < list.size(); i += batchSize) {
+            total += write(shopMapper.selectBatchIds(list.subList(i, Math.min(i + batchSize, list.size()))));
+        }
+        log.debug("按访问统计预热店铺缓存 {} 个", total);
+    }
+
+    private int write(List<Shop> shops) {
+        if (shops.isEmpty()) {
+            return 0;
+        }
+        //限速：每个店铺一个令牌
+        try {
+            limiter.acquire(shops.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("缓存预热被中断", e);
+        }
+        Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        cacheClient.setBatchWithLogicalExpire(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        warmed.increment(shops.size());
+        return shops.size();
+    }
+}
@@ -0,0 +1,226 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 店铺类型目录：每个节点在内存中保存一份不可变的快照（类型列表和渲染好的响应），读取时不访问 Redis 也不解析 JSON。
+ * <p>
+ * Redis 中的目录是一个 list：第一个元素是版本号，之后按 sort 升序每个类型一个 JSON。发布时先取版本号，再从数据库读取全部类型，
+ * 写入本次版本号独有的临时 key，再 RENAME 为正式的 key，读取方只会看到完整的旧目录或新目录，
+ * 并发发布时版本号小的不会覆盖版本号大的（见 shop_type_publish.lua）。之后广播版本号，版本更新的节点重新读取
+ * Redis 中的目录；错过广播的节点每隔 check-millis 比较一次版本号。
+ * 节点第一次读取时从 Redis 加载，Redis 中没有目录时由该节点发布。
+ */
+@Slf4j
+@Component
+public class ShopTypeCatalog implements MessageListener {
+
+    /**
+     * 临时 key 的过期时间，发布中途失败时不会一直残留
+     */
+    private static final long TMP_KEY_TTL_SECONDS = 60;
+
+    private static final DefaultRedisScript<Long> PUBLISH_SCRIPT;
+
+    static {
+        PUBLISH_SCRIPT = new DefaultRedisScript<>();
+        PUBLISH_SCRIPT.setLocation(new ClassPathResource("shop_type_publish.lua"));
+        PUBLISH_SCRIPT.setResultType(Long.class);
+    }
+
+    private final ShopTypeMapper shopTypeMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ResponseCache responseCache;
+    private final ObjectMapper objectMapper;
+
+    private volatile Snapshot snapshot;
+
+    public ShopTypeCatalog(ShopTypeMapper shopTypeMapper, StringRedisTemplate stringRedisTemplate,
+                           RedisMessageListenerContainer listenerContainer, ResponseCache responseCache,
+                           ObjectMapper objectMapper) {
+        this.shopTypeMapper = shopTypeMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.responseCache = responseCache;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_SHOP_TYPE_CHANNEL));
+    }
+
+    /**
+     * 当前的快照，只有节点第一次读取时访问 Redis
+     */
+    public Snapshot snapshot() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                s = snapshot;
+                if (s == null) {
+                    s = reload();
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * 从数据库重新发布目录，并通知所有节点。店铺类型修改后调用
+     * @return 新的版本号
+     */
+    public long publish() {
+        //1.先取版本号再查询数据库：版本号大的发布一定读得更晚，不会用旧数据占据新版本号
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        //2.查询数据库，按 sort 升序（sort 值越小越靠前）
+        List<ShopType> types = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+        //3.写入本次版本独有的临时 key，再整体替换正式的 key，并发发布时不会互相穿插
+        List<String> values = new ArrayList<>(types.size() + 1);
+        values.add(String.valueOf(version));
+        for (ShopType type : types) {
+            values.add(toJson(type));
+        }
+        String tmpKey = CACHE_SHOP_TYPE_KEY + ":tmp:" + version;
+        stringRedisTemplate.opsForList().rightPushAll(tmpKey, values);
+        stringRedisTemplate.expire(tmpKey, TMP_KEY_TTL_SECONDS, TimeUnit.SECONDS);
+        Long replaced = stringRedisTemplate.execute(PUBLISH_SCRIPT, Arrays.asList(tmpKey, CACHE_SHOP_TYPE_KEY),
+                String.valueOf(version));
+        if (replaced == null || replaced == 0) {
+            // 其他节点同时发布了更新的版本，以它为准
+            reload();
+            return snapshot.version;
+        }
+        //4.更新本节点，再广播版本号
+        install(new Snapshot(version, types, render(version, types)));
+        stringRedisTemplate.convertAndSend(CACHE_SHOP_TYPE_CHANNEL, String.valueOf(version));
+        log.info("发布店铺类型目录，版本:{}，类型数:{}", version, types.size());
+        return version;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        long version = Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8));
+        Snapshot s = snapshot;
+        // 还没有读取过的节点等到第一次读取时再加载
+        if (s != null && s.version < version) {
+            reload();
+        }
+    }
+
+    /**
+     * 兜底错过的广播：版本号落后时重新加载
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop-type.check-millis:60000}")
+    public void checkVersion() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            return;
+        }
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        if (version != null && Long.parseLong(version) > s.version) {
+            reload();
+        }
+    }
+
+    private synchronized Snapshot reload() {
+        List<String> values = stringRedisTemplate.opsForList().range(CACHE_SHOP_TYPE_KEY, 0, -1);
+        if (values == null || values.isEmpty()) {
+            publish();
+            return snapshot;
+        }
+        long version = Long.parseLong(values.get(0));
+        List<ShopType> types = new ArrayList<>(values.size() - 1);
+        for (String json : values.subList(1, values.size())) {
+            types.add(fromJson(json));
+        }
+        return install(new Snapshot(version, types, render(version, types)));
+    }
+
+    // 版本号只增不减，并发的加载和发布以版本号大的为准
+    private synchronized Snapshot install(Snapshot s) {
+        if (snapshot == null || snapshot.version < s.version) {
+            snapshot = s;
+        }
+        return snapshot;
+    }
+
+    private ResponseCache.Rendered render(long version, List<ShopType> types) {
+        try {
+            return responseCache.render(Result.ok(types), version);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String toJson(ShopType type) {
+        try {
+            return objectMapper.writeValueAsString(type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ShopType fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, ShopType.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 一个版本的目录，创建后不再修改，列表中的 ShopType 被所有请求共享，调用方不能修改
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final List<ShopType> types;
+        private final ResponseCache.Rendered response;
+
+        private Snapshot(long version, List<ShopType> types, ResponseCache.Rendered response) {
+            this.version = version;
+            this.types = Collections.unmodifiableList(types);
+            this.response = response;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<ShopType> getTypes() {
+            return types;
+        }
+
+        public ResponseCache.Rendered getResponse() {
+            return response;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 本节点内的请求合并：同一个 key 同时只有一个线程执行加载，其他线程等待它的结果。
+ * <p>
+ * 第一个到达的线程在自己的线程中执行加载（持有的分布式锁等仍归它所有），完成后所有等待者拿到同一个结果；
+ * 加载抛出的异常同样传给每个等待者。等待者最多等待 timeout-millis，超时抛出异常，不会自己再去加载。
+ * 被合并的调用次数记录在 hmdp.cache.coalesced 指标中。
+ */
+@Component
+public class SingleFlight {
+
+    /**
+     * key -> 正在进行的加载
+     */
+    private final ConcurrentMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    private final long timeoutMillis;
+    private final Counter coalesced;
+    private final Counter timeouts;
+
+    public SingleFlight(MeterRegistry meterRegistry,
+                        @Value("${hmdp.cache.single-flight.timeout-millis:3000}") long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.coalesced = Counter.builder("hmdp.cache.coalesced")
+                .description("等待同一个key正在进行的加载、没有自己查询数据库的调用次数")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("hmdp.cache.coalesced.timeouts")
+                .description("等待正在进行的加载超时的次数")
+                .register(meterRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        //1.登记本次加载，已有正在进行的加载时等待它的结果
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, call);
+        if (inFlight != null) {
+            coalesced.increment();
+            return (T) await(key, inFlight);
+        }
+        //2.由当前线程加载，结果或异常交给所有等待者
+        try {
+            T value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            //3.加载结束，之后的调用重新加载
+            calls.remove(key, call);
+        }
+    }
+
+    private Object await(String key, CompletableFuture<Object> inFlight) {
+        try {
+            return inFlight.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw new IllegalStateException("等待加载超时，key:" + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待加载被中断，key:" + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
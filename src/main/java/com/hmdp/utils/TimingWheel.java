@@ -0,0 +1,162 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+
+/**
+ * 分层时间轮，存放 (id, 到期时间) 形式的定时任务。
+ * <p>
+ * 共 {@link #LEVELS} 层，每层 64 个槽：第0层每槽 1 个 tick，第1层每槽 64 个 tick，依此类推；
+ * 添加任务按剩余 tick 数直接定位到某一层的某个槽，是 O(1) 的。时间推进到高层槽的边界时，
+ * 把该槽中的任务重新放入下面的层（cascade），到第0层的槽被推进经过时任务到期。
+ * <p>
+ * 槽中只保存两个 long 数组，每个任务占 16 字节，没有额外对象，百万级任务也只占十几 MB 堆内存。
+ * 不支持删除任务，到期后由调用方判断任务是否仍然有效。非线程安全，由调用方加锁。
+ */
+public class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    /**
+     * 时间轮能表示的最大 tick 跨度，更远的任务先放在最高层的最远槽，cascade 时再重新定位
+     */
+    private static final long MAX_SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final Bucket[][] wheels = new Bucket[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        for (Bucket[] wheel : wheels) {
+            for (int i = 0; i < SLOTS; i++) {
+                wheel[i] = new Bucket();
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 添加定时任务，已经到期的任务放在下一个 tick
+     */
+    public void add(long id, long deadlineMillis) {
+        size++;
+        // 当前 tick 的槽已经处理过了，最早放到下一个 tick
+        place(id, deadlineMillis, currentTick + 1);
+    }
+
+    /**
+     * 把时间推进到 nowMillis，返回期间到期的任务id
+     */
+    public LongList advance(long nowMillis) {
+        LongList expired = new LongList();
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // 1.到达高层槽的边界，把高层槽中的任务重新放入下面的层
+            for (int level = 1; level < LEVELS; level++) {
+                long shifted = currentTick >>> (SLOT_BITS * level);
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                cascade(wheels[level][(int) (shifted & SLOT_MASK)]);
+            }
+            // 2.第0层当前槽中的任务到期
+            Bucket bucket = wheels[0][(int) (currentTick & SLOT_MASK)];
+            for (int i = 0; i < bucket.size; i++) {
+                expired.add(bucket.ids[i]);
+            }
+            size -= bucket.size;
+            bucket.clear();
+        }
+        return expired;
+    }
+
+    private void cascade(Bucket bucket) {
+        if (bucket.size == 0) {
+            return;
+        }
+        long[] ids = Arrays.copyOf(bucket.ids, bucket.size);
+        long[] deadlines = Arrays.copyOf(bucket.deadlines, bucket.size);
+        bucket.clear();
+        // cascade 之后紧接着处理当前 tick 的槽，所以当前 tick 到期的任务可以放进去
+        for (int i = 0; i < ids.length; i++) {
+            place(ids[i], deadlines[i], currentTick);
+        }
+    }
+
+    private void place(long id, long deadlineMillis, long minTick) {
+        long tick = Math.max(deadlineMillis / tickMillis, minTick);
+        long delta = tick - currentTick;
+        if (delta >= MAX_SPAN) {
+            tick = currentTick + MAX_SPAN - 1;
+            delta = MAX_SPAN - 1;
+        }
+        int level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        wheels[level][slot].add(id, deadlineMillis);
+    }
+
+    private static class Bucket {
+        private static final long[] EMPTY = new long[0];
+        private long[] ids = EMPTY;
+        private long[] deadlines = EMPTY;
+        private int size;
+
+        void add(long id, long deadline) {
+            if (size == ids.length) {
+                int capacity = Math.max(8, size << 1);
+                ids = Arrays.copyOf(ids, capacity);
+                deadlines = Arrays.copyOf(deadlines, capacity);
+            }
+            ids[size] = id;
+            deadlines[size] = deadline;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+            // 突发之后释放大数组，避免长期占用堆内存
+            if (ids.length > 1024) {
+                ids = EMPTY;
+                deadlines = EMPTY;
+            }
+        }
+    }
+
+    /**
+     * 简单的 long 列表，避免装箱
+     */
+    public static class LongList {
+        private long[] values = new long[16];
+        private int size;
+
+        public void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        public long get(int index) {
+            return values[index];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+-- 向可扩展布隆过滤器添加元素，返回新增的元素个数，过滤器尚未创建时返回-1
+-- 1.数据key
+-- 1.1.元数据 hash：capacity（第一个子过滤器的容量）、hashes（第一个子过滤器的哈希函数个数）、filters（子过滤器个数）、count（最后一个子过滤器的元素个数）
+local metaKey = KEYS[1]
+-- 1.2.第 i 个子过滤器的位图为 metaKey:i（从0开始）
+
+-- 2.参数列表：每个元素两个哈希值 h1、h2，第 j 个位置为 (h1 + j * h2) % 位数
+local meta = redis.call('hmget', metaKey, 'capacity', 'hashes', 'filters', 'count')
+if not meta[1] then
+    return -1
+end
+local capacity, hashes, filters, count = tonumber(meta[1]), tonumber(meta[2]), tonumber(meta[3]), tonumber(meta[4])
+
+-- 3.子过滤器 i 的容量为 capacity * 2^i，哈希函数个数为 hashes + i，每个元素占 round((hashes + i) / ln2) 位
+local function layout(i)
+    local k = hashes + i
+    local n = capacity * 2 ^ i
+    return k, n * math.floor((k * 14427 + 5000) / 10000), n
+end
+
+local function contains(h1, h2)
+    for i = 0, filters - 1 do
+        local k, m = layout(i)
+        local hit = true
+        for j = 0, k - 1 do
+            if redis.call('getbit', metaKey .. ':' .. i, (h1 + j * h2) % m) == 0 then
+                hit = false
+                break
+            end
+        end
+        if hit then
+            return true
+        end
+    end
+    return false
+end
+
+-- 4.已经存在的元素不重复计数；最后一个子过滤器满了就新建一个
+local added = 0
+for a = 1, #ARGV, 2 do
+    local h1, h2 = tonumber(ARGV[a]), tonumber(ARGV[a + 1])
+    if not contains(h1, h2) then
+        local k, m, n = layout(filters - 1)
+        if count >= n then
+            filters = filters + 1
+            count = 0
+            k, m, n = layout(filters - 1)
+        end
+        for j = 0, k - 1 do
+            redis.call('setbit', metaKey .. ':' .. (filters - 1), (h1 + j * h2) % m, 1)
+        end
+        count = count + 1
+        added = added + 1
+    end
+end
+redis.call('hset', metaKey, 'filters', filters, 'count', count)
+return added
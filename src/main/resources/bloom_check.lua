@@ -0,0 +1,26 @@
+-- 查询可扩展布隆过滤器（格式见 bloom_add.lua），1代表可能存在，0代表一定不存在
+-- 过滤器不存在或还没有构建完成时返回-1，由调用方继续查询缓存和数据库
+local metaKey = KEYS[1]
+local h1, h2 = tonumber(ARGV[1]), tonumber(ARGV[2])
+
+local meta = redis.call('hmget', metaKey, 'capacity', 'hashes', 'filters', 'ready')
+if meta[4] ~= '1' then
+    return -1
+end
+local capacity, hashes, filters = tonumber(meta[1]), tonumber(meta[2]), tonumber(meta[3])
+
+for i = 0, filters - 1 do
+    local k = hashes + i
+    local m = capacity * 2 ^ i * math.floor((k * 14427 + 5000) / 10000)
+    local hit = 1
+    for j = 0, k - 1 do
+        if redis.call('getbit', metaKey .. ':' .. i, (h1 + j * h2) % m) == 0 then
+            hit = 0
+            break
+        end
+    end
+    if hit == 1 then
+        return 1
+    end
+end
+return 0
@@ -0,0 +1,16 @@
+-- 整体替换按字段保存的缓存，先删除旧的 hash，不残留已经变为 null 的字段
+-- 1.数据key
+local key = KEYS[1]
+
+-- 2.参数列表
+-- 2.1.Redis 过期时间（毫秒），0 代表不过期
+local ttl = tonumber(ARGV[1])
+-- 2.2.ARGV[2] ~ ARGV[#ARGV] 依次是 字段, 值, 字段, 值 ...
+
+-- 3.脚本业务
+redis.call('del', key)
+redis.call('hmset', key, unpack(ARGV, 2))
+if ttl > 0 then
+    redis.call('pexpire', key, ttl)
+end
+return 1
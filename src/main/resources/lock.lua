@@ -0,0 +1,18 @@
+-- 可重入锁加锁：锁是一个hash，field为持有者，value为重入次数
+-- 1.参数列表
+-- 1.1.锁key
+local key = KEYS[1]
+-- 1.2.持有者标识（节点id:线程id）
+local owner = ARGV[1]
+-- 1.3.租期（毫秒）
+local leaseMillis = ARGV[2]
+
+-- 2.脚本业务
+-- 2.1.锁不存在，或者是自己持有的锁（重入），重入次数+1并重置租期
+if (redis.call('exists', key) == 0 or redis.call('hexists', key, owner) == 1) then
+    redis.call('hincrby', key, owner, 1)
+    redis.call('pexpire', key, leaseMillis)
+    return nil
+end
+-- 2.2.被其他人持有，返回锁的剩余租期
+return redis.call('pttl', key)
@@ -0,0 +1,6 @@
+-- 看门狗续期：只有仍然持有锁时才重置租期
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,31 @@
+-- 接管停止心跳的节点留下的支付截止时间，节点改名或下线后它登记的订单仍会超时取消
+-- 1.参数列表
+-- 1.1.停止心跳的节点名
+local node = ARGV[1]
+
+-- 2.数据key
+-- 2.1.登记过支付截止时间的节点集合
+local nodesKey = KEYS[1]
+-- 2.2.该节点的心跳key
+local heartbeatKey = KEYS[2]
+-- 2.3.该节点的支付截止时间有序集合
+local staleKey = KEYS[3]
+-- 2.4.本节点的支付截止时间有序集合
+local ownKey = KEYS[4]
+
+-- 3.脚本业务
+-- 3.1.节点仍有心跳（例如已经重新启动），不接管
+if (redis.call('exists', heartbeatKey) == 1) then
+    return {}
+end
+-- 3.2.读取全部截止时间 zrange staleKey 0 -1 WITHSCORES
+local entries = redis.call('zrange', staleKey, 0, -1, 'WITHSCORES')
+-- 3.3.合并到本节点的有序集合 zadd ownKey NX score member，截止时间由订单id计算，两边都有的订单截止时间相同
+for i = 1, #entries, 2 do
+    redis.call('zadd', ownKey, 'NX', entries[i + 1], entries[i])
+end
+-- 3.4.删除原节点的有序集合并注销该节点，同一个节点只会被接管一次
+redis.call('del', staleKey)
+redis.call('srem', nodesKey, node)
+-- 3.5.返回接管的订单id和截止时间，由本节点放入时间轮
+return entries
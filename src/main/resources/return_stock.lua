@@ -0,0 +1,23 @@
+-- 取消订单后归还Redis库存，并允许该用户重新下单。key 都属于用户的首选分片
+-- 1.参数列表
+-- 1.1.用户id
+local userId = ARGV[1]
+
+-- 2.数据key
+-- 2.1.分片的秒杀时间窗口key
+local windowKey = KEYS[1]
+-- 2.2.分片的订单key（已下单用户集合）
+local orderKey = KEYS[2]
+-- 2.3.分片的库存key
+local stockKey = KEYS[3]
+
+-- 3.脚本业务
+-- 3.1.秒杀已经结束、key已释放，库存只需要归还到数据库
+if (redis.call('hexists', windowKey, 'end') == 0) then
+    return 0
+end
+-- 3.2.归还库存 incrby stockKey 1
+redis.call('incrby', stockKey, 1)
+-- 3.3.移除用户 srem orderKey userId
+redis.call('srem', orderKey, userId)
+return 1
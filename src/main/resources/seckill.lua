@@ -0,0 +1,106 @@
+-- 在用户的首选库存分片上准入，用到的 key 都带有该分片所在分区的 hash tag
+-- 1.参数列表
+-- 1.1.优惠券id
+local voucherId = ARGV[1]
+-- 1.2.用户id
+local userId = ARGV[2]
+-- 1.3.当前时间（毫秒）
+local now = tonumber(ARGV[3])
+-- 1.4.订单id
+local orderId = ARGV[4]
+-- 1.5.是否已经从其他分片借到了库存（1 是，0 否），借到时不再限流，也不再扣减本分片的库存
+local borrowed = ARGV[5] == '1'
+-- 1.6.是否限流（1 是，0 否）
+local limited = ARGV[6] == '1'
+-- 1.7.用户桶每秒生成令牌数、容量
+local userRate = tonumber(ARGV[7])
+local userBurst = tonumber(ARGV[8])
+-- 1.8.本分片的优惠券桶每秒生成令牌数、容量
+local voucherRate = tonumber(ARGV[9])
+local voucherBurst = tonumber(ARGV[10])
+
+-- 2.数据key
+-- 2.1.分片的秒杀时间窗口key
+local windowKey = KEYS[1]
+-- 2.2.分片的订单key（首选分片是该分片的已下单用户集合）
+local orderKey = KEYS[2]
+-- 2.3.分区的订单消息队列key
+local streamKey = KEYS[3]
+-- 2.4.分片的库存key
+local stockKey = KEYS[4]
+-- 2.5.用户在这张券上的令牌桶
+local userBucketKey = KEYS[5]
+-- 2.6.分片的优惠券令牌桶
+local voucherBucketKey = KEYS[6]
+
+-- 按流逝的时间补充令牌，桶不存在时是满的
+local function refill(key, rate, burst)
+    local bucket = redis.call('hmget', key, 'tokens', 'ts')
+    local tokens = tonumber(bucket[1])
+    local ts = tonumber(bucket[2])
+    if (tokens == nil or ts == nil) then
+        return burst
+    end
+    return math.min(burst, tokens + math.max(0, now - ts) * rate / 1000)
+end
+
+-- 保存令牌数，桶补满所需的时间后自动删除
+local function save(key, tokens, rate, burst)
+    redis.call('hmset', key, 'tokens', tokens, 'ts', now)
+    redis.call('pexpire', key, math.ceil(burst * 1000 / rate) + 1000)
+end
+
+-- 3.脚本业务
+-- 3.1.限流：用户桶和优惠券桶都有令牌时才各扣一个
+if (limited and not borrowed) then
+    local userTokens = refill(userBucketKey, userRate, userBurst)
+    if (userTokens < 1) then
+        -- 3.1.1.用户请求过于频繁，返回6
+        return 6
+    end
+    local voucherTokens = refill(voucherBucketKey, voucherRate, voucherBurst)
+    if (voucherTokens < 1) then
+        -- 3.1.2.这张券的请求过多，返回7
+        return 7
+    end
+    save(userBucketKey, userTokens - 1, userRate, userBurst)
+    save(voucherBucketKey, voucherTokens - 1, voucherRate, voucherBurst)
+end
+-- 3.2.判断秒杀时间窗口 hmget window begin end
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+local beginTime = tonumber(window[1])
+local endTime = tonumber(window[2])
+if (beginTime == nil or endTime == nil) then
+    -- 3.3.窗口不存在，说明秒杀券未预热或已结束，返回5
+    return 5
+end
+if (now < beginTime) then
+    -- 3.4.秒杀尚未开始，返回3
+    return 3
+end
+if (now > endTime) then
+    -- 3.5.秒杀已经结束，返回4
+    return 4
+end
+-- 3.6.判断用户是否下单 sismember orderKey userId
+if (redis.call('sismember', orderKey, userId) == 1) then
+    -- 3.7.存在，说明是重复下单，返回2
+    return 2
+end
+if (not borrowed) then
+    -- 3.8.判断库存是否充足 get stockKey
+    local stock = tonumber(redis.call('get', stockKey))
+    if (stock == nil or stock <= 0) then
+        -- 3.9.本分片库存不足，返回1，由调用方从其他分片借库存
+        return 1
+    end
+    -- 3.10.扣库存 incrby stockKey -1
+    redis.call('incrby', stockKey, -1)
+end
+-- 3.11.下单（保存用户）sadd orderKey userId
+redis.call('sadd', orderKey, userId)
+-- 3.12.发送消息到队列中 XADD stream.orders:{p} * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 3.13.记录该分片还没落库的订单数 hincrby windowKey queued 1，落库确认后减一，对账前等它归零
+redis.call('hincrby', windowKey, 'queued', 1)
+return 0
@@ -0,0 +1,22 @@
+-- 首选分片没有库存时，从其他分片借一个库存
+-- 1.参数列表（无）
+
+-- 2.数据key
+-- 2.1.分片的秒杀时间窗口key
+local windowKey = KEYS[1]
+-- 2.2.分片的库存key
+local stockKey = KEYS[2]
+
+-- 3.脚本业务
+-- 3.1.分片未预热或已经结束，不能借
+if (redis.call('hexists', windowKey, 'end') == 0) then
+    return 0
+end
+-- 3.2.判断库存是否充足 get stockKey
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+-- 3.3.扣库存 incrby stockKey -1
+redis.call('incrby', stockKey, -1)
+return 1
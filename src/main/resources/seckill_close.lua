@@ -0,0 +1,28 @@
+-- 对账时关闭库存分片：取出剩余库存并删除库存和已下单用户，时间窗口只留下关闭标记，
+-- 之后的下单、借库存、补库存和归还库存都不会再写入这个分片
+-- 1.参数列表
+-- 1.1.关闭标记的过期时间（秒）
+local ttl = tonumber(ARGV[1])
+
+-- 2.数据key
+-- 2.1.分片的秒杀时间窗口key
+local windowKey = KEYS[1]
+-- 2.2.分片的库存key
+local stockKey = KEYS[2]
+-- 2.3.分片的订单key（已下单用户集合）
+local orderKey = KEYS[3]
+
+-- 3.脚本业务
+-- 3.1.未预热或已经被其他节点关闭，返回-1
+if (redis.call('hexists', windowKey, 'end') == 0) then
+    return -1
+end
+-- 3.2.取出剩余库存
+local stock = tonumber(redis.call('get', stockKey)) or 0
+-- 3.3.删除库存和已下单用户
+redis.call('del', stockKey, orderKey)
+-- 3.4.时间窗口换成关闭标记 hdel windowKey begin end，hset windowKey closed 1
+redis.call('hdel', windowKey, 'begin', 'end')
+redis.call('hset', windowKey, 'closed', '1')
+redis.call('expire', windowKey, ttl)
+return stock
@@ -0,0 +1,26 @@
+-- 订单落库后确认消息，并从队列中删除，stream.orders 只保留还没处理完的订单
+-- 1.参数列表
+-- 1.1.消费者组
+local group = ARGV[1]
+-- 1.2.消息id，ARGV[2] ~ ARGV[#ARGV]
+
+-- 2.数据key
+-- 2.1.订单消息队列key
+local streamKey = KEYS[1]
+-- 2.2.秒杀时间窗口key，KEYS[i] 是 ARGV[i] 这条订单所属优惠券的窗口（i >= 2）
+
+-- 3.脚本业务
+local acked = 0
+for i = 2, #ARGV do
+    -- 3.1.确认消息 xack stream.orders g1 id，返回0说明已经被确认过（例如被其他消费者接管后处理完成）
+    if (redis.call('xack', streamKey, group, ARGV[i]) == 1) then
+        -- 3.2.删除消息 xdel stream.orders id
+        redis.call('xdel', streamKey, ARGV[i])
+        -- 3.3.该券还没落库的订单数减一 hincrby windowKey queued -1，秒杀已结束、key已释放时跳过
+        if (redis.call('exists', KEYS[i]) == 1) then
+            redis.call('hincrby', KEYS[i], 'queued', -1)
+        end
+        acked = acked + 1
+    end
+end
+return acked
@@ -0,0 +1,22 @@
+-- 接管空闲过久的未确认订单消息，例如节点改名后不再回来的消费者留下的 pending-list
+-- 1.参数列表
+-- 1.1.消费者组
+local group = ARGV[1]
+-- 1.2.接管后的消费者
+local consumer = ARGV[2]
+-- 1.3.最短空闲时间（毫秒）
+local minIdle = ARGV[3]
+-- 1.4.扫描的起始id，第一次为 0-0
+local cursor = ARGV[4]
+-- 1.5.每次最多接管的消息数
+local count = ARGV[5]
+
+-- 2.数据key
+-- 2.1.订单消息队列key
+local streamKey = KEYS[1]
+
+-- 3.脚本业务
+-- 3.1.xautoclaim stream.orders g1 consumer minIdle cursor COUNT n JUSTID，只转移所有权，不增加投递次数
+local result = redis.call('xautoclaim', streamKey, group, consumer, minIdle, cursor, 'COUNT', count, 'JUSTID')
+-- 3.2.返回下一次扫描的起始id（0-0 表示扫描完成）和本次接管的消息数
+return { result[1], #result[2] }
@@ -0,0 +1,45 @@
+-- 多次处理都失败的订单消息转移到死信队列，不再阻塞 pending-list 中的其他订单
+-- 1.参数列表
+-- 1.1.消费者组
+local group = ARGV[1]
+-- 1.2.消息id
+local id = ARGV[2]
+-- 1.3.失败原因
+local reason = ARGV[3]
+-- 1.4.投递次数
+local deliveries = ARGV[4]
+
+-- 2.数据key
+-- 2.1.订单消息队列key
+local streamKey = KEYS[1]
+-- 2.2.死信队列key
+local deadLetterKey = KEYS[2]
+-- 2.3.订单所属优惠券的秒杀时间窗口key，消息中没有优惠券id时不传
+local windowKey = KEYS[3]
+
+-- 3.脚本业务
+-- 3.1.读取消息内容 xrange stream.orders id id
+local entries = redis.call('xrange', streamKey, id, id)
+-- 3.2.确认消息，已经被确认过的不再转移
+if (redis.call('xack', streamKey, group, id) == 0) then
+    return 0
+end
+if (#entries == 0) then
+    return 0
+end
+-- 3.3.复制到死信队列 xadd stream.orders.dlq * k1 v1 ... sourceId id reason ... deliveries ...
+local fields = entries[1][2]
+table.insert(fields, 'sourceId')
+table.insert(fields, id)
+table.insert(fields, 'reason')
+table.insert(fields, reason)
+table.insert(fields, 'deliveries')
+table.insert(fields, deliveries)
+redis.call('xadd', deadLetterKey, '*', unpack(fields))
+-- 3.4.从订单队列中删除 xdel stream.orders id
+redis.call('xdel', streamKey, id)
+-- 3.5.该券还没落库的订单数减一，不再等待这条订单
+if (windowKey ~= nil and redis.call('exists', windowKey) == 1) then
+    redis.call('hincrby', windowKey, 'queued', -1)
+end
+return 1
@@ -0,0 +1,22 @@
+-- 给库存分片增加库存（补库存、归还借出的库存），分片未预热或已经关闭时不写入，避免留下没有人清理的key
+-- 1.参数列表
+-- 1.1.增加的数量
+local count = tonumber(ARGV[1])
+
+-- 2.数据key
+-- 2.1.分片的秒杀时间窗口key
+local windowKey = KEYS[1]
+-- 2.2.分片的库存key
+local stockKey = KEYS[2]
+
+-- 3.脚本业务
+if (redis.call('hexists', windowKey, 'end') == 0) then
+    -- 3.1.已经关闭（对账已经把剩余库存写回数据库）返回2，未预热返回0
+    if (redis.call('hexists', windowKey, 'closed') == 1) then
+        return 2
+    end
+    return 0
+end
+-- 3.2.增加库存 incrby stockKey count
+redis.call('incrby', stockKey, count)
+return 1
@@ -0,0 +1,22 @@
+-- 用临时 key 中完整的目录替换正式的目录，正式目录的版本号更新时不替换
+-- 1.key
+-- 1.1.临时 key，第一个元素是版本号
+local tmpKey = KEYS[1]
+-- 1.2.正式的目录
+local key = KEYS[2]
+
+-- 2.参数列表
+-- 2.1.本次发布的版本号
+local version = tonumber(ARGV[1])
+
+-- 3.脚本业务
+local current = redis.call('lindex', key, 0)
+if current and tonumber(current) > version then
+    -- 3.1.其他节点已经发布了更新的版本
+    redis.call('del', tmpKey)
+    return 0
+end
+-- 3.2.整体替换，去掉临时 key 的过期时间
+redis.call('rename', tmpKey, key)
+redis.call('persist', key)
+return 1
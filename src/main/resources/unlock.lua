@@ -0,0 +1,25 @@
+-- 可重入锁解锁：只有持有者才能解锁，重入次数减为0时删除锁并通知等待者
+-- 1.参数列表
+-- 1.1.锁key
+local key = KEYS[1]
+-- 1.2.锁释放的通知频道
+local channel = KEYS[2]
+-- 1.3.持有者标识
+local owner = ARGV[1]
+-- 1.4.租期（毫秒）
+local leaseMillis = ARGV[2]
+
+-- 2.脚本业务
+-- 2.1.不是自己持有的锁（可能已经过期被其他人获取），不能删除
+if (redis.call('hexists', key, owner) == 0) then
+    return -1
+end
+-- 2.2.重入次数-1，还有剩余则只重置租期
+if (redis.call('hincrby', key, owner, -1) > 0) then
+    redis.call('pexpire', key, leaseMillis)
+    return 0
+end
+-- 2.3.完全释放，删除锁并通知等待者
+redis.call('del', key)
+redis.call('publish', channel, key)
+return 1
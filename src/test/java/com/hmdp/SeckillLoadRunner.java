@@ -0,0 +1,398 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀端到端压测：mvn -Pload-test test -Dloadtest.users=20000 -Dloadtest.vouchers=4 -Dloadtest.stock=1000
+ * <p>
+ * 启动完整应用，默认使用内嵌的 redis-server 和 H2（MySQL 兼容模式）代替 Redis 和 MySQL；
+ * 设置环境变量 BENCH_REDIS_HOST（可选 BENCH_REDIS_PORT、BENCH_REDIS_PASSWORD）或
+ * BENCH_MYSQL_URL（可选 BENCH_MYSQL_USER、BENCH_MYSQL_PASSWORD，需要先导入 db/hmdp.sql）后改用真实服务。
+ * <p>
+ * 创建 M 张秒杀券，N 个已登录用户通过 HTTP 并发抢购每一张券（每张券请求 attempts 次），
+ * 报告吞吐量和 p50/p99/p999 延迟，等订单全部落库后检查超卖、一人多单和丢单，任一检查失败时以非0状态退出。
+ * -Dloadtest.args 中的参数原样传给应用，用来对比不同的准入策略，例如 "--hmdp.rate-limit.seckill.enabled=false"。
+ */
+public class SeckillLoadRunner {
+
+    private static final long FIRST_USER_ID = 1_000_000_000L;
+    private static final String TOKEN_PREFIX = "loadtest-";
+
+    private final int users = Integer.getInteger("loadtest.users", 10000);
+    private final int vouchers = Integer.getInteger("loadtest.vouchers", 4);
+    private final int stock = Integer.getInteger("loadtest.stock", 1000);
+    private final int shards = Integer.getInteger("loadtest.shards", 1);
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 64);
+    private final int attempts = Integer.getInteger("loadtest.attempts", 2);
+    private final int drainSeconds = Integer.getInteger("loadtest.drain-seconds", 120);
+
+    private ConfigurableApplicationContext context;
+    private StringRedisTemplate stringRedisTemplate;
+    private String baseUrl;
+    private final List<Long> voucherIds = new ArrayList<>();
+
+    /**
+     * 每个请求的延迟（纳秒）和抢到的订单id（未抢到为0）
+     */
+    private long[] latencies;
+    private long[] orderIds;
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        boolean passed;
+        RedisServer redisServer = null;
+        SeckillLoadRunner runner = new SeckillLoadRunner();
+        try {
+            List<String> appArgs = new ArrayList<>();
+            if (System.getenv("BENCH_REDIS_HOST") == null) {
+                int port = freePort();
+                redisServer = RedisServer.newRedisServer().bind("127.0.0.1").port(port).build();
+                redisServer.start();
+                appArgs.add("--spring.redis.host=127.0.0.1");
+                appArgs.add("--spring.redis.port=" + port);
+                appArgs.add("--spring.redis.password=");
+            }
+            for (String arg : args) {
+                for (String part : arg.trim().split("\\s+")) {
+                    if (!part.isEmpty()) {
+                        appArgs.add(part);
+                    }
+                }
+            }
+            passed = runner.run(appArgs.toArray(new String[0]));
+        } finally {
+            runner.close();
+            if (redisServer != null) {
+                redisServer.stop();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run(String[] appArgs) throws Exception {
+        start(appArgs);
+        prepare();
+        long elapsed = load();
+        long drained = awaitOrders();
+        report(elapsed, drained);
+        return verify();
+    }
+
+    private void start(String[] appArgs) {
+        // 以命令行参数传入，覆盖 application.yaml 中的配置；-Dloadtest.args 中的同名参数优先
+        Map<String, String> props = new LinkedHashMap<>();
+        props.put("server.port", "0");
+        props.put("logging.level.com.hmdp", "info");
+        props.put("server.tomcat.threads.max", String.valueOf(Math.max(200, concurrency)));
+        String redisHost = System.getenv("BENCH_REDIS_HOST");
+        if (redisHost != null) {
+            props.put("spring.redis.host", redisHost);
+            props.put("spring.redis.port", env("BENCH_REDIS_PORT", "6379"));
+            props.put("spring.redis.password", env("BENCH_REDIS_PASSWORD", ""));
+        }
+        String mysqlUrl = System.getenv("BENCH_MYSQL_URL");
+        if (mysqlUrl != null) {
+            props.put("spring.datasource.url", mysqlUrl);
+            props.put("spring.datasource.username", env("BENCH_MYSQL_USER", "root"));
+            props.put("spring.datasource.password", env("BENCH_MYSQL_PASSWORD", ""));
+        } else {
+            props.put("spring.datasource.driver-class-name", "org.h2.Driver");
+            props.put("spring.datasource.url", "jdbc:h2:mem:hmdp;MODE=MySQL;DB_CLOSE_DELAY=-1");
+            props.put("spring.datasource.username", "sa");
+            props.put("spring.datasource.password", "");
+            props.put("spring.datasource.schema", "classpath:loadtest/schema.sql");
+            props.put("spring.datasource.initialization-mode", "always");
+        }
+        for (String arg : appArgs) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) {
+                props.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        List<String> args = new ArrayList<>(props.size());
+        props.forEach((k, v) -> args.add("--" + k + "=" + v));
+        context = new SpringApplicationBuilder(HmDianPingApplication.class).run(args.toArray(new String[0]));
+        stringRedisTemplate = context.getBean(StringRedisTemplate.class);
+        baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+    }
+
+    // 创建秒杀券并等待预热完成，再给每个用户生成登录token
+    private void prepare() throws InterruptedException {
+        IVoucherService voucherService = context.getBean(IVoucherService.class);
+        ISeckillVoucherService seckillVoucherService = context.getBean(ISeckillVoucherService.class);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < vouchers; i++) {
+            Voucher voucher = new Voucher();
+            voucher.setShopId(1L);
+            voucher.setTitle("压测秒杀券" + i);
+            voucher.setPayValue(100L);
+            voucher.setActualValue(1000L);
+            voucher.setType(1);
+            voucher.setStatus(1);
+            voucher.setStock(stock);
+            voucher.setStockShards(shards);
+            voucher.setBeginTime(now.minusSeconds(1));
+            voucher.setEndTime(now.plusHours(1));
+            voucherService.addSeckillVoucher(voucher);
+            voucherIds.add(voucher.getId());
+        }
+        for (Long voucherId : voucherIds) {
+            seckillVoucherService.warmUp(voucherId);
+            // 预热在一个pipeline中最后写入分片数，分片数存在说明库存已经就绪
+            while (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_SHARDS_KEY + voucherId))) {
+                Thread.sleep(50);
+            }
+        }
+
+        int batch = 1000;
+        for (int from = 0; from < users; from += batch) {
+            int to = Math.min(from + batch, users);
+            int begin = from;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (int i = begin; i < to; i++) {
+                    long userId = FIRST_USER_ID + i;
+                    Map<String, String> user = new HashMap<>();
+                    user.put("id", String.valueOf(userId));
+                    user.put("nickName", "user_" + userId);
+                    String key = LOGIN_USER_KEY + TOKEN_PREFIX + userId;
+                    conn.hMSet(key, user);
+                    conn.expire(key, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+                }
+                return null;
+            });
+        }
+        System.out.printf("已创建 %d 张秒杀券（每张库存 %d，%d 个分片），%d 个用户%n", vouchers, stock, shards, users);
+    }
+
+    // 所有 (用户, 券) 组合重复 attempts 次后打乱，由 concurrency 个线程依次发出
+    private long load() throws InterruptedException {
+        int total = users * vouchers * attempts;
+        int[] plan = new int[total];
+        for (int i = 0; i < total; i++) {
+            plan[i] = i % (users * vouchers);
+        }
+        Random random = new Random(42);
+        for (int i = total - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = plan[i];
+            plan[i] = plan[j];
+            plan[j] = tmp;
+        }
+        latencies = new long[total];
+        orderIds = new long[total];
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        long begin = System.nanoTime();
+        for (int t = 0; t < concurrency; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < total) {
+                        long userId = FIRST_USER_ID + plan[i] / vouchers;
+                        Long voucherId = voucherIds.get(plan[i] % vouchers);
+                        long start = System.nanoTime();
+                        orderIds[i] = seckill(userId, voucherId);
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + t);
+            thread.start();
+        }
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    private long seckill(long userId, Long voucherId) {
+        String outcome;
+        long orderId = 0;
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + "/voucher-order/seckill/" + voucherId).openConnection();
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("authorization", TOKEN_PREFIX + userId);
+            int status = conn.getResponseCode();
+            if (status != 200) {
+                drain(conn.getErrorStream());
+                outcome = "HTTP " + status;
+            } else {
+                JSONObject body = JSONUtil.parseObj(drain(conn.getInputStream()));
+                if (Boolean.TRUE.equals(body.getBool("success"))) {
+                    orderId = body.getLong("data");
+                    outcome = "下单成功";
+                } else {
+                    outcome = body.getStr("errorMsg");
+                }
+            }
+        } catch (IOException e) {
+            outcome = e.getClass().getSimpleName();
+        }
+        outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+        return orderId;
+    }
+
+    // 等待订单从消息队列全部写入数据库，返回等待时间
+    private long awaitOrders() throws InterruptedException {
+        long expected = Arrays.stream(orderIds).filter(id -> id != 0).count();
+        IVoucherOrderService voucherOrderService = context.getBean(IVoucherOrderService.class);
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.SECONDS.toNanos(drainSeconds);
+        while (voucherOrderService.query().in("voucher_id", voucherIds).count() < expected
+                && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private void report(long elapsed, long drained) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        long succeeded = Arrays.stream(orderIds).filter(id -> id != 0).count();
+        double seconds = elapsed / 1e9;
+        System.out.println();
+        System.out.println("==================== 秒杀压测结果 ====================");
+        System.out.printf("请求数: %d，并发: %d，耗时: %.2fs%n", sorted.length, concurrency, seconds);
+        System.out.printf("吞吐量: %.0f 请求/s，下单成功 %d 个（%.0f 单/s）%n",
+                sorted.length / seconds, succeeded, succeeded / seconds);
+        System.out.printf("延迟: p50 %.2fms，p99 %.2fms，p999 %.2fms，max %.2fms%n",
+                percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                sorted[sorted.length - 1] / 1e6);
+        System.out.printf("订单落库等待: %.2fs%n", drained / 1e9);
+        System.out.println("响应分布:");
+        new TreeMap<>(outcomes).forEach((k, v) -> System.out.printf("  %-20s %d%n", k, v.sum()));
+    }
+
+    private boolean verify() {
+        IVoucherOrderService voucherOrderService = context.getBean(IVoucherOrderService.class);
+        ISeckillVoucherService seckillVoucherService = context.getBean(ISeckillVoucherService.class);
+        boolean passed = true;
+        System.out.println("检查:");
+
+        // 1.超卖：每张券的订单数不超过库存，且数据库库存 + 订单数 = 初始库存
+        for (Long voucherId : voucherIds) {
+            int orders = voucherOrderService.query().eq("voucher_id", voucherId).count();
+            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+            boolean ok = orders <= stock && voucher.getStock() >= 0 && voucher.getStock() + orders == stock;
+            passed &= check(ok, "券 %d 未超卖：订单 %d，剩余库存 %d，初始库存 %d",
+                    voucherId, orders, voucher.getStock(), stock);
+        }
+
+        // 2.一人一单
+        List<Map<String, Object>> duplicates = voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("user_id", "voucher_id")
+                .in("voucher_id", voucherIds)
+                .groupBy("user_id", "voucher_id")
+                .having("COUNT(*) > 1"));
+        passed &= check(duplicates.isEmpty(), "无一人多单：重复的 (用户, 券) 组合 %d 个", duplicates.size());
+
+        // 3.丢单：抢购成功返回的订单id与数据库中的订单一一对应
+        Set<Long> responded = new HashSet<>();
+        int repeatedIds = 0;
+        for (long id : orderIds) {
+            if (id != 0 && !responded.add(id)) {
+                repeatedIds++;
+            }
+        }
+        Set<Long> stored = new HashSet<>(voucherOrderService.listObjs(new QueryWrapper<VoucherOrder>()
+                .select("id").in("voucher_id", voucherIds), o -> ((Number) o).longValue()));
+        passed &= check(repeatedIds == 0, "订单id不重复：重复 %d 个", repeatedIds);
+        passed &= check(stored.equals(responded), "无丢单：成功响应 %d 个，数据库订单 %d 个",
+                responded.size(), stored.size());
+        System.out.println(passed ? "全部检查通过" : "存在未通过的检查");
+        return passed;
+    }
+
+    private void close() {
+        if (context == null) {
+            return;
+        }
+        // 使用真实 Redis 时清理压测生成的登录token
+        if (System.getenv("BENCH_REDIS_HOST") != null) {
+            List<String> keys = new ArrayList<>(users);
+            for (int i = 0; i < users; i++) {
+                keys.add(LOGIN_USER_KEY + TOKEN_PREFIX + (FIRST_USER_ID + i));
+            }
+            stringRedisTemplate.delete(keys);
+        }
+        context.close();
+    }
+
+    private static boolean check(boolean ok, String format, Object... args) {
+        System.out.printf("  [%s] %s%n", ok ? "通过" : "失败", String.format(format, args));
+        return ok;
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.min(Math.max(index, 0), sorted.length - 1)] / 1e6;
+    }
+
+    private static String drain(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+}
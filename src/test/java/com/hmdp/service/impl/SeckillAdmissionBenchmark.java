@@ -0,0 +1,144 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.utils.SeckillStockShards;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀准入吞吐量随库存分片数的变化：mvn -Pbenchmark test -Djmh.include=SeckillAdmissionBenchmark
+ * <p>
+ * 每个分片的 key 带有所在分区的 hash tag，这里把每个分片路由到自己的 Redis 节点上，模拟 Redis Cluster 中分片落在不同的槽位。
+ * 默认每个分片启动一个本地 redis-server；设置环境变量 BENCH_REDIS_NODES=host:port,host:port,... 后连接已有的 Redis，
+ * 分片 k 使用第 k % 节点数 个节点，注意基准测试会清空这些 Redis 中本券相关的 key。
+ * 分片数增加时吞吐量的增长受限于压测机的 CPU 核数，需要在多核机器或独立的 Redis 节点上运行。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(16)
+public class SeckillAdmissionBenchmark {
+
+    private static final long VOUCHER_ID = 900_000_001L;
+
+    @Param({"1", "4", "8"})
+    public int shards;
+
+    private final List<RedisServer> servers = new ArrayList<>();
+    private final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+    private StringRedisTemplate[] templates;
+    private List<String>[] keys;
+    private DefaultRedisScript<Long> script;
+    private final AtomicLong userIds = new AtomicLong();
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException {
+        List<RedisStandaloneConfiguration> nodes = nodes();
+        SeckillStockShards stockShards = new SeckillStockShards(null, shards);
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("seckill.lua"));
+        script.setResultType(Long.class);
+
+        // 库存足够大，整个测试期间不会售罄
+        int[] parts = SeckillStockShards.split(Integer.MAX_VALUE, shards);
+        templates = new StringRedisTemplate[shards];
+        keys = new List[shards];
+        for (int i = 0; i < shards; i++) {
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(nodes.get(i % nodes.size()));
+            connectionFactory.afterPropertiesSet();
+            connectionFactories.add(connectionFactory);
+            templates[i] = new StringRedisTemplate(connectionFactory);
+
+            int p = stockShards.partition(VOUCHER_ID, i);
+            keys[i] = Arrays.asList(SeckillStockShards.key(SECKILL_WINDOW_KEY, p, VOUCHER_ID),
+                    SeckillStockShards.key(SECKILL_ORDER_KEY, p, VOUCHER_ID),
+                    SeckillStockShards.streamKey(p), SeckillStockShards.key(SECKILL_STOCK_KEY, p, VOUCHER_ID),
+                    SeckillStockShards.key(RATE_LIMIT_USER_KEY, p, VOUCHER_ID), SeckillStockShards.key(RATE_LIMIT_VOUCHER_KEY, p, VOUCHER_ID));
+            templates[i].delete(keys[i]);
+            templates[i].opsForValue().set(keys[i].get(3), String.valueOf(parts[i]));
+            Map<String, String> window = new HashMap<>();
+            window.put("begin", "0");
+            window.put("end", String.valueOf(Long.MAX_VALUE / 2));
+            templates[i].opsForHash().putAll(keys[i].get(0), window);
+        }
+    }
+
+    private List<RedisStandaloneConfiguration> nodes() throws IOException {
+        List<RedisStandaloneConfiguration> nodes = new ArrayList<>();
+        String configured = System.getenv("BENCH_REDIS_NODES");
+        if (configured != null) {
+            for (String node : configured.split(",")) {
+                String[] hostPort = node.trim().split(":");
+                nodes.add(new RedisStandaloneConfiguration(hostPort[0], Integer.parseInt(hostPort[1])));
+            }
+            return nodes;
+        }
+        for (int i = 0; i < shards; i++) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            RedisServer server = RedisServer.newRedisServer().bind("127.0.0.1").port(port).build();
+            server.start();
+            servers.add(server);
+            nodes.add(new RedisStandaloneConfiguration("127.0.0.1", port));
+        }
+        return nodes;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (int i = 0; i < shards; i++) {
+            templates[i].delete(keys[i]);
+        }
+        connectionFactories.forEach(LettuceConnectionFactory::destroy);
+        for (RedisServer server : servers) {
+            server.stop();
+        }
+    }
+
+    /**
+     * 和 SeckillStockShards.admit 一样只在用户的首选分片上执行一次脚本，库存充足时不会借库存；不限流
+     */
+    @Benchmark
+    public Long admit() {
+        long userId = userIds.incrementAndGet();
+        int home = SeckillStockShards.homeShard(userId, shards);
+        return templates[home].execute(script, keys[home],
+                String.valueOf(VOUCHER_ID), String.valueOf(userId), String.valueOf(System.currentTimeMillis()),
+                String.valueOf(userId), "0", "0", "0", "0", "0", "0");
+    }
+}
@@ -0,0 +1,166 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 订单消息队列的确认、死信和接管脚本。用到消费者组命令，使用真实的 Redis 运行
+ */
+class SeckillOrderStreamScriptTest {
+
+    private RedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = RedisServer.newRedisServer().bind("127.0.0.1").port(port).build();
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM_KEY, order(1));
+        stringRedisTemplate.opsForStream().createGroup(SECKILL_ORDER_STREAM_KEY, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    @Test
+    void ackDeletesOnlyPendingMessages() {
+        RecordId second = stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM_KEY, order(2));
+        List<MapRecord<String, Object, Object>> read = read("c-a");
+        assertEquals(2, read.size());
+        String window = SECKILL_WINDOW_KEY + 1;
+        stringRedisTemplate.opsForHash().put(window, "queued", "2");
+
+        assertEquals(Long.valueOf(2), run("seckill_order_ack.lua", Arrays.asList(SECKILL_ORDER_STREAM_KEY, window, window),
+                SECKILL_ORDER_GROUP, read.get(0).getId().getValue(), second.getValue()));
+        assertEquals(0L, stringRedisTemplate.opsForStream().size(SECKILL_ORDER_STREAM_KEY));
+        assertEquals(0L, stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP)
+                .getTotalPendingMessages());
+        assertEquals("0", stringRedisTemplate.opsForHash().get(window, "queued"));
+        // 重复确认不计数
+        assertEquals(Long.valueOf(0), run("seckill_order_ack.lua", Arrays.asList(SECKILL_ORDER_STREAM_KEY, window),
+                SECKILL_ORDER_GROUP, second.getValue()));
+        assertEquals("0", stringRedisTemplate.opsForHash().get(window, "queued"));
+    }
+
+    @Test
+    void ackAfterTheWindowIsReleasedDoesNotRecreateIt() {
+        MapRecord<String, Object, Object> record = read("c-a").get(0);
+        String window = SECKILL_WINDOW_KEY + 1;
+
+        assertEquals(Long.valueOf(1), run("seckill_order_ack.lua", Arrays.asList(SECKILL_ORDER_STREAM_KEY, window),
+                SECKILL_ORDER_GROUP, record.getId().getValue()));
+        assertFalse(stringRedisTemplate.hasKey(window));
+    }
+
+    @Test
+    void deadLetterMovesTheMessageWithItsFields() {
+        MapRecord<String, Object, Object> record = read("c-a").get(0);
+        String window = SECKILL_WINDOW_KEY + 1;
+        stringRedisTemplate.opsForHash().put(window, "queued", "1");
+        List<String> keys = Arrays.asList(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_DEAD_LETTER_KEY, window);
+
+        assertEquals(Long.valueOf(1), run("seckill_order_dead_letter.lua", keys,
+                SECKILL_ORDER_GROUP, record.getId().getValue(), "NumberFormatException", "10"));
+        assertEquals(0L, stringRedisTemplate.opsForStream().size(SECKILL_ORDER_STREAM_KEY));
+        List<MapRecord<String, Object, Object>> dead = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DEAD_LETTER_KEY, Range.unbounded());
+        assertEquals(1, dead.size());
+        Map<Object, Object> value = dead.get(0).getValue();
+        assertEquals("1", value.get("id"));
+        assertEquals(record.getId().getValue(), value.get("sourceId"));
+        assertEquals("NumberFormatException", value.get("reason"));
+        assertEquals("10", value.get("deliveries"));
+        // 不再等待这条订单落库
+        assertEquals("0", stringRedisTemplate.opsForHash().get(window, "queued"));
+        // 已经确认过的消息不再转移
+        assertEquals(Long.valueOf(0), run("seckill_order_dead_letter.lua", keys,
+                SECKILL_ORDER_GROUP, record.getId().getValue(), "again", "11"));
+        assertEquals(1L, stringRedisTemplate.opsForStream().size(SECKILL_ORDER_DEAD_LETTER_KEY));
+    }
+
+    @Test
+    void claimTakesOverIdleMessagesOfOtherConsumers() throws InterruptedException {
+        read("c-old");
+        // 还没有空闲够时不接管
+        assertEquals(Arrays.asList("0-0", 0L), claim("c-new", 60_000));
+
+        Thread.sleep(20);
+        assertEquals(Arrays.asList("0-0", 1L), claim("c-new", 10));
+        assertEquals(0L, stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY,
+                Consumer.from(SECKILL_ORDER_GROUP, "c-old")).size());
+        // 接管后从自己的 pending-list 读到，投递次数只算这一次读取
+        List<MapRecord<String, Object, Object>> pending = stringRedisTemplate.opsForStream().read(
+                Consumer.from(SECKILL_ORDER_GROUP, "c-new"), StreamReadOptions.empty().count(100),
+                StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.from("0")));
+        assertEquals(1, pending.size());
+        String id = pending.get(0).getId().getValue();
+        assertEquals(2L, stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY,
+                Consumer.from(SECKILL_ORDER_GROUP, "c-new"), Range.closed(id, id), 10).get(0).getTotalDeliveryCount());
+    }
+
+    private List<MapRecord<String, Object, Object>> read(String consumer) {
+        return stringRedisTemplate.opsForStream().read(Consumer.from(SECKILL_ORDER_GROUP, consumer),
+                StreamReadOptions.empty().count(100), StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed()));
+    }
+
+    private Long run(String script, List<String> keys, String... args) {
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+        redisScript.setLocation(new ClassPathResource(script));
+        redisScript.setResultType(Long.class);
+        return stringRedisTemplate.execute(redisScript, keys, (Object[]) args);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private List claim(String consumer, long minIdleMillis) {
+        DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
+        redisScript.setLocation(new ClassPathResource("seckill_order_claim.lua"));
+        redisScript.setResultType(List.class);
+        return stringRedisTemplate.execute(redisScript, Collections.singletonList(SECKILL_ORDER_STREAM_KEY),
+                SECKILL_ORDER_GROUP, consumer, String.valueOf(minIdleMillis), "0-0", "100");
+    }
+
+    private static Map<String, String> order(long id) {
+        Map<String, String> order = new HashMap<>();
+        order.put("userId", "1");
+        order.put("voucherId", "1");
+        order.put("id", String.valueOf(id));
+        return order;
+    }
+}
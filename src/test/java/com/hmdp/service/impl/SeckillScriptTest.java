@@ -0,0 +1,168 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.utils.EmbeddedRedisTest;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillStockShards;
+import io.lettuce.core.cluster.SlotHash;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * seckill.lua 和分片间借库存的准入语义，使用内存版 Redis 运行
+ */
+class SeckillScriptTest extends EmbeddedRedisTest {
+
+    private static final long VOUCHER_ID = 1L;
+    private static final int PARTITIONS = 8;
+
+    private SeckillStockShards stockShards;
+    private SeckillRateLimiter rateLimiter = limiter(false, 1, 1);
+
+    @BeforeEach
+    void setUp() {
+        stockShards = new SeckillStockShards(stringRedisTemplate, PARTITIONS);
+    }
+
+    @Test
+    void soldOutOnlyAfterAllShardsDrained() throws InterruptedException {
+        // 3 个库存分到 4 个分片：[1, 1, 1, 0]
+        prepare(3, 4, 0, Long.MAX_VALUE);
+        // 首选分片 3 为空的用户从其他分片借到库存
+        assertEquals(0, admit(3).getResult());
+        assertEquals(0, admit(7).getResult());
+        assertEquals(0, admit(11).getResult());
+        // 刚刚借空的分片被跳过，还不能确定售罄
+        SeckillStockShards.Admission admission = admit(15);
+        assertEquals(1, admission.getResult());
+        assertFalse(admission.isSoldOut());
+        Thread.sleep(300);
+        admission = admit(15);
+        assertEquals(1, admission.getResult());
+        assertTrue(admission.isSoldOut());
+
+        // 订单都记录在首选分片上：用户集合、所在分区的消息队列、还没落库的订单数
+        int home = stockShards.partition(VOUCHER_ID, 3);
+        assertEquals(3L, stringRedisTemplate.opsForSet().size(SeckillStockShards.key(SECKILL_ORDER_KEY, home, VOUCHER_ID)));
+        assertEquals(3L, stringRedisTemplate.opsForStream().size(SeckillStockShards.streamKey(home)));
+        assertEquals("3", stringRedisTemplate.opsForHash().get(SeckillStockShards.key(SECKILL_WINDOW_KEY, home, VOUCHER_ID), "queued"));
+        for (String key : stockShards.keys(SECKILL_STOCK_KEY, VOUCHER_ID, 4)) {
+            assertEquals("0", stringRedisTemplate.opsForValue().get(key));
+        }
+    }
+
+    @Test
+    void rejectsDuplicateOrderAlsoAfterBorrowing() {
+        // [1, 0]：用户 1 的首选分片为空
+        prepare(1, 2, 0, Long.MAX_VALUE);
+        assertEquals(0, admit(1).getResult());
+        assertEquals(2, admit(1).getResult());
+        // 其他分片补了库存，同一个用户仍然在首选分片上被拦截
+        assertEquals(SeckillStockShards.STOCK_ADDED, stockShards.addStock(VOUCHER_ID, 0, 1));
+        assertEquals(2, admit(1).getResult());
+        assertEquals(0, admit(2).getResult());
+    }
+
+    @Test
+    void checksSaleWindow() {
+        long now = System.currentTimeMillis();
+        prepare(10, 1, now + 60_000, now + 120_000);
+        assertEquals(3, admit(1).getResult());
+        prepare(10, 1, now - 120_000, now - 60_000);
+        assertEquals(4, admit(1).getResult());
+        stringRedisTemplate.delete(SeckillStockShards.key(SECKILL_WINDOW_KEY, stockShards.partition(VOUCHER_ID, 0), VOUCHER_ID));
+        assertEquals(5, admit(1).getResult());
+        // 没有预热的分片不写入库存
+        assertEquals(SeckillStockShards.STOCK_NOT_WARMED, stockShards.addStock(VOUCHER_ID, 0, 1));
+    }
+
+    @Test
+    void limitsUsersAndVoucherInTheSameCall() {
+        prepare(10, 2, 0, Long.MAX_VALUE);
+        rateLimiter = limiter(true, 1, 100);
+        assertEquals(0, admit(2).getResult());
+        // 用户桶为空时不再检查一人一单
+        assertEquals(SeckillRateLimiter.USER_LIMITED, admit(2).getResult());
+
+        // 优惠券桶容量 2，每个分片 1 个令牌
+        rateLimiter = limiter(true, 100, 2);
+        assertEquals(0, admit(4).getResult());
+        assertEquals(SeckillRateLimiter.VOUCHER_LIMITED, admit(6).getResult());
+        assertEquals(0, admit(1).getResult());
+        int p = stockShards.partition(VOUCHER_ID, 0);
+        assertEquals("3", stringRedisTemplate.opsForValue().get(SeckillStockShards.key(SECKILL_STOCK_KEY, p, VOUCHER_ID)));
+    }
+
+    @Test
+    void closedShardsTakeNoMoreStock() {
+        prepare(5, 2, 0, Long.MAX_VALUE);
+        assertEquals(0, admit(1).getResult());
+        // 剩余 [3, 1]，已经关闭的分片只关闭一次
+        assertEquals(3, stockShards.close(VOUCHER_ID, 0, 60));
+        assertEquals(1, stockShards.close(VOUCHER_ID, 1, 60));
+        assertEquals(-1, stockShards.close(VOUCHER_ID, 1, 60));
+
+        int p = stockShards.partition(VOUCHER_ID, 1);
+        assertFalse(stringRedisTemplate.hasKey(SeckillStockShards.key(SECKILL_STOCK_KEY, p, VOUCHER_ID)));
+        assertFalse(stringRedisTemplate.hasKey(SeckillStockShards.key(SECKILL_ORDER_KEY, p, VOUCHER_ID)));
+        assertTrue(stringRedisTemplate.getExpire(SeckillStockShards.key(SECKILL_WINDOW_KEY, p, VOUCHER_ID)) > 0);
+        // 补库存被拒绝且不会重新创建没有过期时间的库存key
+        assertEquals(SeckillStockShards.STOCK_CLOSED, stockShards.addStock(VOUCHER_ID, 1, 1));
+        assertFalse(stringRedisTemplate.hasKey(SeckillStockShards.key(SECKILL_STOCK_KEY, p, VOUCHER_ID)));
+        assertEquals(5, admit(2).getResult());
+    }
+
+    @Test
+    void eachShardStaysInOneSlot() {
+        int shards = 4;
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < shards; i++) {
+            int p = stockShards.partition(VOUCHER_ID, i);
+            List<String> keys = Arrays.asList(SeckillStockShards.key(SECKILL_WINDOW_KEY, p, VOUCHER_ID),
+                    SeckillStockShards.key(SECKILL_ORDER_KEY, p, VOUCHER_ID),
+                    SeckillStockShards.key(SECKILL_STOCK_KEY, p, VOUCHER_ID),
+                    SeckillStockShards.streamKey(p), SeckillStockShards.deadLetterKey(p));
+            int slot = SlotHash.getSlot(keys.get(0));
+            for (String key : keys) {
+                assertEquals(slot, SlotHash.getSlot(key), key);
+            }
+            slots.add(slot);
+        }
+        // 同一张券的分片在不同的槽位
+        assertEquals(shards, slots.size());
+        assertEquals(PARTITIONS, stockShards.normalize(100));
+    }
+
+    private void prepare(int stock, int shards, long begin, long end) {
+        int[] parts = SeckillStockShards.split(stock, shards);
+        for (int i = 0; i < shards; i++) {
+            int p = stockShards.partition(VOUCHER_ID, i);
+            stringRedisTemplate.opsForValue().set(SeckillStockShards.key(SECKILL_STOCK_KEY, p, VOUCHER_ID), String.valueOf(parts[i]));
+            Map<String, String> window = new HashMap<>();
+            window.put("begin", String.valueOf(begin));
+            window.put("end", String.valueOf(end));
+            stringRedisTemplate.opsForHash().putAll(SeckillStockShards.key(SECKILL_WINDOW_KEY, p, VOUCHER_ID), window);
+        }
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + VOUCHER_ID, String.valueOf(shards));
+        stockShards.register(VOUCHER_ID, shards);
+    }
+
+    private SeckillStockShards.Admission admit(long userId) {
+        return stockShards.admit(VOUCHER_ID, userId, userId, rateLimiter);
+    }
+
+    private static SeckillRateLimiter limiter(boolean enabled, int userBurst, int voucherBurst) {
+        return new SeckillRateLimiter(new SimpleMeterRegistry(), enabled, 1000, 1000,
+                0.001, userBurst, 0.001, voucherBurst);
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    static Shop shop() {
+        return new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078)
+                .setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123_000_000));
+    }
+
+    @Test
+    void roundTripsRegisteredTypes() {
+        Shop shop = shop();
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+
+        Voucher voucher = new Voucher().setId(2L).setShopId(1L).setTitle("100元代金券").setPayValue(8000L)
+                .setActualValue(10000L).setType(1).setStock(-3).setBeginTime(LocalDateTime.now());
+        assertEquals(voucher, codec.decode(codec.encode(voucher), Voucher.class));
+
+        UserDTO user = new UserDTO();
+        user.setId(Long.MAX_VALUE);
+        user.setNickName("user_x");
+        assertEquals(user, codec.decode(codec.encode(user), UserDTO.class));
+    }
+
+    @Test
+    void roundTripsLogicalExpireEnvelope() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30);
+        byte[] data = codec.encodeWithExpire(shop(), expireTime);
+        RedisData redisData = codec.decodeWithExpire(data, Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(shop(), redisData.getData());
+        assertEquals(expireTime, codec.decodeExpireTime(data));
+
+        // 数据库中不存在时重建写入的 null
+        assertNull(codec.decodeWithExpire(codec.encodeWithExpire(null, expireTime), Shop.class).getData());
+    }
+
+    @Test
+    void roundTripsRebuildCost() {
+        LocalDateTime expireTime = LocalDateTime.of(2030, 1, 1, 0, 0);
+        for (CacheCodec c : new CacheCodec[]{codec, new JsonCacheCodec()}) {
+            byte[] data = c.encodeWithExpire(shop(), expireTime, 42);
+            RedisData redisData = c.decodeWithExpire(data, Shop.class);
+            assertEquals(42L, redisData.getRebuildMillis());
+            assertEquals(expireTime, c.decodeExpireTime(data));
+            assertNull(c.decodeWithExpire(c.encodeWithExpire(shop(), expireTime), Shop.class).getRebuildMillis());
+        }
+    }
+
+    @Test
+    void roundTripsArraysOfRegisteredTypes() {
+        Shop other = shop().setId(2L).setName("蔡馬洪涛烤肉").setUpdateTime(null);
+        Shop[] shops = {shop(), other};
+        for (CacheCodec c : new CacheCodec[]{codec, new JsonCacheCodec()}) {
+            assertArrayEquals(shops, c.decode(c.encode(shops), Shop[].class));
+            assertEquals(0, c.decode(c.encode(new Shop[0]), Shop[].class).length);
+            LocalDateTime expireTime = LocalDateTime.of(2030, 1, 1, 0, 0);
+            assertArrayEquals(shops, (Shop[]) c.decodeWithExpire(c.encodeWithExpire(shops, expireTime), Shop[].class).getData());
+        }
+        // 数组只写一次指纹
+        assertTrue(codec.encode(shops).length < codec.encode(shop()).length + codec.encode(other).length);
+        assertThrows(IllegalStateException.class, () -> codec.decode(codec.encode(shops), Shop.class));
+        assertThrows(IllegalStateException.class, () -> codec.decode(codec.encode(shop()), Shop[].class));
+    }
+
+    @Test
+    void muchSmallerThanJson() {
+        byte[] binary = codec.encode(shop());
+        byte[] json = JSONUtil.toJsonStr(shop()).getBytes(StandardCharsets.UTF_8);
+        assertTrue(binary.length < json.length * 2 / 3, binary.length + " vs " + json.length);
+    }
+
+    @Test
+    void readsJsonWrittenBeforeSwitchingCodec() {
+        JsonCacheCodec json = new JsonCacheCodec();
+        LocalDateTime expireTime = LocalDateTime.of(2030, 1, 1, 0, 0);
+        byte[] data = json.encodeWithExpire(shop(), expireTime);
+        assertEquals(shop().getName(), ((Shop) codec.decodeWithExpire(data, Shop.class).getData()).getName());
+        assertEquals(expireTime, codec.decodeExpireTime(data));
+    }
+
+    @Test
+    void unregisteredTypeFallsBackToJson() {
+        RedisData value = new RedisData();
+        value.setExpireTime(LocalDateTime.of(2030, 1, 1, 0, 0));
+        assertEquals(value.getExpireTime(), codec.decode(codec.encode(value), RedisData.class).getExpireTime());
+    }
+
+    @Test
+    void rejectsDataOfAnotherType() {
+        byte[] data = codec.encode(shop());
+        assertThrows(IllegalStateException.class, () -> codec.decode(data, Voucher.class));
+        assertThrows(IllegalStateException.class, () -> codec.decode(new byte[]{(byte) 0xC7, 0, 1}, Shop.class));
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 两个 BloomFilterRegistry 模拟两个节点，共享内存版 Redis
+ */
+class BloomFilterRegistryTest extends EmbeddedRedisTest {
+
+    private static final String NAME = "bloom:test";
+    private static final String PREFIX = "cache:test:";
+
+    private RedisMessageListenerContainer container;
+    private SimpleMeterRegistry registry;
+
+    /**
+     * 模拟的数据表，id 为 1 ~ 2000 的偶数
+     */
+    private final List<Long> table = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        container = newContainer();
+        container.start();
+        registry = new SimpleMeterRegistry();
+        for (long id = 2; id <= 2000; id += 2) {
+            table.add(id);
+        }
+    }
+
+    @Test
+    void existingIdsPassAndMostMissingIdsAreRejected() {
+        BloomFilterRegistry node = node(registry, 100);
+        for (Long id : table) {
+            assertTrue(node.mightContainKey(PREFIX, id));
+        }
+        int falsePositives = 0;
+        int probes = 1_000;
+        for (long id = 1; id < probes * 2; id += 2) {
+            if (node.mightContainKey(PREFIX, id)) {
+                falsePositives++;
+            }
+        }
+        double fpp = (double) falsePositives / probes;
+        System.out.printf("实际误判率 %.5f，估算误判率 %.5f，本地占用 %.0f 字节%n", fpp,
+                registry.get("hmdp.bloom.fpp").gauge().value(), registry.get("hmdp.bloom.bytes").gauge().value());
+        assertTrue(fpp < 0.02, "误判率 " + fpp);
+        assertEquals(probes - falsePositives, registry.get("hmdp.bloom.rejected").counter().count());
+        // 没有登记过滤器的前缀不拦截
+        assertTrue(node.mightContainKey("cache:other:", 1L));
+    }
+
+    @Test
+    void idsAddedOnOneNodeAreVisibleOnAnother() {
+        BloomFilterRegistry node1 = node(registry, 100);
+        BloomFilterRegistry node2 = node(new SimpleMeterRegistry(), 100);
+        long id = 100_001L;
+        assertFalse(node2.mightContain(NAME, id));
+        node1.add(NAME, id);
+        // 无论广播是否已经到达，node2 都会以 Redis 为准
+        assertTrue(node2.mightContain(NAME, id));
+        assertTrue(node1.mightContain(NAME, id));
+        // 比已知的id小的新增（例如补录的数据），在新增之后的一段时间内同样以 Redis 为准
+        long older = 1_001L;
+        node1.add(NAME, older);
+        assertTrue(node2.mightContain(NAME, older));
+    }
+
+    @Test
+    void localNegativeIsTrustedUnlessTheIdMayBeNew() {
+        BloomFilterRegistry node = node(registry, 100);
+        long missing = LongStream.iterate(1, id -> id + 2)
+                .filter(id -> !node.mightContain(NAME, id))
+                .findFirst().getAsLong();
+        // Redis 中的过滤器不可用时（没有构建完成），本地判断不存在的仍然直接拒绝
+        stringRedisTemplate.delete(NAME);
+        assertFalse(node.mightContain(NAME, missing));
+        // 比已知的id都大的以 Redis 为准
+        assertTrue(node.mightContain(NAME, 100_001L));
+    }
+
+    @Test
+    void filterScalesBeyondInitialCapacity() {
+        // 空表的初始容量为 100，新增 400 个id后扩展为 100、200、400 三个子过滤器
+        table.clear();
+        BloomFilterRegistry node1 = node(registry, 100);
+        for (long id = 10_000; id < 10_400; id++) {
+            node1.add(NAME, id);
+        }
+        assertEquals("3", stringRedisTemplate.opsForHash().get(NAME, "filters"));
+        // 新节点从 Redis 确认的同时，本地过滤器也会按表构建并扩展
+        table.addAll(longRange(10_000, 10_400));
+        BloomFilterRegistry node2 = node(new SimpleMeterRegistry(), 100);
+        for (long id = 10_000; id < 10_400; id++) {
+            assertTrue(node1.mightContain(NAME, id));
+            assertTrue(node2.mightContain(NAME, id));
+        }
+        int falsePositives = 0;
+        for (long id = 100_001; id < 101_000; id += 2) {
+            if (node1.mightContain(NAME, id)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 10, "误判 " + falsePositives + " 次");
+    }
+
+    private BloomFilterRegistry node(SimpleMeterRegistry meterRegistry, long minCapacity) {
+        BloomFilterRegistry node = new BloomFilterRegistry(stringRedisTemplate, container, meterRegistry,
+                0.01, minCapacity);
+        node.init();
+        node.register(NAME, PREFIX, table::size, (afterId, limit) -> table.stream()
+                .filter(id -> id > afterId)
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList()));
+        node.buildAll();
+        return node;
+    }
+
+    private static List<Long> longRange(long from, long to) {
+        return LongStream.range(from, to).boxed().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 注解方式与直接调用 CacheClient 的对比：mvn -Pbenchmark test -Djmh.include=CacheAnnotationBenchmark
+ * <p>
+ * 与 ShopServiceImpl 一样使用逻辑过期，100 个店铺已经写入嵌入式 Redis（真实的 redis-server 进程）：
+ * tier=l1 时都在本地缓存中；tier=redis 时本地缓存条数为 0，每次查询 Redis。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheAnnotationBenchmark {
+
+    private static final String PREFIX = "cache:bench:";
+    private static final int SHOPS = 100;
+
+    @Param({"l1", "redis"})
+    public String tier;
+
+    private RedisServer redisServer;
+    private LettuceConnectionFactory connectionFactory;
+    private RedisMessageListenerContainer container;
+    private RedisLockClient lockClient;
+    private CacheRebuildExecutor rebuildExecutor;
+    private CacheClient cacheClient;
+    private ShopRepository target;
+    private ShopRepository proxy;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = RedisServer.newRedisServer().bind("127.0.0.1").port(port).build();
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.afterPropertiesSet();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        lockClient = new RedisLockClient(template, container, 30_000);
+        rebuildExecutor = new CacheRebuildExecutor(registry, 4, 1000, 1000);
+        cacheClient = new CacheClient(template, lockClient, container,
+                new BinaryCacheCodec(), new SingleFlight(registry, 3000),
+                new BloomFilterRegistry(template, container, registry, 0.01, 100),
+                rebuildExecutor,
+                new CacheMetrics(registry),
+                new HotKeyDetector(registry, 0.1, 5, 2000, 200, 0.5, 100, 4096),
+                registry, "l1".equals(tier) ? 10_000 : 0, 60, 0.1, 1.0, 5000);
+        target = new ShopRepository();
+        // 与 CacheConfig 相同的 advisor
+        ProxyFactory factory = new ProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAdvisor(new DefaultPointcutAdvisor(
+                new ComposablePointcut(AnnotationMatchingPointcut.forMethodAnnotation(HmdpCacheable.class))
+                        .union(AnnotationMatchingPointcut.forMethodAnnotation(HmdpCacheEvict.class)),
+                new CacheInterceptor(() -> cacheClient)));
+        proxy = (ShopRepository) factory.getProxy();
+        for (long id = 1; id <= SHOPS; id++) {
+            cacheClient.setWithLogicalExpire(PREFIX + id, target.load(id), 30L, TimeUnit.MINUTES);
+            handWritten();
+            annotated();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        rebuildExecutor.destroy();
+        lockClient.destroy();
+        container.destroy();
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public Shop handWritten() {
+        return cacheClient.queryWithLogicalExpire(PREFIX, nextId(), Shop.class, target::load, 30L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop annotated() {
+        return proxy.queryShop(nextId());
+    }
+
+    private Long nextId() {
+        return next++ % SHOPS + 1;
+    }
+
+    public static class ShopRepository {
+
+        private final Shop shop = BinaryCacheCodecTest.shop();
+
+        @HmdpCacheable(prefix = PREFIX, strategy = CacheStrategy.LOGICAL_EXPIRE, ttl = 30)
+        public Shop queryShop(Long id) {
+            return load(id);
+        }
+
+        Shop load(Long id) {
+            return shop;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 批量查询与逐个查询的对比：mvn -Pbenchmark test -Djmh.include=CacheClientBatchBenchmark
+ * <p>
+ * 使用嵌入式 Redis（真实的 redis-server 进程），每次调用前清空本地缓存：
+ * source=redis 时 50 个id都在 Redis 中；source=db 时都不在缓存中，数据库每次查询固定耗时 dbMicros 微秒。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheClientBatchBenchmark {
+
+    private static final String PREFIX = "cache:bench:";
+    private static final int BATCH_SIZE = 50;
+
+    @Param({"redis", "db"})
+    public String source;
+
+    @Param({"500"})
+    public long dbMicros;
+
+    private RedisServer redisServer;
+    private LettuceConnectionFactory connectionFactory;
+    private RedisMessageListenerContainer container;
+    private RedisLockClient lockClient;
+    private CacheRebuildExecutor rebuildExecutor;
+    private CacheClient cacheClient;
+    private List<Long> ids;
+    private Shop shop;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = RedisServer.newRedisServer().bind("127.0.0.1").port(port).build();
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.afterPropertiesSet();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        lockClient = new RedisLockClient(template, container, 30_000);
+        rebuildExecutor = new CacheRebuildExecutor(registry, 4, 1000, 1000);
+        cacheClient = new CacheClient(template, lockClient, container,
+                new BinaryCacheCodec(), new SingleFlight(registry, 3000),
+                new BloomFilterRegistry(template, container, registry, 0.01, 100),
+                rebuildExecutor,
+                new CacheMetrics(registry),
+                new HotKeyDetector(registry, 0.1, 5, 2000, 200, 0.5, 100, 4096),
+                registry, 10_000, 60, 0.1, 1.0, 5000);
+        shop = BinaryCacheCodecTest.shop();
+        ids = new ArrayList<>();
+        for (long id = 1; id <= BATCH_SIZE; id++) {
+            ids.add(id);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void resetCache() {
+        for (Long id : ids) {
+            cacheClient.delete(PREFIX + id);
+            if ("redis".equals(source)) {
+                cacheClient.set(PREFIX + id, shop, 30L, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        rebuildExecutor.destroy();
+        lockClient.destroy();
+        container.destroy();
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public void singleCalls(Blackhole bh) {
+        for (Long id : ids) {
+            bh.consume(cacheClient.queryWithPassThrough(PREFIX, id, Shop.class, this::loadOne, 30L, TimeUnit.MINUTES));
+        }
+    }
+
+    @Benchmark
+    public Map<Long, Shop> batch() {
+        return cacheClient.queryBatch(PREFIX, ids, Shop.class, this::loadAll, 30L, TimeUnit.MINUTES);
+    }
+
+    private Shop loadOne(Long id) {
+        LockSupport.parkNanos(dbMicros * 1000);
+        return shop;
+    }
+
+    private Map<Long, Shop> loadAll(Collection<Long> missIds) {
+        LockSupport.parkNanos(dbMicros * 1000);
+        Map<Long, Shop> found = new HashMap<>();
+        for (Long id : missIds) {
+            found.put(id, shop);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,300 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.ShopType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 两级缓存的本地命中和跨节点失效，两个 CacheClient 模拟两个节点，使用内存版 Redis 运行
+ */
+class CacheClientTest extends EmbeddedRedisTest {
+
+    private static final String PREFIX = "cache:test:";
+
+    private RedisMessageListenerContainer container;
+    private SimpleMeterRegistry registry;
+    private CacheClient node1;
+    private CacheClient node2;
+    private HotKeyDetector node2HotKeys;
+    private RedisLockClient lockClient;
+    private CacheRebuildExecutor node1Rebuilds;
+    private CacheRebuildExecutor node2Rebuilds;
+
+    private final AtomicInteger dbQueries = new AtomicInteger();
+    private volatile String dbName = "v1";
+    private final Function<Long, ShopType> db = id -> {
+        dbQueries.incrementAndGet();
+        ShopType type = new ShopType();
+        type.setId(id);
+        type.setName(dbName);
+        return type;
+    };
+
+    @BeforeEach
+    void setUp() {
+        container = newContainer();
+        registry = new SimpleMeterRegistry();
+        lockClient = new RedisLockClient(stringRedisTemplate, container, 30_000);
+        node1Rebuilds = new CacheRebuildExecutor(registry, 2, 100, 1000);
+        CacheCodec codec = new BinaryCacheCodec();
+        node1 = new CacheClient(stringRedisTemplate, lockClient, container, codec,
+                new SingleFlight(registry, 3000), noBloomFilters(registry),
+                node1Rebuilds,
+                new CacheMetrics(registry),
+                new HotKeyDetector(registry, 0.1, 5, 2000, 200, 0.5, 100, 4096),
+                registry, 100, 60, 0.1, 1.0, 5000);
+        SimpleMeterRegistry registry2 = new SimpleMeterRegistry();
+        // node2 不抽样，每秒 1 次访问（窗口 10 秒内 10 次）即为热点
+        node2HotKeys = new HotKeyDetector(registry2, 1.0, 5, 2000, 1, 0.5, 100, 4096);
+        node2Rebuilds = new CacheRebuildExecutor(registry2, 2, 100, 1000);
+        node2 = new CacheClient(stringRedisTemplate, lockClient, container, codec,
+                new SingleFlight(registry2, 3000), noBloomFilters(registry2),
+                node2Rebuilds,
+                new CacheMetrics(registry2),
+                node2HotKeys,
+                registry2, 100, 60, 0.1, 1.0, 5000);
+        node1.init();
+        node2.init();
+        container.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        node1Rebuilds.destroy();
+        node2Rebuilds.destroy();
+        lockClient.destroy();
+    }
+
+    // 测试的key前缀没有登记过滤器，不拦截
+    private BloomFilterRegistry noBloomFilters(SimpleMeterRegistry meterRegistry) {
+        return new BloomFilterRegistry(stringRedisTemplate, container, meterRegistry, 0.01, 100);
+    }
+
+    @Test
+    void repeatedReadsAreServedFromL1() {
+        assertEquals("v1", query(node1, 1L).getName());
+        // 直接改写 Redis，本地缓存命中时看不到
+        stringRedisTemplate.opsForValue().set(PREFIX + 1, "{\"id\":1,\"name\":\"changed\"}");
+        assertEquals("v1", query(node1, 1L).getName());
+        assertEquals(1, dbQueries.get());
+        assertEquals(1.0, registry.get("hmdp.cache.gets").tags("tier", "l1", "result", "hit").counter().count());
+        assertEquals(1.0, registry.get("hmdp.cache.gets").tags("tier", "redis", "result", "miss").counter().count());
+        assertEquals(1L, registry.get("hmdp.cache.latency").tags("tier", "db").timer().count());
+        assertEquals(1.0, requests(PREFIX, CacheMetrics.MISS));
+        assertEquals(1.0, requests(PREFIX, CacheMetrics.HIT));
+        assertEquals(2L, registry.get("hmdp.cache.request.latency").tags("cache", PREFIX).timer().count());
+    }
+
+    @Test
+    void mutexMissWaitsForTheNodeHoldingTheLock() throws Exception {
+        ILock lock = lockClient.getLock(RedisConstants.CACHE_LOCK_KEY + PREFIX + 8);
+        assertTrue(lock.tryLock());
+        CompletableFuture<ShopType> waiting = CompletableFuture.supplyAsync(
+                () -> node1.queryWithMutex(PREFIX, 8L, ShopType.class, db, 10L, TimeUnit.MINUTES));
+        Thread.sleep(200);
+        assertFalse(waiting.isDone());
+
+        // 持有锁的节点写入缓存后释放锁，等待的节点直接读取，不再查询数据库
+        ShopType loaded = new ShopType();
+        loaded.setId(8L);
+        loaded.setName("other-node");
+        node2.set(PREFIX + 8, loaded, 10L, TimeUnit.MINUTES);
+        lock.unlock();
+        assertEquals("other-node", waiting.get(5, TimeUnit.SECONDS).getName());
+        assertEquals(0, dbQueries.get());
+    }
+
+    @Test
+    void logicallyExpiredValueIsReturnedAndRebuilt() throws InterruptedException {
+        ShopType stale = new ShopType();
+        stale.setId(6L);
+        stale.setName("stale");
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.stringCommands().set(
+                (PREFIX + 6).getBytes(StandardCharsets.UTF_8),
+                new BinaryCacheCodec().encodeWithExpire(stale, LocalDateTime.now().minusSeconds(1))));
+
+        assertEquals("stale", node1.queryWithLogicalExpire(PREFIX, 6L, ShopType.class, db, 10L, TimeUnit.MINUTES)
+                .getName());
+        assertEquals(1.0, requests(PREFIX, CacheMetrics.LOGICAL_EXPIRED));
+        assertEquals(1.0, requests(PREFIX, CacheMetrics.REBUILD_STARTED));
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!"v1".equals(node1.queryWithLogicalExpire(PREFIX, 6L, ShopType.class, db, 10L, TimeUnit.MINUTES)
+                .getName()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, dbQueries.get());
+        assertEquals(0.0, requests(PREFIX, CacheMetrics.REBUILD_FAILED));
+    }
+
+    @Test
+    void nullResultIsCachedInL1() {
+        Function<Long, ShopType> missing = id -> {
+            dbQueries.incrementAndGet();
+            return null;
+        };
+        assertNull(node1.queryWithPassThrough(PREFIX, 2L, ShopType.class, missing, 10L, TimeUnit.MINUTES));
+        assertNull(node1.queryWithPassThrough(PREFIX, 2L, ShopType.class, missing, 10L, TimeUnit.MINUTES));
+        assertEquals(1, dbQueries.get());
+    }
+
+    @Test
+    void deleteInvalidatesL1OnAllNodes() throws InterruptedException {
+        assertEquals("v1", query(node1, 1L).getName());
+        assertEquals("v1", query(node2, 1L).getName());
+
+        dbName = "v2";
+        node1.delete(PREFIX + 1);
+        // node1 本地立即失效，node2 收到广播后失效
+        assertEquals("v2", query(node1, 1L).getName());
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!"v2".equals(query(node2, 1L).getName()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("v2", query(node2, 1L).getName());
+    }
+
+    @Test
+    void pinnedHotKeyIsInvalidatedByBroadcast() throws InterruptedException {
+        for (int i = 0; i < 20; i++) {
+            assertEquals("v1", query(node2, 7L).getName());
+        }
+        assertTrue(node2HotKeys.isHot(PREFIX + 7));
+        assertEquals(1, dbQueries.get());
+
+        dbName = "v2";
+        node1.delete(PREFIX + 7);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!"v2".equals(query(node2, 7L).getName()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("v2", query(node2, 7L).getName());
+    }
+
+    @Test
+    void evictionDuringLoadKeepsOnlyThatKeyOutOfL1() {
+        // 加载 1 期间 2 失效，不影响 1 写入 L1
+        node1.queryWithPassThrough(PREFIX, 1L, ShopType.class, id -> {
+            node1.delete(PREFIX + 2);
+            return db.apply(id);
+        }, 10L, TimeUnit.MINUTES);
+        query(node1, 1L);
+        assertEquals(1.0, l1Hits());
+        // 加载 3 期间 3 失效，读到的值不放入 L1
+        node1.queryWithPassThrough(PREFIX, 3L, ShopType.class, id -> {
+            node1.delete(PREFIX + 3);
+            return db.apply(id);
+        }, 10L, TimeUnit.MINUTES);
+        query(node1, 3L);
+        assertEquals(1.0, l1Hits());
+    }
+
+    @Test
+    void batchQueryLoadsAllMissesWithOneDbQuery() {
+        // 1 在 node1 本地缓存中，2 只在 Redis 中，3、4 都没有缓存，其中 4 在数据库中不存在
+        query(node1, 1L);
+        query(node2, 2L);
+        List<Collection<Long>> dbCalls = new ArrayList<>();
+        Function<Collection<Long>, Map<Long, ShopType>> batchDb = ids -> {
+            dbCalls.add(new ArrayList<>(ids));
+            Map<Long, ShopType> found = new HashMap<>();
+            ids.stream().filter(id -> id != 4L).forEach(id -> found.put(id, db.apply(id)));
+            return found;
+        };
+        Map<Long, ShopType> result = node1.queryBatch(PREFIX, Arrays.asList(3L, 1L, 4L, 2L, 3L), ShopType.class,
+                batchDb, 10L, TimeUnit.MINUTES);
+        assertEquals(Arrays.asList(3L, 1L, 2L), new ArrayList<>(result.keySet()));
+        assertEquals(Collections.singletonList(Arrays.asList(3L, 4L)), dbCalls);
+        // 查询结果和空值都已写回 Redis，node2 再次批量查询不访问数据库
+        assertEquals("", stringRedisTemplate.opsForValue().get(PREFIX + 4));
+        assertEquals(3, node2.queryBatch(PREFIX, Arrays.asList(1L, 2L, 3L, 4L), ShopType.class,
+                batchDb, 10L, TimeUnit.MINUTES).size());
+        assertEquals(1, dbCalls.size());
+    }
+
+    @Test
+    void writesJitterTtl() {
+        query(node1, 1L);
+        long ttl = stringRedisTemplate.getExpire(PREFIX + 1, TimeUnit.SECONDS);
+        assertTrue(ttl > 590 && ttl <= 660, "ttl " + ttl);
+    }
+
+    @Test
+    void expensiveEntryNearExpiryIsRefreshedEarly() throws InterruptedException {
+        ShopType stale = new ShopType();
+        stale.setId(5L);
+        stale.setName("stale");
+        // 离过期还有 1 秒，但上次重建耗时 1000 秒，几乎一定提前刷新
+        byte[] data = new BinaryCacheCodec().encodeWithExpire(stale, LocalDateTime.now().plusSeconds(1), 1_000_000);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.stringCommands().set((PREFIX + 5).getBytes(StandardCharsets.UTF_8), data));
+
+        assertEquals("stale", queryEarly(node1, 5L).getName());
+        // 等待后台刷新写回 Redis
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!"v1".equals(cachedName(5L)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, dbQueries.get());
+        // 刷新后的值带有真实的耗时和新的过期时间，node2 读到后不会再刷新
+        assertEquals("v1", queryEarly(node2, 5L).getName());
+        Thread.sleep(200);
+        assertEquals(1, dbQueries.get());
+    }
+
+    @Test
+    void refreshProbabilityGrowsTowardsExpiry() {
+        long expire = 100_000;
+        // random=1 时 ln(random)=0，只有已经过期才刷新
+        assertFalse(CacheClient.shouldRefreshEarly(99_999, expire, 50, 1.0, 1.0));
+        assertTrue(CacheClient.shouldRefreshEarly(100_000, expire, 50, 1.0, 1.0));
+        // 离过期 100ms、重建 50ms：random < e^-2 时刷新
+        assertTrue(CacheClient.shouldRefreshEarly(99_900, expire, 50, 1.0, 0.1));
+        assertFalse(CacheClient.shouldRefreshEarly(99_900, expire, 50, 1.0, 0.2));
+        // beta=0 时不提前刷新
+        assertFalse(CacheClient.shouldRefreshEarly(99_999, expire, 50, 0, 0.0001));
+    }
+
+    private double l1Hits() {
+        return registry.get("hmdp.cache.gets").tags("tier", "l1", "result", "hit").counter().count();
+    }
+
+    private double requests(String cache, String outcome) {
+        Counter counter = registry.find("hmdp.cache.requests").tags("cache", cache, "outcome", outcome).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private String cachedName(Long id) {
+        byte[] data = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get((PREFIX + id).getBytes(StandardCharsets.UTF_8)));
+        return ((ShopType) new BinaryCacheCodec().decodeWithExpire(data, ShopType.class).getData()).getName();
+    }
+
+    private ShopType queryEarly(CacheClient client, Long id) {
+        return client.queryWithEarlyRefresh(PREFIX, id, ShopType.class, db, 10L, TimeUnit.MINUTES);
+    }
+
+    private ShopType query(CacheClient client, Long id) {
+        return client.queryWithPassThrough(PREFIX, id, ShopType.class, db, 10L, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编解码器对比：mvn -Pbenchmark test -Djmh.include=CacheCodecBenchmark
+ * <p>
+ * 以逻辑过期的店铺缓存为例，分别测量编码、解码的耗时；-prof gc 的 gc.alloc.rate.norm 为每次操作分配的字节数，
+ * Redis 中保存的字节数在启动时打印。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    @Param({"json", "binary"})
+    public String codecName;
+
+    private CacheCodec codec;
+    private Shop shop;
+    private LocalDateTime expireTime;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        codec = "json".equals(codecName) ? new JsonCacheCodec() : new BinaryCacheCodec();
+        shop = BinaryCacheCodecTest.shop();
+        expireTime = LocalDateTime.now().plusMinutes(30);
+        data = codec.encodeWithExpire(shop, expireTime);
+        System.out.println(codecName + " 编码后的字节数: " + data.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encodeWithExpire(shop, expireTime);
+    }
+
+    @Benchmark
+    public RedisData decode() {
+        return codec.decodeWithExpire(data, Shop.class);
+    }
+}
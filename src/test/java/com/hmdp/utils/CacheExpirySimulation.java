@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 用虚拟时钟模拟批量写入的 key 过期时的数据库压力，比较固定过期时间、随机延长过期时间（ttl-jitter）和 XFetch 提前刷新。
+ * <p>
+ * 10000 个 key 在 0 时刻一起写入（与预热相同），过期时间 1800 秒，每秒 2000 次读取，key 的访问次数服从 Zipf 分布，
+ * 每次查询数据库耗时 50ms。未命中时同一个 key 只查询一次数据库（single-flight），其他请求等待。
+ * 运行：mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt 之后
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) com.hmdp.utils.CacheExpirySimulation
+ */
+public class CacheExpirySimulation {
+
+    private static final int KEYS = 10_000;
+    private static final long TTL_MILLIS = 1800_000;
+    private static final int REQUESTS_PER_SECOND = 2000;
+    private static final long REBUILD_MILLIS = 50;
+    private static final int SECONDS = 4000;
+    private static final double ZIPF_EXPONENT = 1.0;
+
+    public static void main(String[] args) {
+        double[] cdf = zipf();
+        System.out.printf("%-16s %12s %12s %12s %14s%n", "mode", "peak load/s", "mean load/s", "db loads", "blocked reqs");
+        run("fixed ttl", cdf, 0, 0);
+        run("jitter 0.1", cdf, 0.1, 0);
+        run("xfetch", cdf, 0, 1.0);
+        run("jitter + xfetch", cdf, 0.1, 1.0);
+    }
+
+    private static void run(String mode, double[] cdf, double jitter, double beta) {
+        Random random = new Random(42);
+        long[] expireAt = new long[KEYS];
+        long[] loadingUntil = new long[KEYS];
+        // 正在进行的查询是否由未命中触发：是则其他请求等待结果，否则（提前刷新）返回旧值
+        boolean[] missLoad = new boolean[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            expireAt[i] = ttl(random, jitter);
+        }
+        int[] loadsPerSecond = new int[SECONDS];
+        long blocked = 0;
+        long requests = (long) SECONDS * REQUESTS_PER_SECOND;
+        for (long n = 0; n < requests; n++) {
+            long now = n * 1000 / REQUESTS_PER_SECOND;
+            int key = sample(cdf, random.nextDouble());
+            if (now < loadingUntil[key]) {
+                if (missLoad[key]) {
+                    blocked++;
+                }
+                continue;
+            }
+            boolean miss = now >= expireAt[key];
+            if (miss || beta > 0 && CacheClient.shouldRefreshEarly(now, expireAt[key], REBUILD_MILLIS, beta,
+                    1 - random.nextDouble())) {
+                if (miss) {
+                    blocked++;
+                }
+                loadsPerSecond[(int) (now / 1000)]++;
+                missLoad[key] = miss;
+                loadingUntil[key] = now + REBUILD_MILLIS;
+                expireAt[key] = now + REBUILD_MILLIS + ttl(random, jitter);
+            }
+        }
+        int peak = Arrays.stream(loadsPerSecond).max().orElse(0);
+        long total = Arrays.stream(loadsPerSecond).asLongStream().sum();
+        System.out.printf("%-16s %12d %12.1f %12d %14d%n", mode, peak, (double) total / SECONDS, total, blocked);
+    }
+
+    private static long ttl(Random random, double jitter) {
+        return TTL_MILLIS + (long) (TTL_MILLIS * jitter * random.nextDouble());
+    }
+
+    private static double[] zipf() {
+        double[] cdf = new double[KEYS];
+        double sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < KEYS; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, double u) {
+        int i = Arrays.binarySearch(cdf, u);
+        return Math.min(i >= 0 ? i : -i - 1, KEYS - 1);
+    }
+}
@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheConfig;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CacheInterceptorTest {
+
+    private CacheClient cacheClient;
+    private Catalog target;
+    private Catalog catalog;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        cacheClient = mock(CacheClient.class);
+        ObjectProvider<CacheClient> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(cacheClient);
+        target = new Catalog();
+        ProxyFactory factory = new ProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAdvisor(CacheConfig.cacheAnnotationAdvisor(provider));
+        catalog = (Catalog) factory.getProxy();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void missLoadsThroughTheTargetWithTheConfiguredStrategy() {
+        when(cacheClient.queryWithMutex(anyString(), any(), any(), any(), anyLong(), any())).thenAnswer(
+                invocation -> ((Function<Object, Object>) invocation.getArgument(3)).apply(invocation.getArgument(1)));
+
+        Shop[] shops = catalog.shopsOfType(7L);
+
+        assertEquals(7L, shops[0].getTypeId());
+        assertEquals(1, target.loads.get());
+        verify(cacheClient).queryWithMutex(eq("cache:test:type:"), eq(7L), eq(Shop[].class), any(), eq(5L),
+                eq(TimeUnit.MINUTES));
+        // 没有注解的方法不经过缓存
+        catalog.plain();
+        verifyNoMoreInteractions(cacheClient);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void backgroundRebuildRunsTheTargetAfterTheCallReturned() throws Exception {
+        ArgumentCaptor<Function<Long, Shop>> fallback = ArgumentCaptor.forClass(Function.class);
+        Shop stale = new Shop().setId(3L).setName("旧");
+        when(cacheClient.queryWithLogicalExpire(eq("cache:test:shop:"), eq(3L), eq(Shop.class), fallback.capture(),
+                eq(30L), eq(TimeUnit.SECONDS))).thenReturn(stale);
+
+        assertSame(stale, catalog.shop(3L));
+        assertEquals(0, target.loads.get());
+
+        // CacheClient 在重建线程中调用
+        Shop rebuilt = CompletableFuture.supplyAsync(() -> fallback.getValue().apply(3L)).get(5, TimeUnit.SECONDS);
+        assertEquals(3L, rebuilt.getId());
+        assertEquals(1, target.loads.get());
+    }
+
+    @Test
+    void nullKeyBypassesTheCache() {
+        assertNull(catalog.shop(null));
+        assertEquals(1, target.loads.get());
+        verifyNoInteractions(cacheClient);
+    }
+
+    @Test
+    void evictsAfterSuccessOnly() {
+        catalog.update(new Shop().setId(5L).setName("新"));
+        verify(cacheClient).delete("cache:test:shop:5");
+
+        assertThrows(IllegalArgumentException.class, () -> catalog.update(new Shop().setId(6L)));
+        verify(cacheClient, never()).delete("cache:test:shop:6");
+    }
+
+    @Test
+    void evictsAfterTheSurroundingTransactionCommits() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            catalog.update(new Shop().setId(5L).setName("新"));
+            verify(cacheClient, never()).delete(anyString());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            verify(cacheClient).delete("cache:test:shop:5");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    public static class Catalog {
+
+        final AtomicInteger loads = new AtomicInteger();
+
+        @HmdpCacheable(prefix = "cache:test:type:", strategy = CacheStrategy.MUTEX, ttl = 5)
+        public Shop[] shopsOfType(Long typeId) {
+            loads.incrementAndGet();
+            return new Shop[]{new Shop().setId(1L).setTypeId(typeId)};
+        }
+
+        @HmdpCacheable(prefix = "cache:test:shop:", key = "#id", strategy = CacheStrategy.LOGICAL_EXPIRE,
+                ttl = 30, unit = TimeUnit.SECONDS)
+        public Shop shop(Long id) {
+            loads.incrementAndGet();
+            return id == null ? null : new Shop().setId(id);
+        }
+
+        @HmdpCacheEvict(prefix = "cache:test:shop:", key = "#shop.id")
+        public void update(Shop shop) {
+            if (shop.getName() == null) {
+                throw new IllegalArgumentException("店铺名称不能为空");
+            }
+        }
+
+        public void plain() {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheRebuildExecutorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // 单线程、最多排队 3 个任务
+    private final CacheRebuildExecutor executor = new CacheRebuildExecutor(registry, 1, 3, 1000);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        executor.destroy();
+    }
+
+    @Test
+    void queuedTasksRunByPrefixPriorityAndAreDeduplicated() throws InterruptedException {
+        executor.setPriority("cache:shop:", 10);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        occupyWorker();
+
+        assertTrue(executor.submit("cache:user:1", () -> record(order, "cache:user:1", done)));
+        assertTrue(executor.submit("cache:shop:1", () -> record(order, "cache:shop:1", done)));
+        assertFalse(executor.submit("cache:shop:1", () -> record(order, "duplicate", done)));
+        assertTrue(executor.submit("cache:user:2", () -> record(order, "cache:user:2", done)));
+        assertEquals(3.0, registry.get("hmdp.cache.rebuild.queue").gauge().value());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("cache:shop:1", "cache:user:1", "cache:user:2"), order);
+        assertEquals(1.0, registry.get("hmdp.cache.rebuild.deduplicated").counter().count());
+    }
+
+    @Test
+    void fullQueueDropsNewTasks() throws InterruptedException {
+        occupyWorker();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(executor.submit("k" + i, () -> { }));
+        }
+        assertFalse(executor.submit("k3", () -> { }));
+        assertEquals(1.0, registry.get("hmdp.cache.rebuild.rejected").counter().count());
+        // 被丢弃的key可以再次提交
+        release.countDown();
+        assertTrue(resubmit("k3", System.currentTimeMillis() + 5000));
+    }
+
+    @Test
+    void failuresAreCountedAndKeyIsReleased() throws InterruptedException {
+        CountDownLatch failed = new CountDownLatch(1);
+        executor.submit("k", () -> {
+            failed.countDown();
+            throw new IllegalStateException("db down");
+        });
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        // 失败后同一个key可以再次提交
+        assertTrue(resubmit("k", System.currentTimeMillis() + 5000));
+        assertEquals(1.0, registry.get("hmdp.cache.rebuild.failures").counter().count());
+        assertTrue(registry.get("hmdp.cache.rebuild.latency").timer().count() >= 1);
+    }
+
+    private boolean resubmit(String key, long deadline) throws InterruptedException {
+        while (System.currentTimeMillis() < deadline) {
+            if (executor.submit(key, () -> { })) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    // 让唯一的工作线程阻塞，之后提交的任务都在队列中
+    private void occupyWorker() throws InterruptedException {
+        executor.submit("blocker", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void record(List<String> order, String key, CountDownLatch done) {
+        order.add(key);
+        done.countDown();
+    }
+}
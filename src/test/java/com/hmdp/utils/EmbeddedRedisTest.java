@@ -0,0 +1,56 @@
+package com.hmdp.utils;
+
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 使用内存版 Redis 的测试基类：每个测试方法启动一个新的 Redis，结束后关闭。
+ * 子类的 @BeforeEach 在 Redis 启动之后执行，@AfterEach 在 Redis 关闭之前执行
+ */
+public abstract class EmbeddedRedisTest {
+
+    private RedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private final List<RedisMessageListenerContainer> containers = new ArrayList<>();
+
+    protected StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void startRedis() throws IOException {
+        server = RedisServer.newRedisServer().start();
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(server.getHost(), server.getBindPort()));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterEach
+    void stopRedis() throws Exception {
+        for (RedisMessageListenerContainer container : containers) {
+            container.destroy();
+        }
+        containers.clear();
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    /**
+     * 新建一个订阅容器（相当于一个节点的订阅连接），由调用方决定何时 start，测试结束时销毁
+     */
+    protected RedisMessageListenerContainer newContainer() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.afterPropertiesSet();
+        containers.add(container);
+        return container;
+    }
+}
@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按字段保存的缓存，使用内存版 Redis 运行
+ */
+class HashCacheClientTest extends EmbeddedRedisTest {
+
+    private static final String PREFIX = "cache:test-hash:";
+
+    private RedisMessageListenerContainer container;
+    private SimpleMeterRegistry registry;
+    private RedisLockClient lockClient;
+    private CacheRebuildExecutor rebuildExecutor;
+    private HashCacheClient client;
+
+    private final AtomicInteger dbQueries = new AtomicInteger();
+    private volatile Shop dbShop = BinaryCacheCodecTest.shop();
+    private final Function<Long, Shop> db = id -> {
+        dbQueries.incrementAndGet();
+        return dbShop;
+    };
+
+    @BeforeEach
+    void setUp() {
+        container = newContainer();
+        container.start();
+        registry = new SimpleMeterRegistry();
+        lockClient = new RedisLockClient(stringRedisTemplate, container, 30_000);
+        rebuildExecutor = new CacheRebuildExecutor(registry, 1, 100, 1000);
+        client = new HashCacheClient(stringRedisTemplate, lockClient, new SingleFlight(registry, 3000),
+                new BloomFilterRegistry(stringRedisTemplate, container, registry, 0.01, 100),
+                rebuildExecutor, new CacheMetrics(registry), 0.1);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        rebuildExecutor.destroy();
+        lockClient.destroy();
+    }
+
+    @Test
+    void readsOnlyTheRequestedFields() {
+        Shop card = query("name", "avgPrice", "score");
+        assertEquals(dbShop.getName(), card.getName());
+        assertEquals(dbShop.getAvgPrice(), card.getAvgPrice());
+        assertNull(card.getImages());
+        assertEquals(1.0, requests(CacheMetrics.MISS));
+
+        // 所有非空字段都已写入，读取其他字段不再查询数据库
+        Shop detail = query("images", "createTime", "updateTime", "x");
+        assertEquals(dbShop.getImages(), detail.getImages());
+        assertEquals(dbShop.getUpdateTime(), detail.getUpdateTime());
+        assertEquals(dbShop.getX(), detail.getX());
+        assertNull(detail.getName());
+        assertEquals(1, dbQueries.get());
+        assertEquals(1.0, requests(CacheMetrics.HIT));
+        assertThrows(IllegalArgumentException.class, () -> query("password"));
+    }
+
+    @Test
+    void missingRowIsCachedAsNull() {
+        dbShop = null;
+        assertNull(query("name"));
+        assertNull(query("name"));
+        assertEquals(1, dbQueries.get());
+        assertEquals(1.0, requests(CacheMetrics.NULL_HIT));
+        // 空值另有 Redis 过期时间
+        assertTrue(stringRedisTemplate.getExpire(PREFIX + 1, TimeUnit.SECONDS) > 0);
+    }
+
+    @Test
+    void logicallyExpiredValueIsReturnedAndRebuilt() throws InterruptedException {
+        client.setWithLogicalExpire(PREFIX + 1, BinaryCacheCodecTest.shop().setName("stale"), 1L, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+
+        assertEquals("stale", query("name").getName());
+        assertEquals(1.0, requests(CacheMetrics.LOGICAL_EXPIRED));
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!dbShop.getName().equals(query("name").getName()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(dbShop.getName(), query("name").getName());
+        assertEquals(1, dbQueries.get());
+    }
+
+    private Shop query(String... fields) {
+        return client.queryWithLogicalExpire(PREFIX, 1L, Shop.class, Arrays.asList(fields), db, 30L, TimeUnit.MINUTES);
+    }
+
+    private double requests(String outcome) {
+        return registry.get("hmdp.cache.requests").tags("cache", PREFIX, "outcome", outcome).counter().count();
+    }
+}
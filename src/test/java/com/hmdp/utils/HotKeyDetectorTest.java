@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeyDetectorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    // 不抽样，窗口 4 * 1 秒，每秒 10 次访问（窗口内 40 次）即为热点，低于每秒 5 次时冷却
+    private final HotKeyDetector detector = new HotKeyDetector(registry, 1.0, 4, 1000, 10, 0.5, 2, 1024);
+
+    @Test
+    void keyBecomesHotAboveThresholdAndCoolsOffWhenTrafficStops() {
+        List<String> cooled = new ArrayList<>();
+        detector.onCooled(cooled::add);
+        record("cache:shop:1", 39);
+        record("cache:shop:2", 5);
+        assertFalse(detector.isHot("cache:shop:1"));
+        record("cache:shop:1", 1);
+        assertTrue(detector.isHot("cache:shop:1"));
+        assertFalse(detector.isHot("cache:shop:2"));
+        assertEquals(10L, detector.hotKeys().get("cache:shop:1"));
+
+        // 窗口滑过之前仍然是热点，全部滑出后冷却
+        detector.rotate();
+        detector.rotate();
+        assertTrue(detector.isHot("cache:shop:1"));
+        detector.rotate();
+        detector.rotate();
+        assertFalse(detector.isHot("cache:shop:1"));
+        assertEquals(1, cooled.size());
+        assertEquals(1.0, registry.get("hmdp.cache.hot-keys.detected").counter().count());
+    }
+
+    @Test
+    void hotKeySetIsBounded() {
+        record("a", 40);
+        record("b", 40);
+        record("c", 40);
+        assertEquals(2, detector.hotKeys().size());
+        assertFalse(detector.isHot("c"));
+    }
+
+    private void record(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalTokenBucketTest {
+
+    @Test
+    void allowsBurstThenRejects() {
+        // 每秒 1 个令牌，几乎不会在测试期间补充
+        LocalTokenBucket bucket = new LocalTokenBucket(1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        LocalTokenBucket bucket = new LocalTokenBucket(100, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        TimeUnit.MILLISECONDS.sleep(30);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    void acquireWaitsForPermits() throws InterruptedException {
+        LocalTokenBucket bucket = new LocalTokenBucket(100, 1);
+        long start = System.nanoTime();
+        // 1 个令牌立即可用，之后 10 个需要约 100ms；醒来晚了不到一个令牌的间隔（10ms）时桶仍然是空的
+        bucket.acquire(1);
+        bucket.acquire(10);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 90, "elapsed " + elapsedMillis);
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void neverExceedsBurstUnderConcurrency() throws InterruptedException {
+        LocalTokenBucket bucket = new LocalTokenBucket(0.001, 1000);
+        AtomicInteger acquired = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            es.submit(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    if (bucket.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+        }
+        es.shutdown();
+        assertTrue(es.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(1000, acquired.get());
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * order_pay_takeover.lua：接管心跳过期节点的支付截止时间
+ */
+class OrderPayTakeoverScriptTest extends EmbeddedRedisTest {
+
+    @SuppressWarnings("rawtypes")
+    private DefaultRedisScript<List> script;
+
+    @BeforeEach
+    void setUp() {
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("order_pay_takeover.lua"));
+        script.setResultType(List.class);
+        stringRedisTemplate.opsForSet().add(ORDER_PAY_NODES_KEY, "a", "b");
+        stringRedisTemplate.opsForZSet().add(ORDER_PAY_DEADLINE_KEY + "a", "1", 1000);
+        stringRedisTemplate.opsForZSet().add(ORDER_PAY_DEADLINE_KEY + "a", "2", 3000);
+        stringRedisTemplate.opsForZSet().add(ORDER_PAY_DEADLINE_KEY + "b", "2", 3000);
+        stringRedisTemplate.opsForZSet().add(ORDER_PAY_DEADLINE_KEY + "b", "3", 2000);
+    }
+
+    @Test
+    void staleNodeIsMergedOnce() {
+        assertEquals(Arrays.asList("1", "1000", "2", "3000"), takeOver("a", "b"));
+
+        assertEquals(3L, stringRedisTemplate.opsForZSet().size(ORDER_PAY_DEADLINE_KEY + "b"));
+        assertEquals(1000.0, stringRedisTemplate.opsForZSet().score(ORDER_PAY_DEADLINE_KEY + "b", "1"));
+        assertFalse(stringRedisTemplate.hasKey(ORDER_PAY_DEADLINE_KEY + "a"));
+        assertFalse(stringRedisTemplate.opsForSet().isMember(ORDER_PAY_NODES_KEY, "a"));
+        // 已经被接管过
+        assertTrue(takeOver("a", "c").isEmpty());
+    }
+
+    @Test
+    void nodeWithHeartbeatIsNotTakenOver() {
+        stringRedisTemplate.opsForValue().set(ORDER_PAY_HEARTBEAT_KEY + "a", "1");
+
+        assertTrue(takeOver("a", "b").isEmpty());
+        assertEquals(2L, stringRedisTemplate.opsForZSet().size(ORDER_PAY_DEADLINE_KEY + "a"));
+        assertEquals(2L, stringRedisTemplate.opsForZSet().size(ORDER_PAY_DEADLINE_KEY + "b"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> takeOver(String stale, String own) {
+        return stringRedisTemplate.execute(script, Arrays.asList(ORDER_PAY_NODES_KEY, ORDER_PAY_HEARTBEAT_KEY + stale,
+                ORDER_PAY_DEADLINE_KEY + stale, ORDER_PAY_DEADLINE_KEY + own), stale);
+    }
+}
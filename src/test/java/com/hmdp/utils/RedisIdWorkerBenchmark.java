@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * RedisIdWorker 吞吐量：mvn -Pbenchmark test -Djmh.include=RedisIdWorkerBenchmark
+ * <p>
+ * INCRBY 用模拟的 Redis 代替，并人为加上 rtt 微秒的往返延迟，
+ * 对比不同号段长度下本地自增路径的吞吐。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    @Param({"1", "1000", "100000"})
+    public long step;
+
+    @Param({"200"})
+    public long rttMicros;
+
+    private RedisIdWorker idWorker;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        AtomicLong counter = new AtomicLong();
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        when(ops.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            TimeUnit.MICROSECONDS.sleep(rttMicros);
+            long delta = invocation.getArgument(1);
+            return counter.addAndGet(delta);
+        });
+        idWorker = new RedisIdWorker(template, step);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        idWorker.destroy();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long nextIdSingleThread() {
+        return idWorker.nextId("order");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long nextId8Threads() {
+        return idWorker.nextId("order");
+    }
+}
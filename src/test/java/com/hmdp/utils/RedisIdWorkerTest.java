@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisIdWorkerTest {
+
+    private static final int THREADS = 16;
+    private static final int IDS_PER_THREAD = 100_000;
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger incrCalls = new AtomicInteger();
+    private RedisIdWorker idWorker;
+    private RedisIdWorker otherNode;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        // 用本地计数器模拟 Redis INCRBY，多个 worker 共享同一份计数器即模拟多个节点
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        when(ops.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            incrCalls.incrementAndGet();
+            String key = invocation.getArgument(0);
+            long delta = invocation.getArgument(1);
+            return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta);
+        });
+        idWorker = new RedisIdWorker(template, 1000);
+        otherNode = new RedisIdWorker(template, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        idWorker.destroy();
+        otherNode.destroy();
+    }
+
+    @Test
+    void idsAreUniqueUnderConcurrency() throws Exception {
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<long[]>[] futures = new Future[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            RedisIdWorker worker = t % 2 == 0 ? idWorker : otherNode;
+            futures[t] = es.submit(() -> {
+                long[] ids = new long[IDS_PER_THREAD];
+                start.await();
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    ids[i] = worker.nextId("order");
+                }
+                return ids;
+            });
+        }
+        start.countDown();
+
+        long[] all = new long[THREADS * IDS_PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            long[] ids = futures[t].get(60, TimeUnit.SECONDS);
+            // 单个线程内生成的ID严格递增
+            for (int i = 1; i < ids.length; i++) {
+                assertTrue(ids[i] > ids[i - 1]);
+            }
+            System.arraycopy(ids, 0, all, t * IDS_PER_THREAD, IDS_PER_THREAD);
+        }
+        es.shutdown();
+
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertNotEquals(all[i - 1], all[i], "重复的ID: " + all[i]);
+        }
+    }
+
+    @Test
+    void fetchesOneSegmentPerStep() {
+        for (int i = 0; i < 10_000; i++) {
+            idWorker.nextId("order");
+        }
+        // 10000 个ID、号段长度 1000：每个号段至多一次同步加载加一次预取
+        assertTrue(incrCalls.get() <= 20, "INCRBY 次数: " + incrCalls.get());
+    }
+
+    @Test
+    void idStartsWithCurrentTimestamp() {
+        long id = idWorker.nextId("order");
+        long timestamp = id >>> 32;
+        long expected = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - 1640995200L;
+        assertTrue(Math.abs(expected - timestamp) <= 1);
+    }
+
+    @Test
+    void recycledIdIsReusedOnlyWithinTheSameSecond() {
+        // 很早以前归还的ID时间戳不准确，不再复用
+        long stale = 1L << 32 | 5;
+        idWorker.nextId("order");
+        idWorker.recycle("order", stale);
+        assertNotEquals(stale, idWorker.nextId("order"));
+
+        long id = idWorker.nextId("order");
+        idWorker.recycle("order", id);
+        long next = idWorker.nextId("order");
+        if (next >>> 32 == id >>> 32) {
+            assertEquals(id, next);
+        }
+        // 只复用一次
+        assertNotEquals(id, idWorker.nextId("order"));
+    }
+
+    @Test
+    void epochMillisRestoresTheGenerationTime() {
+        long before = System.currentTimeMillis() / 1000 * 1000;
+        long millis = idWorker.epochMillis(idWorker.nextId("order"));
+        assertTrue(millis >= before && millis <= System.currentTimeMillis(), "生成时间: " + millis);
+    }
+}
@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 可重入锁的加锁、解锁、续期和等待通知，使用内存版 Redis 运行
+ */
+class RedisLockTest extends EmbeddedRedisTest {
+
+    private static final String KEY = "lock:test";
+
+    private RedisMessageListenerContainer container;
+    private RedisLockClient client;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    void setUp() {
+        container = newContainer();
+        container.start();
+    }
+
+    private void useLease(long leaseMillis) {
+        client = new RedisLockClient(stringRedisTemplate, container, leaseMillis);
+        client.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        executor.shutdownNow();
+        if (client != null) {
+            client.destroy();
+        }
+    }
+
+    @Test
+    void reentrantAndOnlyOwnerCanUnlock() throws Exception {
+        useLease(30_000);
+        ILock lock = client.getLock(KEY);
+        assertTrue(lock.tryLock());
+        assertTrue(lock.tryLock());
+        // 其他线程既不能加锁，也不能解锁
+        assertFalse(executor.submit(() -> client.getLock(KEY).tryLock()).get());
+        Future<?> foreignUnlock = executor.submit(() -> client.getLock(KEY).unlock());
+        Exception e = assertThrows(Exception.class, foreignUnlock::get);
+        assertTrue(e.getCause() instanceof IllegalMonitorStateException);
+
+        lock.unlock();
+        assertTrue(lock.isHeldByCurrentThread());
+        lock.unlock();
+        assertFalse(stringRedisTemplate.hasKey(KEY));
+    }
+
+    @Test
+    void watchdogRenewsLeaseWhileHeld() throws Exception {
+        useLease(300);
+        ILock lock = client.getLock(KEY);
+        assertTrue(lock.tryLock());
+        // 超过租期（300ms）数倍后仍然持有
+        Thread.sleep(1000);
+        assertTrue(lock.isHeldByCurrentThread());
+        lock.unlock();
+    }
+
+    @Test
+    void waiterWakesUpWhenLockReleased() throws Exception {
+        // 租期很长，等待者只能靠释放通知及时醒来
+        useLease(30_000);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> {
+            ILock lock = client.getLock(KEY);
+            assertTrue(lock.tryLock());
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lock.unlock();
+        }, executor);
+        locked.await();
+
+        Future<Boolean> waiter = executor.submit(() -> client.getLock(KEY).tryLock(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertFalse(waiter.isDone());
+        release.countDown();
+        assertTrue(waiter.get(2, TimeUnit.SECONDS));
+        holder.get();
+    }
+
+    @Test
+    void waitTimesOut() throws Exception {
+        useLease(30_000);
+        assertTrue(client.getLock(KEY).tryLock());
+        long start = System.nanoTime();
+        assertFalse(executor.submit(() -> client.getLock(KEY).tryLock(200, TimeUnit.MILLISECONDS)).get());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+}
@@ -0,0 +1,192 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import redis.embedded.RedisServer;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 店铺详情命中时渲染响应的两种方式：mvn -Pbenchmark test -Djmh.include=ResponseCacheBenchmark
+ * <p>
+ * entity：与原来的 ShopController 相同，从 CacheClient 取出店铺，组装 Result 后由 Jackson 序列化写入响应，
+ * tier=l1 时店铺都在本地缓存中，tier=redis 时本地缓存条数为 0，每次从 Redis 读取并解码；
+ * response：{@link ResponseCache} 命中，直接写入渲染好的字节。100 个店铺已经写入嵌入式 Redis（真实的 redis-server 进程）
+ * 并预先访问过，accept=gzip 时客户端接受 gzip（店铺详情也保存压缩的版本）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseCacheBenchmark {
+
+    private static final String PREFIX = "cache:bench:";
+    private static final int SHOPS = 100;
+
+    @Param({"l1", "redis"})
+    public String tier;
+
+    @Param({"identity", "gzip"})
+    public String accept;
+
+    private RedisServer redisServer;
+    private LettuceConnectionFactory connectionFactory;
+    private RedisMessageListenerContainer container;
+    private RedisLockClient lockClient;
+    private CacheRebuildExecutor rebuildExecutor;
+    private CacheClient cacheClient;
+    private ResponseCache responseCache;
+    private ObjectMapper objectMapper;
+    private final Shop shop = BinaryCacheCodecTest.shop();
+    private MockHttpServletRequest request;
+    private BufferedResponse response;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = RedisServer.newRedisServer().bind("127.0.0.1").port(port).build();
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.afterPropertiesSet();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        lockClient = new RedisLockClient(template, container, 30_000);
+        rebuildExecutor = new CacheRebuildExecutor(registry, 4, 1000, 1000);
+        cacheClient = new CacheClient(template, lockClient, container,
+                new BinaryCacheCodec(), new SingleFlight(registry, 3000),
+                new BloomFilterRegistry(template, container, registry, 0.01, 100),
+                rebuildExecutor,
+                new CacheMetrics(registry),
+                new HotKeyDetector(registry, 0.1, 5, 2000, 200, 0.5, 100, 4096),
+                registry, "l1".equals(tier) ? 10_000 : 0, 60, 0.1, 1.0, 5000);
+        // 与 Spring Boot 配置的 ObjectMapper 相同：支持 LocalDateTime，忽略 null 字段
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        // gzip-min-bytes 为 0，店铺详情也保存压缩的版本
+        responseCache = new ResponseCache(cacheClient, objectMapper, registry, true, 10_000, 60, 0);
+        // 请求、响应对象重复使用，只比较渲染和写入
+        request = new MockHttpServletRequest("GET", "/shop/1");
+        if ("gzip".equals(accept)) {
+            request.addHeader("Accept-Encoding", "gzip, deflate, br");
+        }
+        response = new BufferedResponse();
+        for (long id = 1; id <= SHOPS; id++) {
+            cacheClient.setWithLogicalExpire(PREFIX + id, shop, 30L, TimeUnit.MINUTES);
+            entity();
+            response();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        rebuildExecutor.destroy();
+        lockClient.destroy();
+        container.destroy();
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public BufferedResponse entity() throws IOException {
+        Long id = nextId();
+        Shop cached = cacheClient.queryWithLogicalExpire(PREFIX, id, Shop.class, this::load, 30L, TimeUnit.MINUTES);
+        response.reset();
+        response.setContentType("application/json");
+        objectMapper.writeValue(response.getOutputStream(), Result.ok(cached));
+        return response;
+    }
+
+    @Benchmark
+    public BufferedResponse response() throws IOException {
+        Long id = nextId();
+        response.reset();
+        responseCache.write(PREFIX, id, request, response, () -> Result.ok(cacheClient.queryWithLogicalExpire(
+                PREFIX, id, Shop.class, this::load, 30L, TimeUnit.MINUTES)));
+        return response;
+    }
+
+    private Shop load(Long id) {
+        return shop;
+    }
+
+    private Long nextId() {
+        return next++ % SHOPS + 1;
+    }
+
+    /**
+     * MockHttpServletResponse 的输出流逐字节写入，掩盖了渲染的差别；这里与 Tomcat 一样按数组写入缓冲区
+     */
+    static class BufferedResponse extends MockHttpServletResponse {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                body.write(b, off, len);
+            }
+        };
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            body.reset();
+        }
+    }
+}
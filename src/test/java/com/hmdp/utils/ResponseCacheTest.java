@@ -0,0 +1,187 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hmdp.dto.Result;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ResponseCacheTest {
+
+    private static final String PREFIX = "cache:test:";
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private final AtomicInteger loads = new AtomicInteger();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicLong version = new AtomicLong();
+    private Consumer<String> evictListener;
+    private ResponseCache responseCache;
+
+    @BeforeEach
+    void setUp() {
+        responseCache = responseCache(true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ResponseCache responseCache(boolean enabled) {
+        CacheClient cacheClient = mock(CacheClient.class);
+        when(cacheClient.version(PREFIX + 1)).thenAnswer(invocation -> version.get());
+        ResponseCache responseCache = new ResponseCache(cacheClient, objectMapper, registry, enabled, 10_000, 60, 1024);
+        responseCache.init();
+        ArgumentCaptor<Consumer<String>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(cacheClient).onEvict(captor.capture());
+        evictListener = captor.getValue();
+        return responseCache;
+    }
+
+    // 模拟 CacheClient.delete：版本号加一，再让本节点的缓存失效
+    private void change() {
+        version.incrementAndGet();
+        evictListener.accept(PREFIX + 1);
+    }
+
+    @Test
+    void hitWritesTheRenderedBytesWithoutLoading() throws IOException {
+        Result shop = Result.ok(BinaryCacheCodecTest.shop());
+        MockHttpServletResponse miss = get(null, () -> shop);
+        MockHttpServletResponse hit = get(null, () -> shop);
+
+        assertEquals(1, loads.get());
+        assertArrayEquals(objectMapper.writeValueAsBytes(shop), hit.getContentAsByteArray());
+        assertArrayEquals(miss.getContentAsByteArray(), hit.getContentAsByteArray());
+        assertEquals("application/json", hit.getContentType());
+        assertNull(hit.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    void largeBodiesAreGzippedOnlyForClientsThatAcceptIt() throws IOException {
+        Result types = Result.ok(Collections.nCopies(100, BinaryCacheCodecTest.shop()));
+        byte[] json = get(null, () -> types).getContentAsByteArray();
+
+        MockHttpServletResponse gzipped = get("br, gzip;q=0.8", () -> types);
+        assertEquals("gzip", gzipped.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzipped.getHeader("Vary"));
+        assertTrue(gzipped.getContentLength() < json.length);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getContentAsByteArray()))) {
+            assertArrayEquals(json, readAll(in));
+        }
+        assertNull(get("gzip;q=0", () -> types).getHeader("Content-Encoding"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void failuresAreNotCachedAndEvictionDropsTheEntry() throws IOException {
+        get(null, () -> Result.fail("店铺不存在!"));
+        get(null, () -> Result.ok(1));
+        assertEquals(2, loads.get());
+
+        change();
+        assertEquals("{\"success\":true,\"data\":2}", get(null, () -> Result.ok(2)).getContentAsString());
+        assertEquals(3, loads.get());
+
+        // 渲染期间修改过的结果带着旧的版本号，不会再被使用
+        change();
+        get(null, () -> {
+            change();
+            return Result.ok(3);
+        });
+        assertEquals("{\"success\":true,\"data\":4}", get(null, () -> Result.ok(4)).getContentAsString());
+    }
+
+    @Test
+    void matchingIfNoneMatchIsAnsweredWithNotModified() throws IOException {
+        Result types = Result.ok(Collections.nCopies(100, BinaryCacheCodecTest.shop()));
+        MockHttpServletResponse first = get(null, () -> types);
+        String etag = first.getHeader("ETag");
+        assertEquals("W/\"0\"", etag);
+        assertEquals("no-cache", first.getHeader("Cache-Control"));
+
+        MockHttpServletResponse notModified = get("gzip", "\"other\", " + etag, () -> types);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentLength());
+        assertEquals(etag, notModified.getHeader("ETag"));
+        assertEquals(1, loads.get());
+        assertEquals(1.0, registry.get("hmdp.response.not-modified").counter().count());
+        // 按客户端接受的 gzip 版本计算
+        double saved = registry.get("hmdp.response.saved.bytes").counter().count();
+        assertTrue(saved > 0 && saved < first.getContentLength());
+
+        // 数据变化后 ETag 不同，返回完整的响应
+        change();
+        MockHttpServletResponse changed = get(null, etag, () -> Result.ok(2));
+        assertEquals(200, changed.getStatus());
+        assertEquals("W/\"1\"", changed.getHeader("ETag"));
+        // 失败的响应不带 ETag
+        change();
+        assertNull(get(null, "*", () -> Result.fail("店铺不存在!")).getHeader("ETag"));
+    }
+
+    @Test
+    void notModifiedIsCheckedBeforeLoadingEvenWithoutTheCache() throws IOException {
+        responseCache = responseCache(false);
+        String etag = get(null, () -> Result.ok(1)).getHeader("ETag");
+        assertEquals(1, loads.get());
+
+        MockHttpServletResponse notModified = get(null, etag, () -> Result.ok(1));
+        assertEquals(304, notModified.getStatus());
+        assertEquals(etag, notModified.getHeader("ETag"));
+        assertEquals(1, loads.get());
+        // 没有缓存时每次都调用 loader
+        assertEquals(200, get(null, () -> Result.ok(1)).getStatus());
+        assertEquals(2, loads.get());
+
+        change();
+        assertEquals(200, get(null, etag, () -> Result.ok(2)).getStatus());
+        assertEquals(3, loads.get());
+    }
+
+    private MockHttpServletResponse get(String acceptEncoding, Supplier<Result> loader) throws IOException {
+        return get(acceptEncoding, null, loader);
+    }
+
+    private MockHttpServletResponse get(String acceptEncoding, String ifNoneMatch, Supplier<Result> loader)
+            throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/test/1");
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        responseCache.write(PREFIX, 1L, request, response, () -> {
+            loads.incrementAndGet();
+            return loader.get();
+        });
+        return response;
+    }
+
+    private static byte[] readAll(GZIPInputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
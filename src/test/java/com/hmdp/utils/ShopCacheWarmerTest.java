@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ibatis.cursor.Cursor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ShopCacheWarmerTest {
+
+    private ShopMapper shopMapper;
+    private CacheClient cacheClient;
+    private ValueOperations<String, String> ops;
+    private ShopCacheWarmer warmer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        shopMapper = mock(ShopMapper.class);
+        cacheClient = mock(CacheClient.class);
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ops = mock(ValueOperations.class);
+        when(template.opsForValue()).thenReturn(ops);
+        when(ops.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(shopMapper.selectBatchIds(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return ids.stream().map(ShopCacheWarmerTest::shop).collect(Collectors.toList());
+        });
+        warmer = new ShopCacheWarmer(shopMapper, cacheClient, template, mock(PlatformTransactionManager.class),
+                mock(TaskScheduler.class), new SimpleMeterRegistry(), 500, 2, 1_000_000);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void startupStreamsTheTableInPipelinedBatches() {
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 1200; id++) {
+            shops.add(shop(id));
+        }
+        Cursor<Shop> cursor = mock(Cursor.class);
+        when(cursor.iterator()).thenReturn(shops.iterator());
+        when(shopMapper.scanAll()).thenReturn(cursor);
+
+        warmer.warmUpAll();
+
+        List<Integer> batchSizes = writtenBatches().stream().map(Map::size).collect(Collectors.toList());
+        assertEquals(Arrays.asList(500, 500, 200), batchSizes);
+
+        // 已经预热过时跳过
+        when(ops.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        warmer.warmUpAll();
+        verify(shopMapper, times(1)).scanAll();
+    }
+
+    @Test
+    void scheduledRunWarmsMissesAndHottestKeys() {
+        for (int i = 0; i < 5; i++) {
+            warmer.recordAccess(1L, true);
+        }
+        for (int i = 0; i < 3; i++) {
+            warmer.recordAccess(2L, true);
+        }
+        warmer.recordAccess(3L, true);
+        warmer.recordAccess(4L, false);
+
+        warmer.warmUpHotKeys();
+
+        // 未命中的 4，以及访问最多的 2 个店铺 1、2
+        assertEquals(new HashSet<>(Arrays.asList("cache:shop:4", "cache:shop:1", "cache:shop:2")),
+                writtenBatches().get(0).keySet());
+        // 统计已经清空，下一个周期没有需要预热的店铺
+        warmer.warmUpHotKeys();
+        verify(shopMapper, times(1)).selectBatchIds(anyCollection());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, ?>> writtenBatches() {
+        ArgumentCaptor<Map<String, ?>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(cacheClient, atLeastOnce()).setBatchWithLogicalExpire(captor.capture(), eq(30L), eq(TimeUnit.MINUTES));
+        return captor.getAllValues();
+    }
+
+    private static Shop shop(Long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("shop" + id);
+        return shop;
+    }
+}
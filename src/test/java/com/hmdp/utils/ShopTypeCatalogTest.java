@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 两个节点共用一个内存版 Redis
+ */
+class ShopTypeCatalogTest extends EmbeddedRedisTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private ShopTypeMapper mapper;
+    private volatile List<ShopType> rows = Arrays.asList(type(1L, "美食", 1), type(2L, "KTV", 2));
+
+    @BeforeEach
+    void setUp() {
+        mapper = mock(ShopTypeMapper.class);
+        when(mapper.selectList(any())).thenAnswer(invocation -> new ArrayList<>(rows));
+    }
+
+    @Test
+    void firstReadPublishesAndLaterReadsStayInMemory() throws Exception {
+        ShopTypeCatalog catalog = node();
+        ShopTypeCatalog.Snapshot snapshot = catalog.snapshot();
+        assertEquals(1, snapshot.getVersion());
+        assertEquals("KTV", snapshot.getTypes().get(1).getName());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.getTypes().add(new ShopType()));
+        // 第一个元素是版本号，之后每个类型一个 JSON
+        assertEquals(3L, stringRedisTemplate.opsForList().size(CACHE_SHOP_TYPE_KEY));
+
+        // 之后的读取不访问 Redis 和数据库：删除 Redis 中的目录后读到的仍是同一个快照
+        stringRedisTemplate.delete(CACHE_SHOP_TYPE_KEY);
+        assertSame(snapshot, catalog.snapshot());
+        verify(mapper, times(1)).selectList(any());
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new ResponseCache(mock(CacheClient.class), objectMapper, new SimpleMeterRegistry(), true, 100, 60, 1024)
+                .write(CACHE_SHOP_TYPE_KEY, new MockHttpServletRequest(), response, snapshot.getResponse());
+        assertEquals("{\"success\":true,\"data\":[{\"id\":1,\"name\":\"美食\",\"sort\":1},"
+                + "{\"id\":2,\"name\":\"KTV\",\"sort\":2}]}", response.getContentAsString(StandardCharsets.UTF_8));
+        // ETag 是目录的版本号
+        assertEquals("W/\"1\"", response.getHeader("ETag"));
+    }
+
+    @Test
+    void publishReplacesTheCatalogOnEveryNode() throws InterruptedException {
+        ShopTypeCatalog a = node();
+        ShopTypeCatalog b = node();
+        a.snapshot();
+        // 第二个节点从 Redis 加载，不查询数据库
+        assertEquals(1, b.snapshot().getVersion());
+        verify(mapper, times(1)).selectList(any());
+
+        rows = Arrays.asList(type(3L, "丽人", 0), type(1L, "美食", 1));
+        assertEquals(2, a.publish());
+        assertEquals("丽人", a.snapshot().getTypes().get(0).getName());
+        long deadline = System.currentTimeMillis() + 3000;
+        while (b.snapshot().getVersion() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, b.snapshot().getVersion());
+        assertEquals(2, b.snapshot().getTypes().size());
+        assertEquals(3L, stringRedisTemplate.opsForList().size(CACHE_SHOP_TYPE_KEY));
+        assertEquals(-1L, stringRedisTemplate.getExpire(CACHE_SHOP_TYPE_KEY));
+    }
+
+    @Test
+    void olderVersionDoesNotReplaceANewerCatalog() {
+        ShopTypeCatalog a = node();
+        a.snapshot();
+        // 模拟另一个节点在 a 读取数据库之后、替换之前发布了版本 5
+        stringRedisTemplate.opsForList().leftPop(CACHE_SHOP_TYPE_KEY);
+        stringRedisTemplate.opsForList().leftPush(CACHE_SHOP_TYPE_KEY, "5");
+        assertEquals(5, a.publish());
+        assertEquals("5", stringRedisTemplate.opsForList().index(CACHE_SHOP_TYPE_KEY, 0));
+        assertEquals(5, a.snapshot().getVersion());
+        assertTrue(stringRedisTemplate.keys(CACHE_SHOP_TYPE_KEY + ":tmp:*").isEmpty());
+    }
+
+    @Test
+    void publisherThatReadEarlierDoesNotWinWithAHigherVersion() {
+        ShopTypeCatalog a = node();
+        ShopTypeCatalog b = node();
+        a.snapshot();
+        List<ShopType> stale = rows;
+        List<ShopType> fresh = Arrays.asList(type(3L, "丽人", 0), type(1L, "美食", 1));
+        // a 读到旧数据之后，第二次修改提交，b 发布完成，a 才继续发布
+        AtomicBoolean interleaved = new AtomicBoolean();
+        when(mapper.selectList(any())).thenAnswer(invocation -> {
+            if (interleaved.compareAndSet(false, true)) {
+                rows = fresh;
+                b.publish();
+                return new ArrayList<>(stale);
+            }
+            return new ArrayList<>(rows);
+        });
+
+        a.publish();
+
+        assertEquals(3L, b.snapshot().getVersion());
+        assertEquals("丽人", b.snapshot().getTypes().get(0).getName());
+        assertEquals("3", stringRedisTemplate.opsForList().index(CACHE_SHOP_TYPE_KEY, 0));
+        assertEquals("丽人", a.snapshot().getTypes().get(0).getName());
+    }
+
+    private ShopTypeCatalog node() {
+        RedisMessageListenerContainer container = newContainer();
+        container.start();
+        ResponseCache responseCache = new ResponseCache(mock(CacheClient.class), objectMapper,
+                new SimpleMeterRegistry(), true, 100, 60, 1024);
+        ShopTypeCatalog catalog = new ShopTypeCatalog(mapper, stringRedisTemplate, container, responseCache,
+                objectMapper);
+        catalog.init();
+        return catalog;
+    }
+
+    private static ShopType type(Long id, String name, int sort) {
+        return new ShopType().setId(id).setName(name).setSort(sort);
+    }
+}
@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(registry, 3000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> singleFlight.execute("k", () -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return "v";
+                })));
+            }
+            // 等所有调用方都已到达，再让加载完成
+            while (registry.get("hmdp.cache.coalesced").counter().count() < 7) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("v", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        // 加载结束后再次调用会重新加载
+        assertEquals("v2", singleFlight.execute("k", () -> "v2"));
+    }
+
+    @Test
+    void loaderErrorIsPropagatedToWaiters() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(registry, 3000);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> leader = pool.submit(() -> singleFlight.execute("k", () -> {
+                entered.countDown();
+                await(release);
+                throw new IllegalArgumentException("db down");
+            }));
+            // 等 leader 开始加载后再发起第二个调用，否则第二个调用可能先成为 leader
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            Future<Object> follower = pool.submit(() -> singleFlight.execute("k", () -> "unused"));
+            while (registry.get("hmdp.cache.coalesced").counter().count() < 1) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            Exception e1 = assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+            Exception e2 = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+            assertTrue(e1.getCause() instanceof IllegalArgumentException);
+            assertTrue(e2.getCause() instanceof IllegalArgumentException);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void waitersGiveUpAfterTimeout() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(registry, 50);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = pool.submit(() -> singleFlight.execute("k", () -> {
+                await(release);
+                return "v";
+            }));
+            Thread.sleep(100);
+            assertThrows(IllegalStateException.class, () -> singleFlight.execute("k", () -> "unused"));
+            assertEquals(1.0, registry.get("hmdp.cache.coalesced.timeouts").counter().count());
+            release.countDown();
+            assertEquals("v", leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    @Test
+    void expiresAtDeadlineAcrossLevels() {
+        long start = 1_000_000L;
+        TimingWheel wheel = new TimingWheel(1, start);
+        Random random = new Random(42);
+        Map<Long, Long> deadlines = new HashMap<>();
+        for (long id = 1; id <= 50_000; id++) {
+            // 覆盖第0层到第3层，以及超过时间轮跨度的任务
+            long delay = id % 10 == 0 ? 20_000_000L + random.nextInt(1000) : 1 + random.nextInt(300_000);
+            deadlines.put(id, start + delay);
+            wheel.add(id, start + delay);
+        }
+        assertEquals(50_000, wheel.size());
+
+        int expiredCount = 0;
+        long now = start;
+        while (wheel.size() > 0) {
+            now += 1 + random.nextInt(500);
+            TimingWheel.LongList expired = wheel.advance(now);
+            for (int i = 0; i < expired.size(); i++) {
+                long deadline = deadlines.remove(expired.get(i));
+                // 不会提前到期，也不会晚于本次推进
+                assertTrue(deadline <= now, "提前到期");
+                assertTrue(deadline > now - 501, "延迟到期");
+                expiredCount++;
+            }
+        }
+        assertEquals(50_000, expiredCount);
+        assertTrue(deadlines.isEmpty());
+    }
+
+    @Test
+    void pastDeadlineExpiresOnNextTick() {
+        TimingWheel wheel = new TimingWheel(1000, 10_000);
+        wheel.add(1, 5_000);
+        assertEquals(0, wheel.advance(10_999).size());
+        TimingWheel.LongList expired = wheel.advance(11_000);
+        assertEquals(1, expired.size());
+        assertEquals(1, expired.get(0));
+    }
+}